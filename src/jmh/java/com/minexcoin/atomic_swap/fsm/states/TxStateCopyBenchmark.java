@@ -0,0 +1,122 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.fsm.states;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.TestNet3Params;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.minexcoin.atomic_swap.fsm.data.Data;
+import com.minexcoin.atomic_swap.fsm.data.ImmutableData;
+import com.minexcoin.atomic_swap.fsm.data.SimpleData;
+import com.minexcoin.atomic_swap.workers.BitcoinWorker;
+
+// Cost of the state copy taken on every transition,
+// mutable data is cloned while immutable data is shared.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TxStateCopyBenchmark {
+
+    @Setup
+    public void setup() {
+        final Data self = data();
+        final Data partner = data();
+
+        simple_ = new BenchState(self, partner, TxStatus.BuyerTx);
+        immutable_ = new BenchState(
+            ImmutableData.of(self), ImmutableData.of(partner), TxStatus.BuyerTx
+        );
+    }
+
+    @Benchmark
+    public TxState<TxStatus> copySimpleData() {
+        return simple_.copy();
+    }
+
+    @Benchmark
+    public TxState<TxStatus> copyImmutableData() {
+        return immutable_.copy();
+    }
+
+    @Benchmark
+    public Data withCloseTxSimpleData() {
+        return simple_.selfData().withCloseTx(CloseTx);
+    }
+
+    @Benchmark
+    public Data withCloseTxImmutableData() {
+        return immutable_.selfData().withCloseTx(CloseTx);
+    }
+
+
+
+    private static final class BenchState extends AbstractTxState<TxStatus> {
+
+        public BenchState(final Data selfData, final Data partnerData, final TxStatus status) {
+            super(selfData, partnerData, status);
+        }
+
+        @Override
+        public TxState<TxStatus> copy() {
+            return new BenchState(selfData(), partnerData(), status());
+        }
+
+    }
+
+    private static Data data() {
+        final SimpleData data = new SimpleData();
+        data.inetAddress(new InetSocketAddress("127.0.0.1", 18332));
+        data.nodeAddress(new InetSocketAddress("127.0.0.1", 18332));
+        data.nodeLogin("login");
+        data.nodePassword("password");
+        data.notificationPort(28332);
+        data.amount(Coin.COIN);
+        data.myKey(new ECKey());
+        data.otherKey(new ECKey());
+        data.worker(BitcoinWorker.instance());
+        data.secret(Sha256Hash.of(new byte[] {1, 2, 3}));
+        data.confirmations(6);
+        data.csv(144);
+        data.netParams(TestNet3Params.get());
+        data.txOutPoint(new TransactionOutPoint(TestNet3Params.get(), 0, CloseTx));
+        return data;
+    }
+
+    private static final Sha256Hash CloseTx = Sha256Hash.of(new byte[] {4, 5, 6});
+
+    private BenchState simple_;
+    private BenchState immutable_;
+
+}
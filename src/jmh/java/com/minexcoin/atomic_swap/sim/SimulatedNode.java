@@ -0,0 +1,807 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.sim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VarInt;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.zeromq.ZMQ;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import wf.bitcoin.krotjson.JSON;
+
+// Stand-in for a bitcoind family node on loopback: the JSON-RPC subset the
+// workers use and hashtx/rawtx/hashblock/rawblock ZMQ notifications.
+// Scripts aren't verified, a transaction is accepted unless it double spends
+// without replacing by BIP125 or its relative lock time isn't reached yet.
+// The wallet has endless coins.
+public final class SimulatedNode implements AutoCloseable {
+
+    // mempoolLoad is the number of unrelated transactions per second,
+    // every watcher has to decode and skip them.
+    public static SimulatedNode start(
+        final NetworkParameters params,
+        final long blockInterval, final TimeUnit unit,
+        final int mempoolLoad
+    ) throws IOException {
+        return new SimulatedNode(params, blockInterval, unit, mempoolLoad);
+    }
+
+    public InetSocketAddress rpcAddress() {
+        return http().getAddress();
+    }
+
+    public int notificationPort() {
+        return notificationPort_;
+    }
+
+    public NetworkParameters params() {
+        return params_;
+    }
+
+    public synchronized int height() {
+        return height_;
+    }
+
+    public synchronized int mempoolSize() {
+        return mempool().size();
+    }
+
+    public void mine() {
+        scheduler().execute(this::mineBlock);
+    }
+
+    @Override
+    public void close() {
+        scheduler().shutdownNow();
+        http().stop(0);
+        rpcPool().shutdownNow();
+        notifier().shutdown();
+        try {
+            notifier().awaitTermination(1, TimeUnit.SECONDS);
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        publisher().close();
+        context().term();
+    }
+
+
+
+    private static final class Entry {
+
+        public Entry(final Transaction transaction, final byte[] raw, final boolean isNoise) {
+            transaction_ = transaction;
+            raw_ = raw;
+            isNoise_ = isNoise;
+            height_ = 0;
+        }
+
+        public Transaction transaction() {
+            return transaction_;
+        }
+
+        public byte[] raw() {
+            return raw_;
+        }
+
+        public boolean isNoise() {
+            return isNoise_;
+        }
+
+        public int height() {
+            return height_;
+        }
+
+        public void height(final int height) {
+            height_ = height;
+        }
+
+        private final Transaction transaction_;
+        private final byte[] raw_;
+        private final boolean isNoise_;
+        private int height_; // 0 is in mempool
+
+    }
+
+    private static final class Block {
+
+        public Block(
+            final Sha256Hash hash, final Sha256Hash previous,
+            final int height, final List<Sha256Hash> txs,
+            final byte[] raw
+        ) {
+            hash_ = hash;
+            previous_ = previous;
+            height_ = height;
+            txs_ = txs;
+            raw_ = raw;
+        }
+
+        public Sha256Hash hash() {
+            return hash_;
+        }
+
+        public Sha256Hash previous() {
+            return previous_;
+        }
+
+        public int height() {
+            return height_;
+        }
+
+        public List<Sha256Hash> txs() {
+            return txs_;
+        }
+
+        public byte[] raw() {
+            return raw_;
+        }
+
+        private final Sha256Hash hash_;
+        private final Sha256Hash previous_;
+        private final int height_;
+        private final List<Sha256Hash> txs_;
+        private final byte[] raw_;
+
+    }
+
+    private static final class RpcError extends RuntimeException {
+
+        public RpcError(final int code, final String message) {
+            super(message);
+            code_ = code;
+        }
+
+        public int code() {
+            return code_;
+        }
+
+        private static final long serialVersionUID = 1L;
+
+        private final int code_;
+
+    }
+
+    private SimulatedNode(
+        final NetworkParameters params,
+        final long blockInterval, final TimeUnit unit,
+        final int mempoolLoad
+    ) throws IOException {
+        params_ = params;
+        random_ = new Random();
+        txs_ = new HashMap<>();
+        spent_ = new HashMap<>();
+        mempool_ = new LinkedHashSet<>();
+        blocks_ = new LinkedHashMap<Sha256Hash, Block>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Sha256Hash, Block> eldest) {
+                return size() > RetainedBlocks;
+            }
+        };
+        sequences_ = new HashMap<>();
+        tip_ = Sha256Hash.ZERO_HASH;
+        height_ = 0;
+        noiseDebt_ = 0;
+
+        context_ = ZMQ.context(1);
+        publisher_ = context_.socket(ZMQ.PUB);
+        publisher_.setSndHWM(0);
+        notificationPort_ = publisher_.bindToRandomPort("tcp://127.0.0.1");
+        notifier_ = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("SimulatedNode-ZMQ-%d").setDaemon(true).build()
+        );
+
+        rpcPool_ = Executors.newFixedThreadPool(
+            RpcThreads,
+            new ThreadFactoryBuilder().setNameFormat("SimulatedNode-RPC-%d").setDaemon(true).build()
+        );
+        http_ = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), RpcBacklog);
+        http_.createContext("/", this::handle);
+        http_.setExecutor(rpcPool_);
+        http_.start();
+
+        scheduler_ = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("SimulatedNode-Miner-%d").setDaemon(true).build()
+        );
+        scheduler_.scheduleAtFixedRate(this::mineBlock, blockInterval, blockInterval, unit);
+        if (mempoolLoad > 0) {
+            scheduler_.scheduleAtFixedRate(
+                () -> noise(mempoolLoad),
+                NoiseMillisecPeriod, NoiseMillisecPeriod, TimeUnit.MILLISECONDS
+            );
+        }
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            final Object request = JSON.parse(new String(
+                ByteStreams.toByteArray(exchange.getRequestBody()), StandardCharsets.UTF_8
+            ));
+
+            final Object response;
+            int code = 200;
+            if (request instanceof List) {
+                final List<Object> answers = new ArrayList<>();
+                for (final Object single : (List<?>)request) {
+                    answers.add(answer(cast(single)));
+                }
+                response = answers;
+            } else {
+                final Map<String, Object> answer = answer(cast(request));
+                if (answer.get("error") != null) {
+                    code = 500;
+                }
+                response = answer;
+            }
+
+            final byte[] body = JSON.stringify(response).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(code, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (final RuntimeException exception) {
+            exchange.sendResponseHeaders(400, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Map<String, Object> answer(final Map<String, Object> request) {
+        final Map<String, Object> answer = new LinkedHashMap<>();
+        try {
+            answer.put("result", call(
+                (String)request.get("method"),
+                request.get("params") == null ?
+                new ArrayList<>() :
+                (List<?>)request.get("params")
+            ));
+            answer.put("error", null);
+        } catch (final RpcError error) {
+            final Map<String, Object> details = new LinkedHashMap<>();
+            details.put("code", error.code());
+            details.put("message", error.getMessage());
+            answer.put("result", null);
+            answer.put("error", details);
+        }
+        answer.put("id", request.get("id"));
+        return answer;
+    }
+
+    private Object call(final String method, final List<?> params) {
+        switch (method) {
+            case "getblockcount":
+                return height();
+            case "getbestblockhash":
+                synchronized (this) {
+                    return tip().toString();
+                }
+            case "getblockhash":
+                return blockHash(((Number)params.get(0)).intValue());
+            case "getblock":
+                return block(
+                    Sha256Hash.wrap((String)params.get(0)),
+                    params.size() < 2 || isTrue(params.get(1))
+                );
+            case "getrawmempool":
+                return rawMempool();
+            case "getrawtransaction":
+                return rawTransaction(
+                    Sha256Hash.wrap((String)params.get(0)),
+                    params.size() > 1 && isTrue(params.get(1))
+                );
+            case "sendrawtransaction":
+                return submit(Utils.HEX.decode((String)params.get(0)), false).toString();
+            case "sendtoaddress":
+                return sendToAddress(
+                    (String)params.get(0),
+                    Coin.valueOf(Math.round(((Number)params.get(1)).doubleValue() * Coin.COIN.value))
+                ).toString();
+            case "sendmany":
+                return sendMany((Map<?, ?>)params.get(1)).toString();
+            case "estimatesmartfee":
+                return estimateSmartFee(((Number)params.get(0)).intValue());
+            default:
+                throw new RpcError(-32601, "Method not found");
+        }
+    }
+
+    private synchronized String blockHash(final int height) {
+        if (height < 1 || height > height()) {
+            throw new RpcError(-8, "Block height out of range");
+        }
+
+        Sha256Hash hash = tip();
+        for (int current = height(); current > height; --current) {
+            hash = blocks().get(hash).previous();
+        }
+        return hash.toString();
+    }
+
+    private synchronized Object block(final Sha256Hash hash, final boolean isVerbose) {
+        final Block block = blocks().get(hash);
+        if (block == null) {
+            throw new RpcError(-5, "Block not found");
+        }
+
+        if (!isVerbose) {
+            return Utils.HEX.encode(block.raw());
+        }
+
+        final List<String> txs = new ArrayList<>();
+        block.txs().forEach(txHash -> txs.add(txHash.toString()));
+
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("hash", block.hash().toString());
+        result.put("confirmations", height() - block.height() + 1);
+        result.put("height", block.height());
+        result.put("previousblockhash", block.previous().toString());
+        result.put("tx", txs);
+        return result;
+    }
+
+    private synchronized Object rawTransaction(final Sha256Hash hash, final boolean isVerbose) {
+        final Entry entry = txs().get(hash);
+        if (entry == null) {
+            throw new RpcError(-5, "No such mempool or blockchain transaction");
+        }
+
+        final String hex = Utils.HEX.encode(entry.raw());
+        if (!isVerbose) {
+            return hex;
+        }
+
+        final Transaction transaction = entry.transaction();
+
+        final List<Object> inputs = new ArrayList<>();
+        for (final TransactionInput input : transaction.getInputs()) {
+            final Map<String, Object> scriptSig = new LinkedHashMap<>();
+            scriptSig.put("asm", "");
+            scriptSig.put("hex", Utils.HEX.encode(input.getScriptBytes()));
+
+            final Map<String, Object> in = new LinkedHashMap<>();
+            in.put("txid", input.getOutpoint().getHash().toString());
+            in.put("vout", input.getOutpoint().getIndex());
+            in.put("scriptSig", scriptSig);
+            in.put("sequence", input.getSequenceNumber());
+            inputs.add(in);
+        }
+
+        final List<Object> outputs = new ArrayList<>();
+        for (final TransactionOutput output : transaction.getOutputs()) {
+            final Script script = output.getScriptPubKey();
+            final Map<String, Object> scriptPubKey = new LinkedHashMap<>();
+            scriptPubKey.put("hex", Utils.HEX.encode(output.getScriptBytes()));
+            if (script.isPayToScriptHash() || script.isSentToAddress()) {
+                scriptPubKey.put("type", script.isPayToScriptHash() ? "scripthash" : "pubkeyhash");
+                final List<Object> addresses = new ArrayList<>();
+                addresses.add(script.getToAddress(params()).toBase58());
+                scriptPubKey.put("addresses", addresses);
+            } else {
+                scriptPubKey.put("type", "nonstandard");
+            }
+
+            final Map<String, Object> out = new LinkedHashMap<>();
+            out.put("value", BigDecimal.valueOf(output.getValue().value, 8));
+            out.put("n", output.getIndex());
+            out.put("scriptPubKey", scriptPubKey);
+            outputs.add(out);
+        }
+
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("hex", hex);
+        result.put("txid", hash.toString());
+        result.put("version", transaction.getVersion());
+        result.put("locktime", transaction.getLockTime());
+        result.put("vin", inputs);
+        result.put("vout", outputs);
+        // Like bitcoind, mempool transactions have no confirmations
+        if (entry.height() > 0) {
+            result.put("confirmations", height() - entry.height() + 1);
+        }
+        return result;
+    }
+
+    private Sha256Hash sendToAddress(final String address, final Coin amount) {
+        final Map<String, Object> amounts = new LinkedHashMap<>();
+        amounts.put(address, (double)amount.value / Coin.COIN.value);
+        return sendMany(amounts);
+    }
+
+    private synchronized List<String> rawMempool() {
+        final List<String> txIds = new ArrayList<>(mempool().size());
+        mempool().forEach(hash -> txIds.add(hash.toString()));
+        return txIds;
+    }
+
+    // Fee rate grows with the mempool, like a congested node's estimate.
+    private synchronized Map<String, Object> estimateSmartFee(final int blocks) {
+        final Map<String, Object> estimate = new LinkedHashMap<>();
+        estimate.put("feerate", BaseFeeRate * (1 + mempool().size() / 100.0));
+        estimate.put("blocks", blocks);
+        return estimate;
+    }
+
+    private Sha256Hash sendMany(final Map<?, ?> amounts) {
+        final Transaction transaction = new Transaction(params());
+        transaction.addInput(new TransactionInput(
+            params(), transaction, new byte[] {},
+            new TransactionOutPoint(params(), 0, randomHash())
+        ));
+
+        amounts.forEach((address, amount) -> {
+            final Address destination;
+            try {
+                destination = Address.fromBase58(params(), (String)address);
+            } catch (final RuntimeException exception) {
+                throw new RpcError(-5, "Invalid address");
+            }
+
+            transaction.addOutput(
+                Coin.valueOf(Math.round(((Number)amount).doubleValue() * Coin.COIN.value)),
+                destination
+            );
+        });
+        transaction.addOutput(Coin.COIN, randomAddress());
+
+        return submit(transaction.bitcoinSerialize(), false);
+    }
+
+    private void noise(final int perSecond) {
+        synchronized (this) {
+            noiseDebt_ += perSecond * NoiseMillisecPeriod;
+        }
+
+        while (true) {
+            synchronized (this) {
+                if (noiseDebt_ < 1000) {
+                    return;
+                }
+                noiseDebt_ -= 1000;
+            }
+
+            final Transaction transaction = new Transaction(params());
+            transaction.addInput(new TransactionInput(
+                params(), transaction, new byte[] {},
+                new TransactionOutPoint(params(), 0, randomHash())
+            ));
+            transaction.addOutput(Coin.CENT, randomAddress());
+            transaction.addOutput(Coin.CENT, randomAddress());
+
+            submit(transaction.bitcoinSerialize(), true);
+        }
+    }
+
+    private synchronized Sha256Hash submit(final byte[] raw, final boolean isNoise) {
+        final Transaction transaction;
+        try {
+            transaction = new Transaction(params(), raw);
+        } catch (final ProtocolException exception) {
+            throw new RpcError(-22, "TX decode failed");
+        }
+
+        final Sha256Hash hash = transaction.getHash();
+        if (txs().containsKey(hash)) {
+            return hash;
+        }
+
+        final Set<Sha256Hash> conflicts = new LinkedHashSet<>();
+        for (final TransactionInput input : transaction.getInputs()) {
+            final Sha256Hash spender = spent().get(input.getOutpoint());
+            if (spender != null) {
+                conflicts.add(spender);
+            }
+            if (!isFinal(transaction, input)) {
+                throw new RpcError(-26, "non-BIP68-final");
+            }
+        }
+        replace(transaction, conflicts);
+
+        final Entry entry = new Entry(transaction, raw, isNoise);
+        txs().put(hash, entry);
+        mempool().add(hash);
+        if (!isNoise) {
+            transaction.getInputs().forEach(input -> spent().put(input.getOutpoint(), hash));
+        }
+
+        publish("hashtx", hash.getBytes());
+        publish("rawtx", raw);
+        return hash;
+    }
+
+    // BIP125 without the package limits: unmined conflicts signaling
+    // replaceability give way to a transaction paying more than all of them.
+    private void replace(final Transaction transaction, final Set<Sha256Hash> conflicts) {
+        long replaced = 0;
+        for (final Sha256Hash conflict : conflicts) {
+            final Entry entry = txs().get(conflict);
+            if (entry == null || entry.height() > 0 || !isReplaceable(entry.transaction())) {
+                throw new RpcError(-26, "txn-mempool-conflict");
+            }
+            replaced += fee(entry.transaction());
+        }
+
+        if (!conflicts.isEmpty() && fee(transaction) <= replaced) {
+            throw new RpcError(-26, "insufficient fee");
+        }
+
+        conflicts.forEach(this::evict);
+    }
+
+    // Descendants leave the mempool with their ancestor.
+    private void evict(final Sha256Hash hash) {
+        final Entry entry = txs().remove(hash);
+        if (entry == null) {
+            return;
+        }
+
+        mempool().remove(hash);
+        entry.transaction().getInputs().forEach(input -> spent().remove(input.getOutpoint(), hash));
+        for (int index = 0; index < entry.transaction().getOutputs().size(); ++index) {
+            final Sha256Hash child = spent().get(new TransactionOutPoint(params(), index, hash));
+            if (child != null) {
+                evict(child);
+            }
+        }
+    }
+
+    // Inputs the node hasn't seen count as worthless.
+    private long fee(final Transaction transaction) {
+        long fee = 0;
+        for (final TransactionInput input : transaction.getInputs()) {
+            final Entry parent = txs().get(input.getOutpoint().getHash());
+            final long index = input.getOutpoint().getIndex();
+            if (parent != null && index < parent.transaction().getOutputs().size()) {
+                fee += parent.transaction().getOutput(index).getValue().value;
+            }
+        }
+        for (final TransactionOutput output : transaction.getOutputs()) {
+            fee -= output.getValue().value;
+        }
+        return fee;
+    }
+
+    private static boolean isReplaceable(final Transaction transaction) {
+        return transaction.getInputs().stream().
+        anyMatch(input -> input.getSequenceNumber() < 0xfffffffeL);
+    }
+
+    // BIP68 block based relative lock time of an input
+    // spending a known output, checked against the next block.
+    private boolean isFinal(final Transaction transaction, final TransactionInput input) {
+        final long sequence = input.getSequenceNumber();
+        if (
+            transaction.getVersion() < 2 ||
+            (sequence & SequenceDisableFlag) != 0 ||
+            (sequence & SequenceTypeFlag) != 0
+        ) {
+            return true;
+        }
+
+        final Entry parent = txs().get(input.getOutpoint().getHash());
+        if (parent == null) {
+            return true;
+        }
+
+        final long lock = sequence & SequenceMask;
+        return parent.height() > 0 && height() + 1 >= parent.height() + lock;
+    }
+
+    private void mineBlock() {
+        final ByteArrayOutputStream rawBlock = new ByteArrayOutputStream();
+        final Sha256Hash hash;
+
+        synchronized (this) {
+            final int height = height() + 1;
+            final List<Sha256Hash> txHashes = new ArrayList<>(mempool());
+
+            final ByteBuffer header = ByteBuffer.allocate(80).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(4);
+            header.put(tip().getReversedBytes());
+            header.put(randomHash().getReversedBytes());
+            header.putInt((int)(System.currentTimeMillis() / 1000));
+            header.putInt(0x207fffff);
+            header.putInt(height);
+            hash = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(header.array()));
+
+            rawBlock.write(header.array(), 0, 80);
+            final byte[] count = new VarInt(txHashes.size()).encode();
+            rawBlock.write(count, 0, count.length);
+
+            for (final Sha256Hash txHash : txHashes) {
+                final Entry entry = txs().get(txHash);
+                rawBlock.write(entry.raw(), 0, entry.raw().length);
+
+                // Nobody looks noise up after it's mined
+                if (entry.isNoise()) {
+                    txs().remove(txHash);
+                } else {
+                    entry.height(height);
+                }
+            }
+
+            blocks().put(hash, new Block(hash, tip(), height, txHashes, rawBlock.toByteArray()));
+            mempool().clear();
+            tip(hash);
+            height(height);
+
+            publish("hashblock", hash.getBytes());
+            publish("rawblock", rawBlock.toByteArray());
+        }
+    }
+
+    // Called under the lock, so notifications keep the node order.
+    private void publish(final String topic, final byte[] body) {
+        final int sequence = sequences().merge(topic, 1, Integer::sum) - 1;
+        notifier().execute(() -> {
+            final byte[] number = ByteBuffer.allocate(4).
+            order(ByteOrder.LITTLE_ENDIAN).
+            putInt(sequence).
+            array();
+
+            publisher().sendMore(topic);
+            publisher().sendMore(body);
+            publisher().send(number);
+        });
+    }
+
+    private Sha256Hash randomHash() {
+        final byte[] bytes = new byte[Sha256Hash.LENGTH];
+        random().nextBytes(bytes);
+        return Sha256Hash.wrap(bytes);
+    }
+
+    private Address randomAddress() {
+        final byte[] hash160 = new byte[20];
+        random().nextBytes(hash160);
+        return new Address(params(), hash160);
+    }
+
+    private static boolean isTrue(final Object verbose) {
+        return (verbose instanceof Boolean) ?
+        (Boolean)verbose :
+        ((Number)verbose).intValue() != 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> cast(final Object request) {
+        return (Map<String, Object>)request;
+    }
+
+    private Random random() {
+        return random_;
+    }
+
+    private Map<Sha256Hash, Entry> txs() {
+        return txs_;
+    }
+
+    private Map<TransactionOutPoint, Sha256Hash> spent() {
+        return spent_;
+    }
+
+    private Set<Sha256Hash> mempool() {
+        return mempool_;
+    }
+
+    private Map<Sha256Hash, Block> blocks() {
+        return blocks_;
+    }
+
+    private Map<String, Integer> sequences() {
+        return sequences_;
+    }
+
+    private Sha256Hash tip() {
+        return tip_;
+    }
+
+    private void tip(final Sha256Hash tip) {
+        tip_ = tip;
+    }
+
+    private void height(final int height) {
+        height_ = height;
+    }
+
+    private HttpServer http() {
+        return http_;
+    }
+
+    private ExecutorService rpcPool() {
+        return rpcPool_;
+    }
+
+    private ScheduledExecutorService scheduler() {
+        return scheduler_;
+    }
+
+    private ExecutorService notifier() {
+        return notifier_;
+    }
+
+    private ZMQ.Context context() {
+        return context_;
+    }
+
+    private ZMQ.Socket publisher() {
+        return publisher_;
+    }
+
+    private static final int RpcThreads = 8;
+    private static final int RpcBacklog = 256;
+    private static final int RetainedBlocks = 1000;
+    private static final long NoiseMillisecPeriod = 10;
+    private static final double BaseFeeRate = 0.00005; // coins per 1000 bytes
+    // BIP68 fields, bitcoinj 0.14 doesn't define them
+    private static final long SequenceDisableFlag = 1L << 31;
+    private static final long SequenceTypeFlag = 1L << 22;
+    private static final long SequenceMask = 0x0000ffffL;
+
+    private final NetworkParameters params_;
+    private final Random random_;
+    private final Map<Sha256Hash, Entry> txs_;
+    private final Map<TransactionOutPoint, Sha256Hash> spent_;
+    private final Set<Sha256Hash> mempool_;
+    private final Map<Sha256Hash, Block> blocks_;
+    private final Map<String, Integer> sequences_;
+    private Sha256Hash tip_;
+    private int height_;
+    private long noiseDebt_;
+    private final ZMQ.Context context_;
+    private final ZMQ.Socket publisher_;
+    private final int notificationPort_;
+    private final ExecutorService notifier_;
+    private final ExecutorService rpcPool_;
+    private final HttpServer http_;
+    private final ScheduledExecutorService scheduler_;
+
+}
@@ -0,0 +1,321 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.sim;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+
+import com.minexcoin.atomic_swap.SwapEngine;
+import com.minexcoin.atomic_swap.fsm.data.Data;
+import com.minexcoin.atomic_swap.fsm.data.SimpleData;
+import com.minexcoin.atomic_swap.fsm.states.TxState;
+import com.minexcoin.atomic_swap.fsm.states.TxStatus;
+import com.minexcoin.atomic_swap.net_params.BitcoinTestNet3Params;
+import com.minexcoin.atomic_swap.net_params.MinexcoinTestNetParams;
+import com.minexcoin.atomic_swap.peer.PeerHub;
+import com.minexcoin.atomic_swap.workers.BitcoinWorker;
+import com.minexcoin.atomic_swap.workers.MinexCoinWorker;
+import com.minexcoin.atomic_swap.workers.Worker;
+import com.minexcoin.fsm.FSM;
+
+import rx.Observable;
+
+// Real AtomicSwapFSM pairs swapping Minexcoin for Bitcoin between two
+// simulated nodes. Both sides of every pair run in this process on one
+// SwapEngine, so a run measures the whole stack but the blockchain.
+public final class SimulatedSwaps implements AutoCloseable {
+
+    public static SimulatedSwaps start(
+        final long blockInterval, final TimeUnit unit, final int mempoolLoad,
+        final int eventThreads, final int taskThreads
+    ) throws IOException {
+        return new SimulatedSwaps(blockInterval, unit, mempoolLoad, eventThreads, taskThreads);
+    }
+
+    // Starts count swaps at once and waits until all of them end.
+    // Sides talk through two peer hubs, as two processes would.
+    public Result run(
+        final int count, final long timeout, final TimeUnit unit
+    ) throws IOException, InterruptedException {
+        final CountDownLatch done = new CountDownLatch(count);
+        final Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+        final AtomicInteger refunded = new AtomicInteger(0);
+        final AtomicInteger failed = new AtomicInteger(0);
+
+        final long begin = System.nanoTime();
+        for (int index = 0; index < count; ++index) {
+            final InetSocketAddress a = new InetSocketAddress("127.0.0.1", aPort());
+            final InetSocketAddress b = new InetSocketAddress("127.0.0.1", bPort());
+            final ECKey aMinex = new ECKey();
+            final ECKey bMinex = new ECKey();
+            final ECKey aBitcoin = new ECKey();
+            final ECKey bBitcoin = new ECKey();
+
+            final FSM<TxState<TxStatus>> aSide = engine().swap(
+                data(a, minex(), MinexAmount, aMinex, bMinex, MinexCoinWorker.instance()),
+                data(b, bitcoin(), BitcoinAmount, aBitcoin, bBitcoin, BitcoinWorker.instance()),
+                false
+            );
+            final FSM<TxState<TxStatus>> bSide = engine().swap(
+                data(b, bitcoin(), BitcoinAmount, bBitcoin, aBitcoin, BitcoinWorker.instance()),
+                data(a, minex(), MinexAmount, bMinex, aMinex, MinexCoinWorker.instance()),
+                false
+            );
+
+            final long start = System.nanoTime();
+            Observable.zip(
+                outcome(aSide), outcome(bSide),
+                (aOutcome, bOutcome) -> (aOutcome.compareTo(bOutcome) > 0) ? aOutcome : bOutcome
+            ).
+            subscribe(outcome -> {
+                switch (outcome) {
+                    case Spent:
+                        latencies.add(System.nanoTime() - start);
+                        break;
+                    case Refunded:
+                        refunded.incrementAndGet();
+                        break;
+                    default:
+                        failed.incrementAndGet();
+                        break;
+                }
+                done.countDown();
+            });
+
+            aSide.start();
+            bSide.start();
+        }
+
+        final boolean isInTime = done.await(timeout, unit);
+        return new Result(
+            latencies.stream().mapToLong(Long::longValue).toArray(),
+            refunded.get(),
+            failed.get() + (isInTime ? 0 : (int)done.getCount()),
+            System.nanoTime() - begin
+        );
+    }
+
+    public SimulatedNode minex() {
+        return minex_;
+    }
+
+    public SimulatedNode bitcoin() {
+        return bitcoin_;
+    }
+
+    @Override
+    public void close() {
+        engine().close();
+        aPeers().close();
+        bPeers().close();
+        minex().close();
+        bitcoin().close();
+    }
+
+    public static final class Result {
+
+        // Both sides claimed the partner funds
+        public int finished() {
+            return latencies_.length;
+        }
+
+        // Ended in Finish, but at least one side took its refund
+        public int refunded() {
+            return refunded_;
+        }
+
+        public int failed() {
+            return failed_;
+        }
+
+        public long elapsedNanos() {
+            return elapsedNanos_;
+        }
+
+        // Swap latency in nanoseconds at the percentile, from 0 to 100
+        public long latency(final double percentile) {
+            if (latencies_.length == 0) {
+                return 0;
+            }
+
+            final int index = (int)Math.ceil(percentile / 100 * latencies_.length) - 1;
+            return latencies_[Math.max(0, Math.min(index, latencies_.length - 1))];
+        }
+
+        public double throughput() {
+            return finished() / (elapsedNanos() / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "finished %d, refunded %d, failed %d, %.1f swaps/s, " +
+                "latency p50 %d ms, p99 %d ms, max %d ms",
+                finished(), refunded(), failed(), throughput(),
+                TimeUnit.NANOSECONDS.toMillis(latency(50)),
+                TimeUnit.NANOSECONDS.toMillis(latency(99)),
+                TimeUnit.NANOSECONDS.toMillis(latency(100))
+            );
+        }
+
+
+
+        private Result(
+            final long[] latencies, final int refunded, final int failed,
+            final long elapsedNanos
+        ) {
+            latencies_ = latencies;
+            Arrays.sort(latencies_);
+            refunded_ = refunded;
+            failed_ = failed;
+            elapsedNanos_ = elapsedNanos;
+        }
+
+        private final long[] latencies_;
+        private final int refunded_;
+        private final int failed_;
+        private final long elapsedNanos_;
+
+    }
+
+
+
+    private SimulatedSwaps(
+        final long blockInterval, final TimeUnit unit, final int mempoolLoad,
+        final int eventThreads, final int taskThreads
+    ) throws IOException {
+        minex_ = SimulatedNode.start(MinexcoinTestNetParams.get(), blockInterval, unit, mempoolLoad);
+        bitcoin_ = SimulatedNode.start(BitcoinTestNet3Params.get(), blockInterval, unit, mempoolLoad);
+        engine_ = SwapEngine.create(
+            eventThreads, taskThreads, Integer.MAX_VALUE,
+            "Simulated-Event-%d", "Simulated-Task-%d"
+        );
+
+        final Set<Integer> ports = new HashSet<>();
+        aPort_ = freePort(ports);
+        bPort_ = freePort(ports);
+        aPeers_ = PeerHub.of(aPort_);
+        bPeers_ = PeerHub.of(bPort_);
+    }
+
+    private static Data data(
+        final InetSocketAddress inetAddress, final SimulatedNode node, final Coin amount,
+        final ECKey myKey, final ECKey otherKey, final Worker worker
+    ) {
+        final SimpleData data = new SimpleData();
+        data.inetAddress(inetAddress);
+        data.nodeAddress(node.rpcAddress());
+        data.nodeLogin("simulated");
+        data.nodePassword("simulated");
+        data.notificationPort(node.notificationPort());
+        data.amount(amount);
+        data.myKey(myKey);
+        data.otherKey(otherKey);
+        data.worker(worker);
+        data.confirmations(Confirmations);
+        data.csv(Csv);
+        data.netParams(node.params());
+        return data;
+    }
+
+    // Ordered from best to worst, a pair ends with the worse of its sides
+    private static enum Outcome { Spent, Refunded, Failed }
+
+    private static Observable<Outcome> outcome(final FSM<TxState<TxStatus>> fsm) {
+        return fsm.states().
+        map(TxState::status).
+        reduce(
+            Outcome.Failed,
+            (outcome, status) -> {
+                switch (status) {
+                    case SellerSpending:
+                    case BuyerSpending:
+                        return Outcome.Spent;
+                    case SellerRefunding:
+                    case BuyerRefunding:
+                        return Outcome.Refunded;
+                    case SellerSpent:
+                    case SellerRefunded:
+                    case BuyerSpent:
+                    case BuyerRefunded:
+                    case Finish:
+                        return outcome;
+                    default:
+                        return Outcome.Failed;
+                }
+            }
+        ).
+        onErrorReturn(exception -> Outcome.Failed);
+    }
+
+    private static int freePort(final Set<Integer> taken) throws IOException {
+        while (true) {
+            try (final ServerSocket socket = new ServerSocket(0)) {
+                if (taken.add(socket.getLocalPort())) {
+                    return socket.getLocalPort();
+                }
+            }
+        }
+    }
+
+    private SwapEngine engine() {
+        return engine_;
+    }
+
+    private int aPort() {
+        return aPort_;
+    }
+
+    private int bPort() {
+        return bPort_;
+    }
+
+    private PeerHub aPeers() {
+        return aPeers_;
+    }
+
+    private PeerHub bPeers() {
+        return bPeers_;
+    }
+
+    private static final Coin MinexAmount = Coin.COIN;
+    private static final Coin BitcoinAmount = Coin.CENT;
+    private static final int Confirmations = 1;
+    // Refund timers have to outlast the slowest swap of a wave,
+    // otherwise runs under load measure refunds instead of claims.
+    private static final int Csv = 1000;
+
+    private final SimulatedNode minex_;
+    private final SimulatedNode bitcoin_;
+    private final SwapEngine engine_;
+    private final int aPort_;
+    private final int bPort_;
+    private final PeerHub aPeers_;
+    private final PeerHub bPeers_;
+
+}
@@ -0,0 +1,109 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.sim;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Time to run a wave of concurrent swaps end to end against simulated
+// nodes. Throughput and latency percentiles of every wave are reported
+// as secondary results.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class SwapLoadBenchmark {
+
+    @Param({"100", "1000"})
+    public int swaps;
+
+    @Param({"100"})
+    public long blockMillisecInterval;
+
+    @Param({"0", "2000"})
+    public int mempoolLoad;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        simulation_ = SimulatedSwaps.start(
+            blockMillisecInterval, TimeUnit.MILLISECONDS, mempoolLoad,
+            Runtime.getRuntime().availableProcessors(), 2 * swaps + 16
+        );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulation_.close();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Wave {
+
+        public double swapsPerSec;
+        public long p50Millisec;
+        public long p99Millisec;
+        public long maxMillisec;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            swapsPerSec = 0;
+            p50Millisec = 0;
+            p99Millisec = 0;
+            maxMillisec = 0;
+        }
+
+        private void record(final SimulatedSwaps.Result result) {
+            swapsPerSec = result.throughput();
+            p50Millisec = TimeUnit.NANOSECONDS.toMillis(result.latency(50));
+            p99Millisec = TimeUnit.NANOSECONDS.toMillis(result.latency(99));
+            maxMillisec = TimeUnit.NANOSECONDS.toMillis(result.latency(100));
+        }
+
+    }
+
+    @Benchmark
+    public SimulatedSwaps.Result wave(final Wave wave) throws Exception {
+        final SimulatedSwaps.Result result = simulation_.run(swaps, 10, TimeUnit.MINUTES);
+        if (result.refunded() != 0 || result.failed() != 0) {
+            throw new IllegalStateException("Swaps did not complete: " + result);
+        }
+
+        wave.record(result);
+        return result;
+    }
+
+
+
+    private SimulatedSwaps simulation_;
+
+}
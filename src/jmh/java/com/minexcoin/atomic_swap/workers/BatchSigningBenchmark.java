@@ -0,0 +1,117 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.TestNet3Params;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.script.ScriptOpCodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Claim sweep signed by BatchSigner, scores are signatures per second.
+// Divided by parallelism they give signatures per second per core, as
+// long as parallelism doesn't exceed the cores of the machine.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchSigningBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    @Setup
+    public void setup() {
+        final Worker worker = BitcoinWorker.instance();
+        final NetworkParameters params = TestNet3Params.get();
+
+        signer_ = new BatchSigner(parallelism);
+        sweep_ = new Transaction(params);
+        sweep_.setVersion(2);
+        sweep_.addOutput(Coin.COIN, new ECKey().toAddress(params));
+
+        inputs_ = new ArrayList<>(Inputs);
+        for (int index = 0; index < Inputs; ++index) {
+            final ECKey myKey = new ECKey();
+            final Sha256Hash secret = Sha256Hash.of(new byte[] {(byte)index});
+            final Script script = worker.createFundingScript(
+                myKey, new ECKey(), Sha256Hash.of(secret.getBytes()), Csv
+            );
+
+            sweep_.addInput(new TransactionInput(
+                params, sweep_, new byte[] {},
+                new TransactionOutPoint(params, index, Sha256Hash.of(script.getProgram()))
+            ));
+            inputs_.add(new BatchSigner.Input(
+                sweep_, index, myKey, script,
+                signature -> new ScriptBuilder().
+                data(signature.encodeToBitcoin()).
+                data(myKey.getPubKey()).
+                data(secret.getBytes()).
+                op(ScriptOpCodes.OP_TRUE).
+                data(script.getProgram()).
+                build()
+            ));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        signer_.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Inputs)
+    public List<Transaction> signSweep() {
+        return signer_.sign(inputs_);
+    }
+
+
+
+    private static final int Inputs = 32;
+    private static final int Csv = 144;
+
+    private BatchSigner signer_;
+    private Transaction sweep_;
+    private List<BatchSigner.Input> inputs_;
+
+}
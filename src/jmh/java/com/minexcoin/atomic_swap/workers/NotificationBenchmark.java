@@ -0,0 +1,124 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.TestNet3Params;
+import org.bitcoinj.script.Script;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zeromq.ZMQ;
+
+import rx.Subscription;
+import rx.functions.Actions;
+
+// Raw transaction notifications from a local publisher through the
+// shared ZMQ listener, decoded the way transaction watchers do it.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotificationBenchmark {
+
+    @Setup
+    public void setup() throws InterruptedException {
+        final NetworkParameters params = TestNet3Params.get();
+        final Worker worker = BitcoinWorker.instance();
+        final ECKey key = new ECKey();
+        final Sha256Hash secret = Sha256Hash.of(new byte[] {1, 2, 3});
+        final Script script = worker.createFundingScript(
+            key, key, Sha256Hash.of(secret.getBytes()), 144
+        );
+
+        rawTx_ = worker.createSpendingTx(
+            new TransactionOutPoint(params, 1, Sha256Hash.of(new byte[] {4, 5, 6})),
+            key, Coin.COIN,
+            params, key, script, secret
+        ).bitcoinSerialize();
+
+        context_ = ZMQ.context(1);
+        publisher_ = context_.socket(ZMQ.PUB);
+        final int port = publisher_.bindToRandomPort("tcp://127.0.0.1");
+
+        received_ = new Semaphore(0);
+        subscription_ = NotificationHub.observe(
+            Topic, new InetSocketAddress("127.0.0.1", 0), port, Actions.empty()
+        ).
+        map(raw -> RawTransactions.parse(params, raw)).
+        subscribe(tx -> received_.release());
+
+        // Subscription reaches the publisher asynchronously
+        while (!received_.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+            publish();
+        }
+        Thread.sleep(100);
+        received_.drainPermits();
+    }
+
+    @TearDown
+    public void tearDown() {
+        subscription_.unsubscribe();
+        publisher_.close();
+        context_.term();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Batch)
+    public void observe() throws InterruptedException {
+        for (int index = 0; index < Batch; ++index) {
+            publish();
+        }
+        received_.acquire(Batch);
+    }
+
+
+
+    private void publish() {
+        publisher_.sendMore(Topic);
+        publisher_.send(rawTx_);
+    }
+
+    private static final String Topic = "rawtx";
+    // Below the default high water mark, nothing is dropped
+    private static final int Batch = 256;
+
+    private byte[] rawTx_;
+    private ZMQ.Context context_;
+    private ZMQ.Socket publisher_;
+    private Semaphore received_;
+    private Subscription subscription_;
+
+}
@@ -0,0 +1,135 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.TestNet3Params;
+import org.bitcoinj.script.Script;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wf.bitcoin.krotjson.JSON;
+
+// Matching done by auditTx and extractSecret on node answers, starting
+// from the payload text as it comes off the wire, node round trip aside.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RpcPayloadBenchmark {
+
+    @Setup
+    public void setup() {
+        final Worker worker = BitcoinWorker.instance();
+        final NetworkParameters params = TestNet3Params.get();
+        final ECKey myKey = new ECKey();
+        final ECKey otherKey = new ECKey();
+        final Sha256Hash secret = Sha256Hash.of(new byte[] {1, 2, 3});
+        final Script script = worker.createFundingScript(
+            otherKey, myKey, Sha256Hash.of(secret.getBytes()), 144
+        );
+
+        secretHash_ = Sha256Hash.of(secret.getBytes());
+        address_ = worker.createP2SHAddress(script, params);
+        amount_ = Coin.COIN;
+        txOutPoint_ = new TransactionOutPoint(params, 1, Sha256Hash.of(new byte[] {4, 5, 6}));
+
+        // getrawtransaction <txid> 1 answer: change first, swap output second
+        verboseTx_ = JSON.stringify(map(
+            "txid", txOutPoint_.getHash().toString(),
+            "confirmations", 7,
+            "vout", Arrays.asList(
+                output(0.5, 0, new Address(params, myKey.getPubKeyHash())),
+                output(1.0, 1, address_)
+            )
+        ));
+
+        // getrawtransaction <txid> answer of the claim revealing the secret
+        rawTx_ = Utils.HEX.encode(
+            worker.createSpendingTx(
+                txOutPoint_, otherKey, amount_, params,
+                otherKey, script, secret
+            ).bitcoinSerialize()
+        );
+    }
+
+    @SuppressWarnings("unchecked")
+    @Benchmark
+    public OptionalInt auditTx() {
+        return AsyncBitcoinFamilyWorker.audit(
+            (Map<String, Object>)JSON.parse(verboseTx_), address_, amount_, 6
+        );
+    }
+
+    @Benchmark
+    public Optional<Sha256Hash> extractSecret() {
+        return RawTransactions.secret(Utils.HEX.decode(rawTx_), txOutPoint_, secretHash_);
+    }
+
+
+
+    private static Map<String, Object> output(
+        final double value, final int index, final Address address
+    ) {
+        return map(
+            "value", value,
+            "n", index,
+            "scriptPubKey", map(
+                "type", "scripthash",
+                "addresses", Arrays.asList(address.toBase58())
+            )
+        );
+    }
+
+    private static Map<String, Object> map(final Object... pairs) {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        for (int index = 0; index < pairs.length; index += 2) {
+            map.put((String)pairs[index], pairs[index + 1]);
+        }
+        return map;
+    }
+
+    private Address address_;
+    private Coin amount_;
+    private TransactionOutPoint txOutPoint_;
+    private String verboseTx_;
+    private String rawTx_;
+    private Sha256Hash secretHash_;
+
+}
@@ -0,0 +1,101 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.TestNet3Params;
+import org.bitcoinj.script.Script;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// HTLC script building, P2SH address derivation and claim signing,
+// the CPU side of every swap that doesn't touch a node.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptBenchmark {
+
+    @Setup
+    public void setup() {
+        worker_ = BitcoinWorker.instance();
+        params_ = TestNet3Params.get();
+        myKey_ = new ECKey();
+        otherKey_ = new ECKey();
+        secret_ = Sha256Hash.of(new byte[] {1, 2, 3});
+        secretHash_ = Sha256Hash.of(secret_.getBytes());
+        script_ = worker_.createFundingScript(otherKey_, myKey_, secretHash_, Csv);
+        txOutPoint_ = new TransactionOutPoint(params_, 1, Sha256Hash.of(new byte[] {4, 5, 6}));
+    }
+
+    @Benchmark
+    public Script createFundingScript() {
+        return worker_.createFundingScript(otherKey_, myKey_, secretHash_, Csv);
+    }
+
+    @Benchmark
+    public Address createP2SHAddress() {
+        return worker_.createP2SHAddress(otherKey_, myKey_, secretHash_, Csv, params_);
+    }
+
+    @Benchmark
+    public Transaction createSpendingTx() {
+        return worker_.createSpendingTx(
+            txOutPoint_, otherKey_, Coin.COIN, params_,
+            otherKey_, script_, secret_
+        );
+    }
+
+    @Benchmark
+    public Transaction createRefundingTx() {
+        return worker_.createRefundingTx(
+            txOutPoint_, myKey_, Coin.COIN, params_,
+            myKey_, script_, Csv
+        );
+    }
+
+
+
+    private static final int Csv = 144;
+
+    private Worker worker_;
+    private NetworkParameters params_;
+    private ECKey myKey_;
+    private ECKey otherKey_;
+    private Sha256Hash secret_;
+    private Sha256Hash secretHash_;
+    private Script script_;
+    private TransactionOutPoint txOutPoint_;
+
+}
@@ -0,0 +1,151 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.fsm;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+// Event -> transit -> actor -> event round trips through the FSM core:
+// mailbox hand-off, state copy, journal stage and actor submission.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneralFSMBenchmark {
+
+    @Setup
+    public void setup() {
+        events_ = Executors.newFixedThreadPool(
+            2, new ThreadFactoryBuilder().setNameFormat("Bench-Event-%d").setDaemon(true).build()
+        );
+        tasks_ = Executors.newFixedThreadPool(
+            2, new ThreadFactoryBuilder().setNameFormat("Bench-Task-%d").setDaemon(true).build()
+        );
+    }
+
+    @TearDown
+    public void tearDown() {
+        events_.shutdownNow();
+        tasks_.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Transitions)
+    public Counter transitions() throws Exception {
+        return run(GeneralFSM.StreamOpts.Once, HistoryPolicy.all());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Transitions)
+    public Counter cachedTransitions() throws Exception {
+        return run(GeneralFSM.StreamOpts.Always, HistoryPolicy.all());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Transitions)
+    public Counter boundedTransitions() throws Exception {
+        return run(GeneralFSM.StreamOpts.Always, HistoryPolicy.firstAndLast(4));
+    }
+
+
+
+    public static final class Counter implements Copyable<Counter> {
+
+        public Counter(final int value) {
+            value_ = value;
+        }
+
+        public int value() {
+            return value_;
+        }
+
+        @Override
+        public Counter copy() {
+            return new Counter(value());
+        }
+
+        private final int value_;
+
+    }
+
+    private static final class CountingFSM extends GeneralFSM<Counter> {
+
+        public CountingFSM(
+            final GeneralFSM.StreamOpts opts, final HistoryPolicy<Counter> history,
+            final ExecutorService events, final ExecutorService tasks
+        ) {
+            super(new Counter(0), opts, events, tasks, Transitions, Journal.none(), history);
+        }
+
+        @Override
+        protected void startImpl() {
+            trigger(Counter.class, this::step);
+        }
+
+        @Override
+        protected boolean isFinal(final Counter state) {
+            return state.value() >= Transitions;
+        }
+
+        @Override
+        protected Counter errorState(final Counter state, final Throwable exception) {
+            return state;
+        }
+
+        private void step(final Counter state) throws Throwable {
+            transit(
+                new Counter(state.value() + 1),
+                next -> trigger(Counter.class, this::step)
+            );
+        }
+
+    }
+
+    private Counter run(
+        final GeneralFSM.StreamOpts opts, final HistoryPolicy<Counter> history
+    ) throws Exception {
+        final CountingFSM fsm = new CountingFSM(opts, history, events_, tasks_);
+        final Future<Counter> last = fsm.states().last().toBlocking().toFuture();
+
+        fsm.start();
+        return last.get();
+    }
+
+    private static final int Transitions = 1000;
+
+    private ExecutorService events_;
+    private ExecutorService tasks_;
+
+}
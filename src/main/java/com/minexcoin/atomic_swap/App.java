@@ -15,8 +15,10 @@
 
 package com.minexcoin.atomic_swap;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.net.InetSocketAddress;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 import org.bitcoinj.params.TestNet3Params;
@@ -28,7 +30,7 @@ import org.bitcoinj.utils.BriefLogFormatter;
 //import org.slf4j.LoggerFactory;
 
 import com.minexcoin.fsm.FSM;
-import com.minexcoin.atomic_swap.fsm.data.Data;
+import com.minexcoin.metrics.MetricsEndpoint;
 import com.minexcoin.atomic_swap.fsm.data.SimpleData;
 import com.minexcoin.atomic_swap.fsm.states.TxState;
 import com.minexcoin.atomic_swap.fsm.states.TxStatus;
@@ -36,6 +38,7 @@ import com.minexcoin.atomic_swap.net_params.LitecoinTestNet3Params;
 import com.minexcoin.atomic_swap.net_params.MinexcoinTestNetParams;
 import com.minexcoin.atomic_swap.workers.MinexCoinWorker;
 import com.minexcoin.atomic_swap.workers.BitcoinWorker;
+import com.minexcoin.atomic_swap.workers.WorkerMetrics;
 
 public class App
 {
@@ -49,8 +52,8 @@ public class App
 
         // Set up the needed case and specify it on starting the app.
         // Use only one case during running swap process.
-        final Data selfData = new SimpleData();
-        final Data partnerData = new SimpleData();
+        final SimpleData selfData = new SimpleData();
+        final SimpleData partnerData = new SimpleData();
         switch(args[0]) {
             case "user1": {
                 selfData.inetAddress(new InetSocketAddress("ddd.ddd.ddd.ddd", 5556));
@@ -127,7 +130,12 @@ public class App
             1000, "AtomicSwapFSM Event", "AtomicSwapFSM-Task-%d"
         );
 
+        // Progress, dwell times and node latencies at http://<host>:<port>/metrics,
+        // served only when started with -Dmetrics=<host>:<port>.
+        final Optional<MetricsEndpoint> metrics = metrics();
+
         fsm.states().
+        doAfterTerminate(() -> metrics.ifPresent(MetricsEndpoint::close)).
         subscribe(
             state -> {
                 System.out.println(state.status());
@@ -161,6 +169,22 @@ public class App
 
     }
 
+    private static Optional<MetricsEndpoint> metrics() throws IOException {
+        final String address = System.getProperty("metrics");
+        if (address == null) {
+            return Optional.empty();
+        }
+
+        final int separator = address.lastIndexOf(':');
+        return Optional.of(MetricsEndpoint.start(
+            new InetSocketAddress(
+                address.substring(0, separator),
+                Integer.parseInt(address.substring(separator + 1))
+            ),
+            SwapMetrics.instance(), WorkerMetrics.instance()
+        ));
+    }
+
     /**
      * Init the logger.
      * */
@@ -178,7 +202,7 @@ public class App
     private static void execute() throws Exception {
 
         new Thread(() -> {
-            final Data selfData = new SimpleData();
+            final SimpleData selfData = new SimpleData();
             selfData.inetAddress(new InetSocketAddress("ddd.ddd.ddd.ddd", 5555));
             selfData.nodeAddress(new InetSocketAddress("127.0.0.1", 17791));
             selfData.nodeLogin("user");
@@ -192,7 +216,7 @@ public class App
             selfData.csv(3);
             selfData.netParams(TestNet3Params.get());
 
-            final Data partnerData = new SimpleData();
+            final SimpleData partnerData = new SimpleData();
             partnerData.inetAddress(new InetSocketAddress("ddd.ddd.ddd.ddd", 5556));
             partnerData.nodeAddress(new InetSocketAddress("127.0.0.1", 17792));
             partnerData.nodeLogin("user");
@@ -227,7 +251,7 @@ public class App
         }).start();
 
         new Thread(() -> {
-            final Data selfData = new SimpleData();
+            final SimpleData selfData = new SimpleData();
             selfData.inetAddress(new InetSocketAddress("ddd.ddd.ddd.ddd", 5556));
             selfData.nodeAddress(new InetSocketAddress("127.0.0.1", 17792));
             selfData.nodeLogin("user");
@@ -241,7 +265,7 @@ public class App
             selfData.csv(3);
             selfData.netParams(TestNet3Params.get());
 
-            final Data partnerData = new SimpleData();
+            final SimpleData partnerData = new SimpleData();
             partnerData.inetAddress(new InetSocketAddress("ddd.ddd.ddd.ddd", 5555));
             partnerData.nodeAddress(new InetSocketAddress("127.0.0.1", 17791));
             partnerData.nodeLogin("user");
@@ -15,38 +15,49 @@
 
 package com.minexcoin.atomic_swap;
 
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.Random;
-import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
-import java.util.OptionalInt;
 
+import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionOutPoint;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.ECKey;
+import org.bitcoinj.script.Script;
 
+import com.google.common.primitives.Bytes;
+
+import com.minexcoin.atomic_swap.fsm.SwapJournal;
 import com.minexcoin.atomic_swap.fsm.data.Data;
+import com.minexcoin.atomic_swap.fsm.data.ImmutableData;
 import com.minexcoin.atomic_swap.fsm.states.TxStatus;
 import com.minexcoin.atomic_swap.fsm.states.TxState;
 import com.minexcoin.atomic_swap.fsm.states.AbstractTxState;
+import com.minexcoin.atomic_swap.peer.MessageType;
+import com.minexcoin.atomic_swap.peer.PeerHub;
+import com.minexcoin.atomic_swap.workers.AsyncWorker;
 import com.minexcoin.atomic_swap.workers.Worker.Unit;
+import com.minexcoin.fsm.ActorThreads;
 import com.minexcoin.fsm.FSM;
 import com.minexcoin.fsm.GeneralFSM;
+import com.minexcoin.fsm.HistoryPolicy;
+import com.minexcoin.fsm.Journal;
+
+import rx.Observable;
 
 public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
 
@@ -63,25 +74,197 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
             cache,
             eventKeepAliveTime, eventUnit,
             taskKeepAliveTime, taskUnit,
-            taskLimit, eventThreadName, taskThreadName
+            taskLimit, eventThreadName, taskThreadName,
+            ActorThreads.Mode.Platform
+        );
+    }
+
+    public static FSM<TxState<TxStatus>> create(
+        final Data selfData, final Data partnerData,
+        final boolean cache,
+        final long eventKeepAliveTime, final TimeUnit eventUnit,
+        final long taskKeepAliveTime, final TimeUnit taskUnit,
+        final int taskLimit,
+        final String eventThreadName, final String taskThreadName,
+        final ActorThreads.Mode actorMode
+    ) {
+        return new AtomicSwapFSM(
+            selfData, partnerData,
+            cache,
+            eventKeepAliveTime, eventUnit,
+            taskKeepAliveTime, taskUnit,
+            taskLimit, eventThreadName, taskThreadName,
+            actorMode
+        );
+    }
+
+    public static FSM<TxState<TxStatus>> create(
+        final Data selfData, final Data partnerData,
+        final boolean cache,
+        final Executor eventPool, final ExecutorService taskPool,
+        final int taskLimit
+    ) {
+        return create(
+            selfData, partnerData,
+            cache,
+            eventPool, taskPool,
+            taskLimit, Journal.none()
+        );
+    }
+
+    public static FSM<TxState<TxStatus>> create(
+        final Data selfData, final Data partnerData,
+        final boolean cache,
+        final Executor eventPool, final ExecutorService taskPool,
+        final int taskLimit, final Journal<? super TxState<TxStatus>> journal
+    ) {
+        return new AtomicSwapFSM(
+            selfData, partnerData,
+            history(cache),
+            eventPool, taskPool,
+            taskLimit, journal,
+            Optional.empty()
+        );
+    }
+
+    // Caches states like cache = true, but replays only what the policy retains.
+    public static FSM<TxState<TxStatus>> create(
+        final Data selfData, final Data partnerData,
+        final HistoryPolicy<TxState<TxStatus>> history,
+        final Executor eventPool, final ExecutorService taskPool,
+        final int taskLimit, final Journal<? super TxState<TxStatus>> journal
+    ) {
+        return new AtomicSwapFSM(
+            selfData, partnerData,
+            Optional.of(history),
+            eventPool, taskPool,
+            taskLimit, journal,
+            Optional.empty()
+        );
+    }
+
+    // Rebuilds the swap at its last durable state and restarts the
+    // actors of that state. Handshake is simply repeated, a swap that
+    // stopped between funding request and funding record can't be resumed
+    // automatically because the funding transaction may already exist.
+    public static FSM<TxState<TxStatus>> recover(
+        final Data selfData, final Data partnerData,
+        final boolean cache,
+        final Executor eventPool, final ExecutorService taskPool,
+        final int taskLimit, final SwapJournal journal
+    ) {
+        return recover(
+            selfData, partnerData,
+            history(cache),
+            eventPool, taskPool,
+            taskLimit, journal
         );
     }
 
+    public static FSM<TxState<TxStatus>> recover(
+        final Data selfData, final Data partnerData,
+        final HistoryPolicy<TxState<TxStatus>> history,
+        final Executor eventPool, final ExecutorService taskPool,
+        final int taskLimit, final SwapJournal journal
+    ) {
+        return recover(
+            selfData, partnerData,
+            Optional.of(history),
+            eventPool, taskPool,
+            taskLimit, journal
+        );
+    }
+
+    private static FSM<TxState<TxStatus>> recover(
+        final Data selfData, final Data partnerData,
+        final Optional<HistoryPolicy<TxState<TxStatus>>> history,
+        final Executor eventPool, final ExecutorService taskPool,
+        final int taskLimit, final SwapJournal journal
+    ) {
+        final SwapJournal.Progress progress = journal.restore(selfData, partnerData).orElseThrow(
+            () -> new IllegalStateException("Swap " + journal.swapId() + " is not journaled")
+        );
+        final TxStatus status = progress.status();
+        final Data self = progress.selfData();
+        final Data partner = progress.partnerData();
+
+        switch (status) {
+            case Seller:
+                throw new IllegalStateException(
+                    "Funding of swap " + journal.swapId() + " is in doubt, check payments to " +
+                    self.worker().createP2SHAddress(
+                        self.otherKey(), self.myKey(),
+                        self.secretHash(), self.csv() * SellerCSVFactor,
+                        self.netParams()
+                    )
+                );
+            case BuyerHasSellerTx:
+                throw new IllegalStateException(
+                    "Funding of swap " + journal.swapId() + " is in doubt, check payments to " +
+                    self.worker().createP2SHAddress(
+                        self.otherKey(), self.myKey(),
+                        self.secretHash(), self.csv(),
+                        self.netParams()
+                    )
+                );
+            case Finish:
+            case Error:
+            case Test:
+                throw new IllegalStateException(
+                    "Swap " + journal.swapId() + " is already in final state " + status
+                );
+            default:
+                return new AtomicSwapFSM(
+                    self, partner,
+                    history,
+                    eventPool, taskPool,
+                    taskLimit, journal,
+                    Optional.of(status)
+                );
+        }
+    }
+
     private AtomicSwapFSM(
         final Data selfData, final Data partnerData,
         final boolean cache,
         final long eventKeepAliveTime, final TimeUnit eventUnit,
         final long taskKeepAliveTime, final TimeUnit taskUnit,
         final int taskLimit,
-        final String eventThreadName, final String taskThreadName
+        final String eventThreadName, final String taskThreadName,
+        final ActorThreads.Mode actorMode
     ) {
         super(
-            new InitState(selfData, partnerData),
+            new InitState(ImmutableData.of(selfData), ImmutableData.of(partnerData)),
             cache ? StreamOpts.Always : StreamOpts.Once,
             eventKeepAliveTime, eventUnit,
             taskKeepAliveTime, taskUnit,
-            taskLimit, eventThreadName, taskThreadName
+            taskLimit, eventThreadName, taskThreadName,
+            actorMode
         );
+
+        recovered_ = Optional.empty();
+    }
+
+    private AtomicSwapFSM(
+        final Data selfData, final Data partnerData,
+        final Optional<HistoryPolicy<TxState<TxStatus>>> history,
+        final Executor eventPool, final ExecutorService taskPool,
+        final int taskLimit, final Journal<? super TxState<TxStatus>> journal,
+        final Optional<TxStatus> recovered
+    ) {
+        super(
+            new InitState(ImmutableData.of(selfData), ImmutableData.of(partnerData)),
+            history.isPresent() ? StreamOpts.Always : StreamOpts.Once,
+            eventPool, taskPool,
+            taskLimit, journal,
+            history.orElse(HistoryPolicy.all())
+        );
+
+        recovered_ = recovered;
+    }
+
+    private static Optional<HistoryPolicy<TxState<TxStatus>>> history(final boolean cache) {
+        return cache ? Optional.of(HistoryPolicy.all()) : Optional.empty();
     }
 
 
@@ -91,7 +274,13 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
     protected void startImpl() {
         trigger(
             InitState.class,
-            state -> state.onInit(this)
+            state -> {
+                if (recovered().isPresent()) {
+                    state.onRecover(this, recovered().get());
+                } else {
+                    state.onInit(this);
+                }
+            }
         );
     }
 
@@ -108,6 +297,23 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
         return new ErrorState(state);
     }
 
+    @Override
+    protected void onStart(final TxState<TxStatus> state) {
+        SwapMetrics.instance().started(state.status());
+    }
+
+    @Override
+    protected void onTransit(
+        final TxState<TxStatus> from, final TxState<TxStatus> to, final long dwellNanos
+    ) {
+        SwapMetrics.instance().transited(from.status(), to.status(), dwellNanos, isFinal(to));
+    }
+
+    @Override
+    protected void onError(final TxState<TxStatus> from, final Throwable exception) {
+        SwapMetrics.instance().failed(from.status());
+    }
+
 
 
     private static final class InitState extends AbstractTxState<TxStatus> {
@@ -215,6 +421,79 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
             );
         }
 
+        @Event
+        public void onRecover(final AtomicSwapFSM fsm, final TxStatus status) throws Throwable {
+            switch (status) {
+                case SellerTx:
+                    fsm.transit(
+                        fsm.new SellerTxState(this),
+                        SellerTxState::doWaitSellerTxMature
+                    );
+                    break;
+                case SellerMatureSent:
+                case SellerMatureUnsent:
+                    fsm.transit(
+                        fsm.new SellerMatureState(this, status == TxStatus.SellerMatureSent),
+                        SellerMatureState::doWaitSellerPartnerTx
+                    );
+                    break;
+                case SellerSpending:
+                    fsm.transit(
+                        fsm.new CloseSellerTxState(this, true),
+                        CloseSellerTxState::doSellerSpendingTx
+                    );
+                    break;
+                case SellerRefunding:
+                    fsm.transit(
+                        fsm.new CloseSellerTxState(this, false),
+                        CloseSellerTxState::doSellerRefundingTx
+                    );
+                    break;
+                case SellerSpent:
+                case SellerRefunded:
+                case BuyerSpent:
+                case BuyerRefunded:
+                    fsm.transit(
+                        fsm.new CloseTxSentState(this, status, Optional.empty()),
+                        CloseTxSentState::doWaitCloseTxMature
+                    );
+                    break;
+                case Buyer:
+                    fsm.transit(
+                        fsm.new BuyerState(this),
+                        BuyerState::doWaitSellerFundingTx
+                    );
+                    break;
+                case BuyerTx:
+                    fsm.transit(
+                        fsm.new BuyerTxState(this),
+                        BuyerTxState::doWaitBuyerTxMature
+                    );
+                    break;
+                case BuyerMature:
+                    fsm.transit(
+                        fsm.new BuyerMatureState(this),
+                        BuyerMatureState::doWaitSellerTxSecret
+                    );
+                    break;
+                case BuyerSpending:
+                    fsm.transit(
+                        fsm.new CloseBuyerTxState(this, true),
+                        CloseBuyerTxState::doBuyerSpendingTx
+                    );
+                    break;
+                case BuyerRefunding:
+                    fsm.transit(
+                        fsm.new CloseBuyerTxState(this, false),
+                        CloseBuyerTxState::doBuyerRefundingTx
+                    );
+                    break;
+                default:
+                    // Nothing has left the process before the role is chosen
+                    onInit(fsm);
+            }
+        }
+
         @Override
         public InitState copy() {
             return new InitState(selfData(), partnerData());
@@ -228,32 +507,42 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
 
         public HandShakeState(final TxState<TxStatus> state) {
             super(state, TxStatus.HandShake);
-
-            amIServer_ = (
-                selfData().inetAddress().getAddress().getHostAddress() + ":" +
-                selfData().inetAddress().getPort()
-            ).compareTo(
-                partnerData().inetAddress().getAddress().getHostAddress() + ":" +
-                partnerData().inetAddress().getPort()
-            ) < 0;
         }
 
+        // Both sides hash the same requisites into the swap id, so different
+        // requisites never meet and the handshake times out.
         @Actor
         public void doHandShake() throws Throwable {
-            try (
-                final Socket socket = connect();
-                final InputStream input = socket.getInputStream();
-                final OutputStream output = socket.getOutputStream();
-            ) {
-                checkRequisites(input, output);
-                tossCoin(input, output);
-            }
+            final PeerHub peers = peers(selfData());
+            final byte[] selfSecret = new byte[Sha256Hash.LENGTH];
+            new Random().nextBytes(selfSecret);
+
+            await(
+                exchange(peers, MessageType.Commit, Sha256Hash.hash(selfSecret)).
+                concatMap(partnerHash -> exchange(peers, MessageType.Reveal, selfSecret).
+                map(partnerSecret -> {
+                    if (!Arrays.equals(partnerHash, Sha256Hash.hash(partnerSecret))) {
+                        throw new IllegalArgumentException("Partner secret and hash are not paired");
+                    }
+
+                    return tossCoin(selfSecret, partnerSecret);
+                })),
+                isSeller -> trigger(
+                    HandShakeState.class,
+                    isSeller ? HandShakeState::onISeller : HandShakeState::onIBuyer
+                )
+            );
         }
 
         @Event
         public void onISeller() throws Throwable {
+            // Secret is a part of the transition record,
+            // so it is durable before any funds are sent.
+            final byte[] rawSecret = new byte[Sha256Hash.LENGTH];
+            new Random().nextBytes(rawSecret);
+
             transit(
-                new SellerState(this),
+                new SellerState(this, Sha256Hash.wrap(rawSecret)),
                 SellerState::doCreateSellerFundingTx
             );
         }
@@ -273,104 +562,41 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
 
 
 
-        private Socket connect() throws Exception {
-            return amIServer() ?
-            createServerSocket(selfData().inetAddress().getPort(), SocketMillisecTimeout) :
-            createClientSocket(partnerData().inetAddress());
-        }
-
-        private byte[] txRequisitesHash() {
-            final Function<Data, String> requisites = (data) -> {
-                return Stream.concat(
-                    Stream.of(
-                        data.inetAddress().toString(),
-                        Long.toString(data.amount().value),
-                        data.worker().ticker(),
-                        Integer.toString(data.confirmations()),
-                        Integer.toString(data.csv()),
-                        data.netParams().getId()
-                    ), (
-                        amIServer() ?
-                        Stream.of(data.myKey(), data.otherKey()) :
-                        Stream.of(data.otherKey(), data.myKey())
-                    ).map(ECKey::getPublicKeyAsHex)
-                ).collect(Collectors.joining(WordsSeparator));
-            };
-
-            final String selfRequisites = requisites.apply(selfData());
-            final String partnerRequisites = requisites.apply(partnerData());
-
-            final String totalRequisites = amIServer() ?
-            (selfRequisites + partnerRequisites) :
-            (partnerRequisites + selfRequisites);
-
-            return Sha256Hash.hash(totalRequisites.getBytes());
-        }
-
-        private void checkRequisites(
-            final InputStream input, final OutputStream output
-        ) throws IOException {
-            final byte[] selfTxRequisitesHash = txRequisitesHash();
-            output.write(selfTxRequisitesHash);
-            output.flush();
-
-            final byte[] partnerTxRequisitesHash = new byte[Sha256Hash.LENGTH];
-            input.read(partnerTxRequisitesHash);
+        // Partner sends its part independently, so only both messages
+        // together complete the exchange.
+        private Observable<byte[]> exchange(
+            final PeerHub peers, final MessageType type, final byte[] payload
+        ) {
+            final Sha256Hash swapId = swapId(selfData(), partnerData());
 
-            if (!Arrays.equals(selfTxRequisitesHash, partnerTxRequisitesHash)) {
-                throw new IllegalArgumentException("Diffrent transaction requisites");
-            }
+            return Observable.zip(
+                AsyncWorker.observe(() -> peers.send(
+                    partnerData().inetAddress(), swapId, type, payload
+                ).thenApply(ignored -> Unit.unit())),
+                peers.receive(swapId, type),
+                (unit, message) -> message
+            ).
+            timeout(SocketMillisecTimeout, TimeUnit.MILLISECONDS);
         }
 
-        private void tossCoin(
-            final InputStream input, final OutputStream output
-        ) throws IOException {
-            final byte[] selfSecret = new byte[Sha256Hash.LENGTH];
-            new Random().nextBytes(selfSecret);
-            output.write(Sha256Hash.hash(selfSecret));
-            output.flush();
-
-            final byte[] partnerHash = new byte[Sha256Hash.LENGTH];
-            input.read(partnerHash);
-
-            output.write(selfSecret);
-            output.flush();
-
-            final byte[] partnerSecret = new byte[Sha256Hash.LENGTH];
-            input.read(partnerSecret);
-
-            if (!Arrays.equals(partnerHash, Sha256Hash.hash(partnerSecret))) {
-                throw new IllegalArgumentException("Partner secret and hash are not paired");
-            }
-
+        private boolean tossCoin(final byte[] selfSecret, final byte[] partnerSecret) {
             // Zip two arrays with xor in one byte
             // and then zip bits with xor in one bit.
             // Result is even that bit or not.
-            // If it's even then I am seller otherwise partner is seller.
-            final boolean isServerWin = (
+            // If it's even then first side is seller otherwise second one is seller.
+            final boolean isFirstWin = (
             BitSet.valueOf(new byte[] {
                     (byte)IntStream.range(0, Sha256Hash.LENGTH).
                     map(index -> (selfSecret[index] & 0xFF) ^ (partnerSecret[index] & 0xFF)).
-                    reduce((lhs, rhs) -> lhs ^ rhs).getAsInt()
+                    reduce(0, (lhs, rhs) -> lhs ^ rhs)
                 }).
                 stream().
-                reduce((lhs, rhs) -> lhs ^ rhs).getAsInt() & 0x01
+                reduce(0, (lhs, rhs) -> lhs ^ rhs) & 0x01
             ) != 1;
 
-            trigger(
-                HandShakeState.class,
-                (amIServer() ? isServerWin : !isServerWin) ?
-                HandShakeState::onISeller :
-                HandShakeState::onIBuyer
-            );
+            return isFirst(selfData(), partnerData()) ? isFirstWin : !isFirstWin;
         }
 
-        private boolean amIServer() {
-            return amIServer_;
-        }
-
-        private final boolean amIServer_;
-
     }
 
 
@@ -381,29 +607,37 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
             super(state, TxStatus.Seller);
         }
 
+        public SellerState(final TxState<TxStatus> state, final Sha256Hash secret) {
+            super(
+                state.selfData().withSecret(secret),
+                state.partnerData().withSecret(secret),
+                TxStatus.Seller
+            );
+        }
+
         @Actor
         public void doCreateSellerFundingTx() throws Throwable {
-            final byte[] rawSecret = new byte[Sha256Hash.LENGTH];
-            new Random().nextBytes(rawSecret);
-            selfData().secret(Sha256Hash.wrap(rawSecret));
-            partnerData().secret(selfData().secret());
-
-            selfData().txOutPoint(selfData().worker().sendToAddress(
-                selfData().worker().createP2SHAddress(
-                    selfData().otherKey(),
-                    selfData().myKey(),
-                    selfData().secretHash(),
-                    selfData().csv() * SellerCSVFactor,
-                    selfData().netParams()
-                ),
-                selfData().amount(),
-                selfData().nodeAddress(),
-                selfData().nodeLogin(), selfData().nodePassword()
-            ));
-
-            trigger(
-                SellerState.class,
-                SellerState::onCreatedSellerFundingTx
+            await(
+                AsyncWorker.observe(() -> selfData().worker().async().sendToAddress(
+                    selfData().worker().createP2SHAddress(
+                        selfData().otherKey(),
+                        selfData().myKey(),
+                        selfData().secretHash(),
+                        selfData().csv() * SellerCSVFactor,
+                        selfData().netParams()
+                    ),
+                    selfData().amount(),
+                    selfData().nodeAddress(),
+                    selfData().nodeLogin(), selfData().nodePassword()
+                )),
+                txOutPoint -> {
+                    selfData(selfData().withTxOutPoint(txOutPoint));
+
+                    trigger(
+                        SellerState.class,
+                        SellerState::onCreatedSellerFundingTx
+                    );
+                }
             );
         }
 
@@ -432,85 +666,51 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
 
         @Actor
         public void doWaitSellerTxMature() throws Throwable {
-            final RunnableFuture<Optional<Unit>> waitTxMatureCompleter =
-            selfData().worker().waitTxMature(
-                1, selfData().txOutPoint().getHash(),
-                selfData().confirmations(),
-                selfData().nodeAddress(),
-                selfData().nodeLogin(), selfData().nodePassword(),
-                selfData().notificationPort(),
-                0, TimeUnit.MILLISECONDS
+            await(
+                selfData().worker().async().waitTxMature(
+                    selfData().txOutPoint().getHash(),
+                    selfData().confirmations(),
+                    selfData().nodeAddress(),
+                    selfData().nodeLogin(), selfData().nodePassword(),
+                    selfData().notificationPort(),
+                    0, TimeUnit.MILLISECONDS
+                ),
+                unit -> {
+                    // Buyer funds as soon as it has the notice, so its tx
+                    // is watched from before sending, not from the next state.
+                    final Observable<TransactionOutPoint> partnerFundingTx =
+                    watchFromNow(partnerFundingTx(partnerData()));
+                    final PeerHub peers = peers(selfData());
+
+                    await(
+                        AsyncWorker.observe(() -> peers.send(
+                            partnerData().inetAddress(),
+                            swapId(selfData(), partnerData()),
+                            MessageType.Funding,
+                            Bytes.concat(
+                                selfData().secretHash().getBytes(),
+                                selfData().txOutPoint().getHash().getBytes()
+                            )
+                        )).
+                        map(ignored -> true).
+                        onErrorReturn(exception -> false),
+                        isSentFundingTx -> trigger(
+                            SellerTxState.class,
+                            state -> state.onSellerTxMature(isSentFundingTx, partnerFundingTx)
+                        )
+                    );
+                }
             );
-
-            waitTxMatureCompleter.run();
-            waitTxMatureCompleter.get();
-
-            try (
-                final OutputStream output = createClientSocket(
-                    partnerData().inetAddress()
-                ).getOutputStream()
-            ) {
-                output.write(selfData().secretHash().getBytes());
-                output.write(selfData().txOutPoint().getHash().getBytes());
-
-                trigger(
-                    SellerTxState.class,
-                    state -> state.onSellerTxMature(true)
-                );
-            } catch (final Throwable exception) {
-                trigger(
-                    SellerTxState.class,
-                    state -> state.onSellerTxMature(false)
-                );
-            }
         }
 
         @Event
-        public void onSellerTxMature(final boolean isSentFundingTx) throws Throwable {
-            final AtomicBoolean flag = new AtomicBoolean();
-
-            final RunnableFuture<Optional<TransactionOutPoint>> partnerTxCompleter =
-            partnerData().worker().waitPartnerTx(
-                Runtime.getRuntime().availableProcessors(),
-                partnerData().worker().createP2SHAddress(
-                    partnerData().myKey(),
-                    partnerData().otherKey(),
-                    partnerData().secretHash(),
-                    partnerData().csv(),
-                    partnerData().netParams()
-                ),
-                partnerData().amount(),
-                partnerData().nodeAddress(),
-                partnerData().nodeLogin(), partnerData().nodePassword(),
-                partnerData().notificationPort(),
-                0, TimeUnit.MILLISECONDS
-            );
-
-            final RunnableFuture<Optional<Unit>> txTimeoutCompleter =
-            selfData().worker().waitTxMature(
-                1, selfData().txOutPoint().getHash(),
-                selfData().csv() * 2,
-                selfData().nodeAddress(),
-                selfData().nodeLogin(), selfData().nodePassword(),
-                selfData().notificationPort(),
-                0, TimeUnit.MILLISECONDS
-            );
-
+        public void onSellerTxMature(
+            final boolean isSentFundingTx,
+            final Observable<TransactionOutPoint> partnerFundingTx
+        ) throws Throwable {
             transit(
                 new SellerMatureState(this, isSentFundingTx),
-                Arrays.asList(
-                    state -> state.doWaitSellerPartnerTx(
-                        flag,
-                        partnerTxCompleter,
-                        txTimeoutCompleter
-                    ),
-                    state -> state.doWaitSellerTxTimeout(
-                        flag,
-                        partnerTxCompleter,
-                        txTimeoutCompleter
-                    )
-                ),
-                false
+                state -> state.doWaitSellerPartnerTx(partnerFundingTx)
             );
         }
 
@@ -539,59 +739,60 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
         }
 
         @Actor
-        public void doWaitSellerPartnerTx(
-            final AtomicBoolean flag,
-            final RunnableFuture<Optional<TransactionOutPoint>> partnerTxCompleter,
-            final RunnableFuture<Optional<Unit>> txTimeoutCompleter
-        ) throws Throwable {
-            partnerTxCompleter.run();
-            final TransactionOutPoint txOutPoint = partnerTxCompleter.get().get();
-
-            final RunnableFuture<Optional<Unit>> waitTxMatureCompleter =
-            partnerData().worker().waitTxMature(
-                1, txOutPoint.getHash(),
-                partnerData().confirmations(),
-                partnerData().nodeAddress(),
-                partnerData().nodeLogin(), partnerData().nodePassword(),
-                partnerData().notificationPort(),
-                0, TimeUnit.MILLISECONDS
-            );
-            
-            waitTxMatureCompleter.run();
-            waitTxMatureCompleter.get();
-
-            if (!flag.compareAndSet(false, true)) {
-                return;
-            }
-
-            txTimeoutCompleter.cancel(true);
-
-            partnerData().txOutPoint(txOutPoint);
-
-            trigger(
-                SellerMatureState.class,
-                SellerMatureState::onSellerSpendingTx
-            );
+        public void doWaitSellerPartnerTx() throws Throwable {
+            doWaitSellerPartnerTx(partnerFundingTx(partnerData()));
         }
 
+        // Partner funding tx racing own refund timeout, the loser
+        // is unsubscribed as soon as the other one emits.
         @Actor
-        public void doWaitSellerTxTimeout(
-            final AtomicBoolean flag,
-            final RunnableFuture<Optional<TransactionOutPoint>> partnerTxCompleter,
-            final RunnableFuture<Optional<Unit>> txTimeoutCompleter
+        public void doWaitSellerPartnerTx(
+            final Observable<TransactionOutPoint> partnerFundingTx
         ) throws Throwable {
-            txTimeoutCompleter.run();
-            txTimeoutCompleter.get();
-
-            if (!flag.compareAndSet(false, true)) {
-                return;
-            }
-
-            partnerTxCompleter.cancel(true);
+            final AsyncWorker partnerWorker = partnerData().worker().async();
+
+            final Observable<Optional<TransactionOutPoint>> partnerTx =
+            partnerFundingTx.
+            concatMap(txOutPoint ->
+                partnerWorker.waitTxMature(
+                    txOutPoint.getHash(),
+                    partnerData().confirmations(),
+                    partnerData().nodeAddress(),
+                    partnerData().nodeLogin(), partnerData().nodePassword(),
+                    partnerData().notificationPort(),
+                    0, TimeUnit.MILLISECONDS
+                ).
+                map(unit -> Optional.of(txOutPoint))
+            );
 
-            trigger(
-                SellerMatureState.class,
-                SellerMatureState::onSellerRefundingTx
+            final Observable<Optional<TransactionOutPoint>> txTimeout =
+            selfData().worker().async().waitTxMature(
+                selfData().txOutPoint().getHash(),
+                selfData().csv() * 2,
+                selfData().nodeAddress(),
+                selfData().nodeLogin(), selfData().nodePassword(),
+                selfData().notificationPort(),
+                0, TimeUnit.MILLISECONDS
+            ).
+            map(unit -> Optional.empty());
+
+            await(
+                Observable.merge(partnerTx, txTimeout),
+                txOutPoint -> {
+                    if (txOutPoint.isPresent()) {
+                        partnerData(partnerData().withTxOutPoint(txOutPoint.get()));
+
+                        trigger(
+                            SellerMatureState.class,
+                            SellerMatureState::onSellerSpendingTx
+                        );
+                    } else {
+                        trigger(
+                            SellerMatureState.class,
+                            SellerMatureState::onSellerRefundingTx
+                        );
+                    }
+                }
             );
         }
 
@@ -637,69 +838,64 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
 
         @Actor
         public void doSellerSpendingTx() throws Throwable {
-            final Transaction transaction = partnerData().worker().createSpendingTx(
-                partnerData().txOutPoint(),
-                partnerData().myKey(),
-                partnerData().amount().minus(TxFee),
-                partnerData().netParams(),
-                partnerData().myKey(),
-                partnerData().worker().createFundingScript(
-                    partnerData().myKey(),
-                    partnerData().otherKey(),
-                    partnerData().secretHash(),
-                    partnerData().csv()
-                ),
-                partnerData().secret()
+            final Transaction transaction = withFee(
+                partnerData(), spendingTx(partnerData(), partnerData().csv())
             );
-
-            partnerData().worker().sendTx(
-                transaction,
-                partnerData().nodeAddress(),
-                partnerData().nodeLogin(), partnerData().nodePassword()
-            );
-
-            partnerData().closeTx(transaction.getHash());
-
-            trigger(
-                CloseSellerTxState.class,
-                CloseSellerTxState::onFinish
+            final Coin fee = partnerData().amount().minus(transaction.getOutput(0).getValue());
+
+            await(
+                AsyncWorker.observe(() -> partnerData().worker().async().sweepTx(
+                    transaction, partnerData().myKey(),
+                    partnerData().nodeAddress(),
+                    partnerData().nodeLogin(), partnerData().nodePassword()
+                )),
+                txHash -> {
+                    partnerData(partnerData().withCloseTx(txHash));
+
+                    trigger(
+                        CloseSellerTxState.class,
+                        state -> state.onCloseTxSent(fee)
+                    );
+                }
             );
         }
 
         @Actor
         public void doSellerRefundingTx() throws Throwable {
-            final Transaction transaction = selfData().worker().createRefundingTx(
-                selfData().txOutPoint(),
-                selfData().myKey(),
-                selfData().amount().minus(TxFee),
-                selfData().netParams(),
-                selfData().myKey(),
-                selfData().worker().createFundingScript(
-                    selfData().otherKey(),
-                    selfData().myKey(),
-                    selfData().secretHash(),
-                    selfData().csv() * SellerCSVFactor
-                ),
-                selfData().csv() * SellerCSVFactor
-            );
-
-            selfData().worker().sendTx(
-                transaction,
-                selfData().nodeAddress(),
-                selfData().nodeLogin(), selfData().nodePassword()
+            final Transaction transaction = withFee(
+                selfData(), refundingTx(selfData(), selfData().csv() * SellerCSVFactor)
             );
-
-            selfData().closeTx(transaction.getHash());
-
-            trigger(
-                CloseSellerTxState.class,
-                CloseSellerTxState::onFinish
+            final Coin fee = selfData().amount().minus(transaction.getOutput(0).getValue());
+
+            await(
+                AsyncWorker.observe(() -> selfData().worker().async().sweepTx(
+                    transaction, selfData().myKey(),
+                    selfData().nodeAddress(),
+                    selfData().nodeLogin(), selfData().nodePassword()
+                )),
+                txHash -> {
+                    selfData(selfData().withCloseTx(txHash));
+
+                    trigger(
+                        CloseSellerTxState.class,
+                        state -> state.onCloseTxSent(fee)
+                    );
+                }
             );
         }
 
         @Event
-        public void onFinish() throws Throwable {
-            transit(new FinishState(this));
+        public void onCloseTxSent(final Coin fee) throws Throwable {
+            transit(
+                new CloseTxSentState(
+                    this,
+                    status() == TxStatus.SellerSpending ?
+                    TxStatus.SellerSpent :
+                    TxStatus.SellerRefunded,
+                    Optional.of(fee)
+                ),
+                CloseTxSentState::doWaitCloseTxMature
+            );
         }
 
         @Override
@@ -719,88 +915,16 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
 
         @Actor
         public void doWaitSellerFundingTx() throws Throwable {
-            final byte[] rawSecretHash = new byte[Sha256Hash.LENGTH];
-            final byte[] rawTxHash = new byte[Sha256Hash.LENGTH];
-            
-            try (
-                final InputStream input = createServerSocket(
-                    selfData().inetAddress().getPort(), WaitTxMillisecTimeout
-                ).getInputStream()
-            ) {
-                input.read(rawSecretHash);
-                input.read(rawTxHash);
-            }
-
-            final Sha256Hash secretHash = Sha256Hash.wrap(rawSecretHash);
-            final Sha256Hash txHash = Sha256Hash.wrap(rawTxHash);
-
-            final RunnableFuture<Optional<TransactionOutPoint>> partnerTxCompleter =
-            partnerData().worker().waitPartnerTx(
-                Runtime.getRuntime().availableProcessors(),
-                txHash,
-                partnerData().worker().createP2SHAddress(
-                    partnerData().myKey(),
-                    partnerData().otherKey(),
-                    secretHash,
-                    partnerData().csv() * SellerCSVFactor,
-                    partnerData().netParams()
-                ),
-                partnerData().amount(),
-                partnerData().nodeAddress(),
-                partnerData().nodeLogin(), partnerData().nodePassword(),
-                partnerData().notificationPort(),
-                WaitTxConfirmedMillisecTimeout, TimeUnit.MILLISECONDS
-            );
-
-            partnerTxCompleter.run();
-            partnerTxCompleter.get();
-
-            final OptionalInt index = partnerData().worker().auditTx(
-                txHash,
-                partnerData().worker().createP2SHAddress(
-                    partnerData().myKey(),
-                    partnerData().otherKey(),
-                    secretHash,
-                    partnerData().csv() * SellerCSVFactor,
-                    partnerData().netParams()
-                ),
-                partnerData().amount(), 0,
-                partnerData().nodeAddress(),
-                partnerData().nodeLogin(), partnerData().nodePassword()
-            );
-
-            index.orElseThrow(() -> new IllegalArgumentException(
-                "Bad partner transaction " + txHash
-            ));
-
-            final RunnableFuture<Optional<Unit>> waitTxMatureCompleter =
-            partnerData().worker().waitTxMature(
-                1, txHash,
-                partnerData().confirmations(),
-                partnerData().nodeAddress(),
-                partnerData().nodeLogin(), partnerData().nodePassword(),
-                partnerData().notificationPort(),
-                WaitTxConfirmedMillisecTimeout, TimeUnit.MILLISECONDS
-            );
-
-            waitTxMatureCompleter.run();
-            waitTxMatureCompleter.get().orElseThrow(() -> new IllegalArgumentException(
-                "Transaction " + txHash + " is not mature"
-            ));
-
-            partnerData().secretHash(secretHash);
-            selfData().secretHash(partnerData().secretHash());
-
-            partnerData().txOutPoint(
-                new TransactionOutPoint(
-                    partnerData().netParams(), index.getAsInt(), txHash
+            await(
+                peers(selfData()).receive(
+                    swapId(selfData(), partnerData()), MessageType.Funding
+                ).
+                timeout(WaitTxMillisecTimeout, TimeUnit.MILLISECONDS),
+                message -> checkSellerFundingTx(
+                    Sha256Hash.wrap(Arrays.copyOfRange(message, 0, Sha256Hash.LENGTH)),
+                    Sha256Hash.wrap(Arrays.copyOfRange(message, Sha256Hash.LENGTH, 2 * Sha256Hash.LENGTH))
                 )
             );
-
-            trigger(
-                BuyerState.class,
-                BuyerState::onGetSellerFundingTx
-            );
         }
 
         @Event
@@ -816,6 +940,75 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
             return new BuyerState(this);
         }
 
+
+
+        private void checkSellerFundingTx(
+            final Sha256Hash secretHash, final Sha256Hash txHash
+        ) throws Throwable {
+            final AsyncWorker partnerWorker = partnerData().worker().async();
+            final Address address = partnerData().worker().createP2SHAddress(
+                partnerData().myKey(),
+                partnerData().otherKey(),
+                secretHash,
+                partnerData().csv() * SellerCSVFactor,
+                partnerData().netParams()
+            );
+
+            await(
+                partnerWorker.waitPartnerTx(
+                    txHash, address,
+                    partnerData().amount(),
+                    partnerData().nodeAddress(),
+                    partnerData().nodeLogin(), partnerData().nodePassword(),
+                    partnerData().notificationPort(),
+                    WaitTxConfirmedMillisecTimeout, TimeUnit.MILLISECONDS
+                ).
+                map(txOutPoint -> Unit.unit()).
+                defaultIfEmpty(Unit.unit()).
+                concatMap(unit -> AsyncWorker.observe(() -> partnerWorker.auditTx(
+                    txHash, address,
+                    partnerData().amount(), 0,
+                    partnerData().nodeAddress(),
+                    partnerData().nodeLogin(), partnerData().nodePassword()
+                ))).
+                concatMap(index -> {
+                    if (!index.isPresent()) {
+                        return Observable.error(new IllegalArgumentException(
+                            "Bad partner transaction " + txHash
+                        ));
+                    }
+
+                    return partnerWorker.waitTxMature(
+                        txHash,
+                        partnerData().confirmations(),
+                        partnerData().nodeAddress(),
+                        partnerData().nodeLogin(), partnerData().nodePassword(),
+                        partnerData().notificationPort(),
+                        WaitTxConfirmedMillisecTimeout, TimeUnit.MILLISECONDS
+                    ).
+                    switchIfEmpty(Observable.error(new IllegalArgumentException(
+                        "Transaction " + txHash + " is not mature"
+                    ))).
+                    map(unit -> index.getAsInt());
+                }),
+                index -> {
+                    partnerData(partnerData().withSecretHash(secretHash));
+                    selfData(selfData().withSecretHash(secretHash));
+
+                    partnerData(partnerData().withTxOutPoint(
+                        new TransactionOutPoint(
+                            partnerData().netParams(), index, txHash
+                        )
+                    ));
+
+                    trigger(
+                        BuyerState.class,
+                        BuyerState::onGetSellerFundingTx
+                    );
+                }
+            );
+        }
+
     }
 
 
@@ -828,22 +1021,27 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
 
         @Actor
         public void doCreateBuyerFundingTx() throws Throwable {
-            selfData().txOutPoint(selfData().worker().sendToAddress(
-                selfData().worker().createP2SHAddress(
-                    selfData().otherKey(),
-                    selfData().myKey(),
-                    selfData().secretHash(),
-                    selfData().csv(),
-                    selfData().netParams()
-                ),
-                selfData().amount(),
-                selfData().nodeAddress(),
-                selfData().nodeLogin(), selfData().nodePassword()
-            ));
-
-            trigger(
-                BuyerHasSellerFundingTxState.class,
-                BuyerHasSellerFundingTxState::onCreatedBuyerFundingTx
+            await(
+                AsyncWorker.observe(() -> selfData().worker().async().sendToAddress(
+                    selfData().worker().createP2SHAddress(
+                        selfData().otherKey(),
+                        selfData().myKey(),
+                        selfData().secretHash(),
+                        selfData().csv(),
+                        selfData().netParams()
+                    ),
+                    selfData().amount(),
+                    selfData().nodeAddress(),
+                    selfData().nodeLogin(), selfData().nodePassword()
+                )),
+                txOutPoint -> {
+                    selfData(selfData().withTxOutPoint(txOutPoint));
+
+                    trigger(
+                        BuyerHasSellerFundingTxState.class,
+                        BuyerHasSellerFundingTxState::onCreatedBuyerFundingTx
+                    );
+                }
             );
         }
 
@@ -870,61 +1068,33 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
             super(state, TxStatus.BuyerTx);
         }
 
+        // Seller may spend this tx as soon as it matures, so the secret
+        // is watched from here, not from the next state.
         @Actor
         public void doWaitBuyerTxMature() throws Throwable {
-            final RunnableFuture<Optional<Unit>> waitTxMatureCompleter =
-            selfData().worker().waitTxMature(
-                1, selfData().txOutPoint().getHash(),
-                selfData().confirmations(),
-                selfData().nodeAddress(),
-                selfData().nodeLogin(), selfData().nodePassword(),
-                selfData().notificationPort(),
-                0, TimeUnit.MILLISECONDS
-            );
-
-            waitTxMatureCompleter.run();
-            waitTxMatureCompleter.get();
-
-            trigger(
-                BuyerTxState.class,
-                BuyerTxState::onBuyerTxMature
+            final Observable<Sha256Hash> txSecret = watchFromNow(txSecret(selfData()));
+
+            await(
+                selfData().worker().async().waitTxMature(
+                    selfData().txOutPoint().getHash(),
+                    selfData().confirmations(),
+                    selfData().nodeAddress(),
+                    selfData().nodeLogin(), selfData().nodePassword(),
+                    selfData().notificationPort(),
+                    0, TimeUnit.MILLISECONDS
+                ),
+                unit -> trigger(
+                    BuyerTxState.class,
+                    state -> state.onBuyerTxMature(txSecret)
+                )
             );
         }
 
         @Event
-        public void onBuyerTxMature() throws Throwable {
-            final AtomicBoolean flag = new AtomicBoolean();
-
-            final RunnableFuture<Optional<Sha256Hash>> txSecretCompleter =
-            selfData().worker().waitTxSecret(
-                Runtime.getRuntime().availableProcessors(), selfData().txOutPoint(),
-                selfData().nodeAddress(),
-                selfData().nodeLogin(), selfData().nodePassword(),
-                selfData().notificationPort(),
-                0, TimeUnit.MILLISECONDS
-            );
-
-            final RunnableFuture<Optional<Unit>> txTimeoutCompleter =
-            selfData().worker().waitTxMature(
-                1, selfData().txOutPoint().getHash(),
-                selfData().csv(),
-                selfData().nodeAddress(),
-                selfData().nodeLogin(), selfData().nodePassword(),
-                selfData().notificationPort(),
-                0, TimeUnit.MILLISECONDS
-            );
-
+        public void onBuyerTxMature(final Observable<Sha256Hash> txSecret) throws Throwable {
             transit(
                 new BuyerMatureState(this),
-                Arrays.asList(
-                    state -> state.doWaitSellerTxSecret(
-                        flag, txSecretCompleter, txTimeoutCompleter
-                    ),
-                    state -> state.doWaitBuyerTxTimeout(
-                        flag, txSecretCompleter, txTimeoutCompleter
-                    )
-                ),
-                false
+                state -> state.doWaitSellerTxSecret(txSecret)
             );
         }
 
@@ -948,47 +1118,45 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
         }
 
         @Actor
-        public void doWaitSellerTxSecret(
-            final AtomicBoolean flag,
-            final RunnableFuture<Optional<Sha256Hash>> txSecretCompleter,
-            final RunnableFuture<Optional<Unit>> txTimeoutCompleter
-        ) throws Throwable {
-            txSecretCompleter.run();
-            final Sha256Hash secret = txSecretCompleter.get().get();
-
-            if (!flag.compareAndSet(false, true)) {
-                return;
-            }
-
-            txTimeoutCompleter.cancel(true);
-
-            selfData().secret(secret);
-            partnerData().secret(selfData().secret());
-
-            trigger(
-                BuyerMatureState.class,
-                BuyerMatureState::onBuyerSpendingTx
-            );
+        public void doWaitSellerTxSecret() throws Throwable {
+            doWaitSellerTxSecret(txSecret(selfData()));
         }
 
+        // Seller secret racing own refund timeout, the loser
+        // is unsubscribed as soon as the other one emits.
         @Actor
-        public void doWaitBuyerTxTimeout(
-            final AtomicBoolean flag,
-            final RunnableFuture<Optional<Sha256Hash>> txSecretCompleter,
-            final RunnableFuture<Optional<Unit>> txTimeoutCompleter
-        ) throws Throwable {
-            txTimeoutCompleter.run();
-            txTimeoutCompleter.get();
-
-            if (!flag.compareAndSet(false, true)) {
-                return;
-            }
+        public void doWaitSellerTxSecret(final Observable<Sha256Hash> sellerTxSecret) throws Throwable {
+            final Observable<Optional<Sha256Hash>> txSecret = sellerTxSecret.map(Optional::of);
 
-            txSecretCompleter.cancel(true);
-
-            trigger(
-                BuyerMatureState.class,
-                BuyerMatureState::onBuyerRefundingTx
+            final Observable<Optional<Sha256Hash>> txTimeout =
+            selfData().worker().async().waitTxMature(
+                selfData().txOutPoint().getHash(),
+                selfData().csv(),
+                selfData().nodeAddress(),
+                selfData().nodeLogin(), selfData().nodePassword(),
+                selfData().notificationPort(),
+                0, TimeUnit.MILLISECONDS
+            ).
+            map(unit -> Optional.empty());
+
+            await(
+                Observable.merge(txSecret, txTimeout),
+                secret -> {
+                    if (secret.isPresent()) {
+                        selfData(selfData().withSecret(secret.get()));
+                        partnerData(partnerData().withSecret(secret.get()));
+
+                        trigger(
+                            BuyerMatureState.class,
+                            BuyerMatureState::onBuyerSpendingTx
+                        );
+                    } else {
+                        trigger(
+                            BuyerMatureState.class,
+                            BuyerMatureState::onBuyerRefundingTx
+                        );
+                    }
+                }
             );
         }
 
@@ -1034,69 +1202,64 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
 
         @Actor
         public void doBuyerSpendingTx() throws Throwable {
-            final Transaction transaction = partnerData().worker().createSpendingTx(
-                partnerData().txOutPoint(),
-                partnerData().myKey(),
-                partnerData().amount().minus(TxFee),
-                partnerData().netParams(),
-                partnerData().myKey(),
-                partnerData().worker().createFundingScript(
-                    partnerData().myKey(),
-                    partnerData().otherKey(),
-                    partnerData().secretHash(),
-                    partnerData().csv() * SellerCSVFactor
-                ),
-                partnerData().secret()
+            final Transaction transaction = withFee(
+                partnerData(), spendingTx(partnerData(), partnerData().csv() * SellerCSVFactor)
             );
-
-            partnerData().worker().sendTx(
-                transaction,
-                partnerData().nodeAddress(),
-                partnerData().nodeLogin(), partnerData().nodePassword()
-            );
-
-            partnerData().closeTx(transaction.getHash());
-
-            trigger(
-                CloseBuyerTxState.class,
-                CloseBuyerTxState::onFinish
+            final Coin fee = partnerData().amount().minus(transaction.getOutput(0).getValue());
+
+            await(
+                AsyncWorker.observe(() -> partnerData().worker().async().sweepTx(
+                    transaction, partnerData().myKey(),
+                    partnerData().nodeAddress(),
+                    partnerData().nodeLogin(), partnerData().nodePassword()
+                )),
+                txHash -> {
+                    partnerData(partnerData().withCloseTx(txHash));
+
+                    trigger(
+                        CloseBuyerTxState.class,
+                        state -> state.onCloseTxSent(fee)
+                    );
+                }
             );
         }
 
         @Actor
         public void doBuyerRefundingTx() throws Throwable {
-            final Transaction transaction = selfData().worker().createRefundingTx(
-                selfData().txOutPoint(),
-                selfData().myKey(),
-                selfData().amount().minus(TxFee),
-                selfData().netParams(),
-                selfData().myKey(),
-                selfData().worker().createFundingScript(
-                    selfData().otherKey(),
-                    selfData().myKey(),
-                    selfData().secretHash(),
-                    selfData().csv()
-                ),
-                selfData().csv()
-            );
-
-            selfData().worker().sendTx(
-                transaction,
-                selfData().nodeAddress(),
-                selfData().nodeLogin(), selfData().nodePassword()
+            final Transaction transaction = withFee(
+                selfData(), refundingTx(selfData(), selfData().csv())
             );
-
-            selfData().closeTx(transaction.getHash());
-
-            trigger(
-                CloseBuyerTxState.class,
-                CloseBuyerTxState::onFinish
+            final Coin fee = selfData().amount().minus(transaction.getOutput(0).getValue());
+
+            await(
+                AsyncWorker.observe(() -> selfData().worker().async().sweepTx(
+                    transaction, selfData().myKey(),
+                    selfData().nodeAddress(),
+                    selfData().nodeLogin(), selfData().nodePassword()
+                )),
+                txHash -> {
+                    selfData(selfData().withCloseTx(txHash));
+
+                    trigger(
+                        CloseBuyerTxState.class,
+                        state -> state.onCloseTxSent(fee)
+                    );
+                }
             );
         }
 
         @Event
-        public void onFinish() throws Throwable {
-            transit(new FinishState(this));
+        public void onCloseTxSent(final Coin fee) throws Throwable {
+            transit(
+                new CloseTxSentState(
+                    this,
+                    status() == TxStatus.BuyerSpending ?
+                    TxStatus.BuyerSpent :
+                    TxStatus.BuyerRefunded,
+                    Optional.of(fee)
+                ),
+                CloseTxSentState::doWaitCloseTxMature
+            );
         }
 
         @Override
@@ -1121,6 +1284,201 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
 
     }
 
+    // Close transaction is out and gets a higher fee every BumpMillisecPeriod
+    // until one of its versions is mined, so a claim can't stall until the
+    // partner may refund.
+    private final class CloseTxSentState extends AbstractTxState<TxStatus> {
+
+        // Fee of the close transaction sent, unknown after recovery.
+        public CloseTxSentState(
+            final TxState<TxStatus> state, final TxStatus status, final Optional<Coin> fee
+        ) {
+            this(state, status, Collections.emptyList(), fee);
+        }
+
+        public CloseTxSentState(final CloseTxSentState state) {
+            this(state, state.status(), state.versions(), state.fee());
+        }
+
+        @Actor
+        public void doWaitCloseTxMature() throws Throwable {
+            final Data data = closeData();
+
+            await(
+                mined(data, BumpMillisecPeriod).
+                map(Round::mined).
+                switchIfEmpty(Observable.defer(() -> bump(data))),
+                round -> {
+                    closeData(closeData().withCloseTx(round.txHash()));
+
+                    if (round.fee().isPresent()) {
+                        trigger(
+                            CloseTxSentState.class,
+                            state -> state.onBump(data.closeTx(), round.fee().get())
+                        );
+                    } else {
+                        trigger(
+                            CloseTxSentState.class,
+                            CloseTxSentState::onFinish
+                        );
+                    }
+                }
+            );
+        }
+
+        @Event
+        public void onBump(final Sha256Hash replaced, final Coin fee) throws Throwable {
+            final List<Sha256Hash> versions = new ArrayList<>(versions());
+            if (!replaced.equals(closeData().closeTx())) {
+                versions.add(replaced);
+            }
+
+            transit(
+                new CloseTxSentState(
+                    this, status(),
+                    Collections.unmodifiableList(versions), Optional.of(fee)
+                ),
+                CloseTxSentState::doWaitCloseTxMature
+            );
+        }
+
+        @Event
+        public void onFinish() throws Throwable {
+            transit(new FinishState(this));
+        }
+
+        @Override
+        public CloseTxSentState copy() {
+            return new CloseTxSentState(this);
+        }
+
+
+
+        private CloseTxSentState(
+            final TxState<TxStatus> state, final TxStatus status,
+            final List<Sha256Hash> versions, final Optional<Coin> fee
+        ) {
+            super(state, status);
+            versions_ = versions;
+            fee_ = fee;
+        }
+
+        // Whichever version spends the funding output first confirmed.
+        private Observable<Sha256Hash> mined(final Data data, final long millisecTimeout) {
+            final List<Sha256Hash> versions = new ArrayList<>(versions());
+            versions.add(data.closeTx());
+
+            return data.worker().async().waitSpendMature(
+                data.txOutPoint(), versions, 1,
+                data.nodeAddress(),
+                data.nodeLogin(), data.nodePassword(),
+                data.notificationPort(),
+                millisecTimeout, TimeUnit.MILLISECONDS
+            );
+        }
+
+        // Own one-input transaction is replaced, a sweep shared with other
+        // swaps gets a child instead. A failed bump keeps waiting for the
+        // transaction already out, and once the fee is at its cap the
+        // wait goes on without bumps.
+        private Observable<Round> bump(final Data data) {
+            final Function<Coin, Transaction> closeTx = closeTx();
+            final int size = closeTx.apply(TxFee).unsafeBitcoinSerialize().length;
+            final Coin previous = fee().orElseGet(() -> estimatedFee(data, size));
+            final Optional<Coin> fee = bumpedFee(data, previous, size);
+            if (!fee.isPresent()) {
+                return mined(data, 0).map(Round::mined);
+            }
+
+            return AsyncWorker.observe(() -> data.worker().async().bumpTx(
+                data.closeTx(), data.txOutPoint(),
+                closeTx.apply(fee.get()),
+                data.myKey(), fee.get(),
+                data.nodeAddress(),
+                data.nodeLogin(), data.nodePassword()
+            )).
+            onErrorReturn(exception -> data.closeTx()).
+            map(txHash -> Round.sent(txHash, fee.get()));
+        }
+
+        private Function<Coin, Transaction> closeTx() {
+            switch (status()) {
+                case SellerSpent:
+                    return spendingTx(partnerData(), partnerData().csv());
+                case BuyerSpent:
+                    return spendingTx(partnerData(), partnerData().csv() * SellerCSVFactor);
+                case SellerRefunded:
+                    return refundingTx(selfData(), selfData().csv() * SellerCSVFactor);
+                default:
+                    return refundingTx(selfData(), selfData().csv());
+            }
+        }
+
+        // Claims are on the partner chain, refunds on the own one.
+        private Data closeData() {
+            return isSpent() ? partnerData() : selfData();
+        }
+
+        private void closeData(final Data data) {
+            if (isSpent()) {
+                partnerData(data);
+            } else {
+                selfData(data);
+            }
+        }
+
+        private boolean isSpent() {
+            return status() == TxStatus.SellerSpent || status() == TxStatus.BuyerSpent;
+        }
+
+        // Versions replaced by the current close transaction.
+        private List<Sha256Hash> versions() {
+            return versions_;
+        }
+
+        private Optional<Coin> fee() {
+            return fee_;
+        }
+
+        private final List<Sha256Hash> versions_;
+        private final Optional<Coin> fee_;
+
+    }
+
+    // Outcome of one wait for the close transaction: the version mined,
+    // or the version sent by a bump with the fee paid or offered.
+    private static final class Round {
+
+        public static Round mined(final Sha256Hash txHash) {
+            return new Round(txHash, Optional.empty());
+        }
+
+        public static Round sent(final Sha256Hash txHash, final Coin fee) {
+            return new Round(txHash, Optional.of(fee));
+        }
+
+        public Sha256Hash txHash() {
+            return txHash_;
+        }
+
+        public Optional<Coin> fee() {
+            return fee_;
+        }
+
+
+
+        private Round(final Sha256Hash txHash, final Optional<Coin> fee) {
+            txHash_ = txHash;
+            fee_ = fee;
+        }
+
+        private final Sha256Hash txHash_;
+        private final Optional<Coin> fee_;
+
+    }
+
+
+
     private final class FinishState extends AbstractTxState<TxStatus> {
 
         public FinishState(final TxState<TxStatus> state) {
@@ -1136,26 +1494,175 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
 
 
 
-    private static Socket createServerSocket(
-        final int port, final int time
-    ) throws IOException {
-        try (final ServerSocket serverSocket = new ServerSocket(port)) {
-            serverSocket.setSoTimeout(time);
-            final Socket socket = serverSocket.accept();
-            socket.setKeepAlive(true);
-            socket.setSoTimeout(SocketMillisecTimeout);
-            return socket;
+    private Optional<TxStatus> recovered() {
+        return recovered_;
+    }
+
+    // Starts a watch right away and replays what it found to a later
+    // subscriber, the watch ends with the swap at the latest.
+    private <T> Observable<T> watchFromNow(final Observable<T> watch) {
+        return watch.
+        takeUntil(states().filter(this::isFinal)).
+        replay(1).
+        autoConnect(0);
+    }
+
+    private static Observable<TransactionOutPoint> partnerFundingTx(final Data partnerData) {
+        return partnerData.worker().async().waitPartnerTx(
+            partnerData.worker().createP2SHAddress(
+                partnerData.myKey(),
+                partnerData.otherKey(),
+                partnerData.secretHash(),
+                partnerData.csv(),
+                partnerData.netParams()
+            ),
+            partnerData.amount(),
+            partnerData.nodeAddress(),
+            partnerData.nodeLogin(), partnerData.nodePassword(),
+            partnerData.notificationPort(),
+            0, TimeUnit.MILLISECONDS
+        );
+    }
+
+    private static Observable<Sha256Hash> txSecret(final Data selfData) {
+        return selfData.worker().async().waitTxSecret(
+            selfData.txOutPoint(), selfData.secretHash(),
+            selfData.nodeAddress(),
+            selfData.nodeLogin(), selfData.nodePassword(),
+            selfData.notificationPort(),
+            0, TimeUnit.MILLISECONDS
+        );
+    }
+
+    // Builders of the close transactions for a given fee.
+    private static Function<Coin, Transaction> spendingTx(final Data partnerData, final int csv) {
+        final Script script = partnerData.worker().createFundingScript(
+            partnerData.myKey(),
+            partnerData.otherKey(),
+            partnerData.secretHash(),
+            csv
+        );
+
+        return fee -> partnerData.worker().createSpendingTx(
+            partnerData.txOutPoint(),
+            partnerData.myKey(),
+            partnerData.amount().minus(fee),
+            partnerData.netParams(),
+            partnerData.myKey(),
+            script,
+            partnerData.secret()
+        );
+    }
+
+    private static Function<Coin, Transaction> refundingTx(final Data selfData, final int csv) {
+        final Script script = selfData.worker().createFundingScript(
+            selfData.otherKey(),
+            selfData.myKey(),
+            selfData.secretHash(),
+            csv
+        );
+
+        return fee -> selfData.worker().createRefundingTx(
+            selfData.txOutPoint(),
+            selfData.myKey(),
+            selfData.amount().minus(fee),
+            selfData.netParams(),
+            selfData.myKey(),
+            script,
+            csv
+        );
+    }
+
+    // A draft paying TxFee gives the signed size, the node's estimate for
+    // that size is paid instead when it is higher. TxFee stays the floor.
+    private static Transaction withFee(final Data data, final Function<Coin, Transaction> create) {
+        final Transaction draft = create.apply(TxFee);
+        final int size = draft.unsafeBitcoinSerialize().length;
+
+        return data.worker().async().feePerKb(
+            data.nodeAddress(), data.nodeLogin(), data.nodePassword()
+        ).
+        map(feePerKb -> feePerKb.multiply(size).divide(1000)).
+        filter(fee -> fee.isGreaterThan(TxFee) && fee.isLessThan(data.amount())).
+        map(create).
+        orElse(draft);
+    }
+
+    private static Coin estimatedFee(final Data data, final int size) {
+        return data.worker().async().feePerKb(
+            data.nodeAddress(), data.nodeLogin(), data.nodePassword()
+        ).
+        map(feePerKb -> feePerKb.multiply(size).divide(1000)).
+        filter(estimate -> estimate.isGreaterThan(TxFee)).
+        orElse(TxFee);
+    }
+
+    // A bump pays half as much again as the previous fee, but at least
+    // the incremental relay fee for its size more (BIP125 rule 4) and at
+    // least the current estimate. Fee is capped at half of the amount,
+    // empty when the previous one already reached it.
+    private static Optional<Coin> bumpedFee(
+        final Data data, final Coin previous, final int size
+    ) {
+        final Coin cap = data.amount().divide(2);
+        if (!previous.isLessThan(cap)) {
+            return Optional.empty();
         }
+
+        final Coin fee = Stream.of(
+            previous.add(previous.divide(2)),
+            previous.add(IncrementalFeePerKb.multiply(size).divide(1000)),
+            estimatedFee(data, size)
+        ).
+        max(Coin::compareTo).
+        get();
+
+        return Optional.of(fee.isLessThan(cap) ? fee : cap);
     }
 
-    private static Socket createClientSocket(
-        final InetSocketAddress address
-    ) throws IOException {
-        final Socket socket = new Socket();
-        socket.connect(address, SocketMillisecTimeout);
-        socket.setKeepAlive(true);
-        socket.setSoTimeout(SocketMillisecTimeout);
-        return socket;
+    // Every swap with the same own port shares one listener.
+    private static PeerHub peers(final Data selfData) throws IOException {
+        return PeerHub.of(selfData.inetAddress().getPort());
+    }
+
+    private static boolean isFirst(final Data selfData, final Data partnerData) {
+        return (
+            selfData.inetAddress().getAddress().getHostAddress() + ":" +
+            selfData.inetAddress().getPort()
+        ).compareTo(
+            partnerData.inetAddress().getAddress().getHostAddress() + ":" +
+            partnerData.inetAddress().getPort()
+        ) < 0;
+    }
+
+    // Hash of both sides requisites, ordered the same way on both sides.
+    private static Sha256Hash swapId(final Data selfData, final Data partnerData) {
+        final boolean isFirst = isFirst(selfData, partnerData);
+        final Function<Data, String> requisites = (data) -> {
+            return Stream.concat(
+                Stream.of(
+                    data.inetAddress().toString(),
+                    Long.toString(data.amount().value),
+                    data.worker().ticker(),
+                    Integer.toString(data.confirmations()),
+                    Integer.toString(data.csv()),
+                    data.netParams().getId()
+                ), (
+                    isFirst ?
+                    Stream.of(data.myKey(), data.otherKey()) :
+                    Stream.of(data.otherKey(), data.myKey())
+                ).map(ECKey::getPublicKeyAsHex)
+            ).collect(Collectors.joining(WordsSeparator));
+        };
+
+        final String selfRequisites = requisites.apply(selfData);
+        final String partnerRequisites = requisites.apply(partnerData);
+
+        return Sha256Hash.of((
+            isFirst ?
+            (selfRequisites + partnerRequisites) :
+            (partnerRequisites + selfRequisites)
+        ).getBytes());
     }
 
 
@@ -1166,5 +1673,9 @@ public final class AtomicSwapFSM extends GeneralFSM<TxState<TxStatus>> {
     private static final int WaitTxConfirmedMillisecTimeout = 60 * 60 * 1000; // 1 hour
     private static final int SellerCSVFactor = 2;
     private static final Coin TxFee = Coin.valueOf(1000);
+    private static final int BumpMillisecPeriod = 10 * 60 * 1000; // 10 minutes
+    private static final Coin IncrementalFeePerKb = Coin.valueOf(1000); // bitcoind default
+
+    private final Optional<TxStatus> recovered_;
 
 }
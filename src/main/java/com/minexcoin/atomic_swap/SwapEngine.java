@@ -0,0 +1,185 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.minexcoin.atomic_swap.fsm.SwapJournal;
+import com.minexcoin.atomic_swap.fsm.data.Data;
+import com.minexcoin.atomic_swap.fsm.states.TxStatus;
+import com.minexcoin.atomic_swap.fsm.states.TxState;
+import com.minexcoin.fsm.ActorThreads;
+import com.minexcoin.fsm.FSM;
+import com.minexcoin.fsm.HistoryPolicy;
+
+// Hosts many swaps on two shared pools. Every FSM keeps its own serial
+// event mailbox, so events of one swap never run concurrently while the
+// number of threads depends on the pool sizes only.
+public final class SwapEngine implements AutoCloseable {
+
+    public static SwapEngine create(
+        final int eventThreads, final int taskThreads,
+        final int taskLimit,
+        final String eventThreadName, final String taskThreadName
+    ) {
+        return create(
+            eventThreads, taskThreads,
+            ActorThreads.Mode.Platform, taskLimit,
+            eventThreadName, taskThreadName
+        );
+    }
+
+    // In virtual mode every actor gets its own virtual thread and
+    // taskThreads only applies when the JVM has no virtual threads.
+    public static SwapEngine create(
+        final int eventThreads, final int taskThreads,
+        final ActorThreads.Mode actorMode, final int taskLimit,
+        final String eventThreadName, final String taskThreadName
+    ) {
+        return new SwapEngine(
+            eventThreads, taskThreads,
+            actorMode, taskLimit,
+            eventThreadName, taskThreadName
+        );
+    }
+
+    public static SwapEngine create(final int taskThreads, final int taskLimit) {
+        return create(
+            Runtime.getRuntime().availableProcessors(), taskThreads,
+            taskLimit,
+            "SwapEngine-Event-%d", "SwapEngine-Task-%d"
+        );
+    }
+
+    public FSM<TxState<TxStatus>> swap(
+        final Data selfData, final Data partnerData,
+        final boolean cache
+    ) {
+        return AtomicSwapFSM.create(
+            selfData, partnerData,
+            cache,
+            events(), tasks(),
+            taskLimit()
+        );
+    }
+
+    public FSM<TxState<TxStatus>> swap(
+        final Data selfData, final Data partnerData,
+        final boolean cache, final SwapJournal journal
+    ) {
+        return AtomicSwapFSM.create(
+            selfData, partnerData,
+            cache,
+            events(), tasks(),
+            taskLimit(), journal
+        );
+    }
+
+    public FSM<TxState<TxStatus>> swap(
+        final Data selfData, final Data partnerData,
+        final HistoryPolicy<TxState<TxStatus>> history, final SwapJournal journal
+    ) {
+        return AtomicSwapFSM.create(
+            selfData, partnerData,
+            history,
+            events(), tasks(),
+            taskLimit(), journal
+        );
+    }
+
+    public FSM<TxState<TxStatus>> recover(
+        final Data selfData, final Data partnerData,
+        final boolean cache, final SwapJournal journal
+    ) {
+        return AtomicSwapFSM.recover(
+            selfData, partnerData,
+            cache,
+            events(), tasks(),
+            taskLimit(), journal
+        );
+    }
+
+    public FSM<TxState<TxStatus>> recover(
+        final Data selfData, final Data partnerData,
+        final HistoryPolicy<TxState<TxStatus>> history, final SwapJournal journal
+    ) {
+        return AtomicSwapFSM.recover(
+            selfData, partnerData,
+            history,
+            events(), tasks(),
+            taskLimit(), journal
+        );
+    }
+
+    @Override
+    public void close() {
+        events().shutdownNow();
+        tasks().shutdownNow();
+    }
+
+
+
+    private SwapEngine(
+        final int eventThreads, final int taskThreads,
+        final ActorThreads.Mode actorMode, final int taskLimit,
+        final String eventThreadName, final String taskThreadName
+    ) {
+        events_ = pool(eventThreads, eventThreadName);
+        tasks_ = (actorMode == ActorThreads.Mode.Virtual) ?
+        ActorThreads.virtual(taskThreadName).orElseGet(() -> pool(taskThreads, taskThreadName)) :
+        pool(taskThreads, taskThreadName);
+        taskLimit_ = taskLimit;
+    }
+
+    private static ExecutorService pool(final int threads, final String threadName) {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            threads, threads,
+            KeepAliveSeconds, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder().
+            setNameFormat(threadName).
+            setDaemon(true).
+            build()
+        );
+        pool.allowCoreThreadTimeOut(true);
+
+        return pool;
+    }
+
+    private ExecutorService events() {
+        return events_;
+    }
+
+    private ExecutorService tasks() {
+        return tasks_;
+    }
+
+    private int taskLimit() {
+        return taskLimit_;
+    }
+
+    private static final long KeepAliveSeconds = 60;
+
+    private final ExecutorService events_;
+    private final ExecutorService tasks_;
+    private final int taskLimit_;
+
+}
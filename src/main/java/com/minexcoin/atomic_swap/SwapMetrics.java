@@ -0,0 +1,149 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+
+package com.minexcoin.atomic_swap;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.minexcoin.atomic_swap.fsm.states.TxStatus;
+import com.minexcoin.metrics.Histogram;
+import com.minexcoin.metrics.MetricSet;
+
+// Lifecycle of all swaps in the process, fed by AtomicSwapFSM transitions.
+// Everything is indexed by TxStatus ordinal, so recording is a few atomic
+// increments without lookups or allocation.
+public final class SwapMetrics implements MetricSet {
+
+    public static SwapMetrics instance() {
+        return Instance;
+    }
+
+    public long inFlight(final TxStatus status) {
+        return inFlight().get(status.ordinal());
+    }
+
+    public long transitions(final TxStatus from, final TxStatus to) {
+        return transitions().get(from.ordinal() * Statuses.length + to.ordinal());
+    }
+
+    public long errors(final TxStatus status) {
+        return errors().get(status.ordinal());
+    }
+
+    public Histogram dwell(final TxStatus status) {
+        return dwell()[status.ordinal()];
+    }
+
+    @Override
+    public void write(final StringBuilder out) {
+        out.append("# HELP atomic_swap_in_flight Swaps currently in the state.\n");
+        out.append("# TYPE atomic_swap_in_flight gauge\n");
+        for (final TxStatus status : Statuses) {
+            out.append("atomic_swap_in_flight{status=\"").append(status).append("\"} ").
+            append(inFlight(status)).append('\n');
+        }
+
+        out.append("# HELP atomic_swap_transitions_total Transitions between states.\n");
+        out.append("# TYPE atomic_swap_transitions_total counter\n");
+        for (final TxStatus from : Statuses) {
+            for (final TxStatus to : Statuses) {
+                final long count = transitions(from, to);
+                if (count != 0) {
+                    out.append("atomic_swap_transitions_total{from=\"").append(from).
+                    append("\",to=\"").append(to).append("\"} ").
+                    append(count).append('\n');
+                }
+            }
+        }
+
+        out.append("# HELP atomic_swap_errors_total Swaps failed in the state.\n");
+        out.append("# TYPE atomic_swap_errors_total counter\n");
+        for (final TxStatus status : Statuses) {
+            out.append("atomic_swap_errors_total{status=\"").append(status).append("\"} ").
+            append(errors(status)).append('\n');
+        }
+
+        out.append("# HELP atomic_swap_dwell_seconds Time spent in the state.\n");
+        out.append("# TYPE atomic_swap_dwell_seconds histogram\n");
+        for (final TxStatus status : Statuses) {
+            dwell(status).write(
+                out, "atomic_swap_dwell_seconds",
+                "status=\"" + status + "\"", NanosecsPerSecond
+            );
+        }
+    }
+
+
+
+    void started(final TxStatus status) {
+        inFlight().incrementAndGet(status.ordinal());
+    }
+
+    void transited(
+        final TxStatus from, final TxStatus to,
+        final long dwellNanos, final boolean isFinal
+    ) {
+        dwell()[from.ordinal()].record(dwellNanos);
+        transitions().incrementAndGet(from.ordinal() * Statuses.length + to.ordinal());
+        inFlight().decrementAndGet(from.ordinal());
+        if (!isFinal) {
+            inFlight().incrementAndGet(to.ordinal());
+        }
+    }
+
+    void failed(final TxStatus status) {
+        errors().incrementAndGet(status.ordinal());
+    }
+
+
+
+    private SwapMetrics() {
+        inFlight_ = new AtomicLongArray(Statuses.length);
+        transitions_ = new AtomicLongArray(Statuses.length * Statuses.length);
+        errors_ = new AtomicLongArray(Statuses.length);
+        dwell_ = new Histogram[Statuses.length];
+        for (int index = 0; index < Statuses.length; ++index) {
+            dwell_[index] = new Histogram();
+        }
+    }
+
+    private AtomicLongArray inFlight() {
+        return inFlight_;
+    }
+
+    private AtomicLongArray transitions() {
+        return transitions_;
+    }
+
+    private AtomicLongArray errors() {
+        return errors_;
+    }
+
+    private Histogram[] dwell() {
+        return dwell_;
+    }
+
+    private static final TxStatus[] Statuses = TxStatus.values();
+    private static final double NanosecsPerSecond = 1e9;
+
+    private static final SwapMetrics Instance = new SwapMetrics();
+
+    private final AtomicLongArray inFlight_;
+    private final AtomicLongArray transitions_;
+    private final AtomicLongArray errors_;
+    private final Histogram[] dwell_;
+
+}
@@ -0,0 +1,194 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.fsm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+
+import com.minexcoin.atomic_swap.fsm.data.Data;
+import com.minexcoin.atomic_swap.fsm.states.TxState;
+import com.minexcoin.atomic_swap.fsm.states.TxStatus;
+import com.minexcoin.fsm.FileJournal;
+import com.minexcoin.fsm.Journal;
+
+// Journals swap progress only: status plus secret, secret hash, funding
+// outpoint and closing tx of both sides. Configuration (keys, nodes,
+// amounts) is expected to be supplied again on recovery.
+public final class SwapJournal implements Journal<TxState<TxStatus>> {
+
+    public static SwapJournal of(final FileJournal journal, final String swapId) {
+        return new SwapJournal(journal, swapId);
+    }
+
+    @Override
+    public CompletionStage<Void> write(final TxState<TxStatus> state) {
+        return journal().append(swapId(), encode(state));
+    }
+
+    public static final class Progress {
+
+        public TxStatus status() {
+            return status_;
+        }
+
+        public Data selfData() {
+            return selfData_;
+        }
+
+        public Data partnerData() {
+            return partnerData_;
+        }
+
+
+
+        private Progress(final TxStatus status, final Data selfData, final Data partnerData) {
+            status_ = status;
+            selfData_ = selfData;
+            partnerData_ = partnerData;
+        }
+
+        private final TxStatus status_;
+        private final Data selfData_;
+        private final Data partnerData_;
+
+    }
+
+    // Last durable status with journaled progress applied to the given data.
+    public Optional<Progress> restore(final Data selfData, final Data partnerData) {
+        return journal().recovered(swapId()).map(payload -> {
+            try (
+                final DataInputStream input = new DataInputStream(
+                    new ByteArrayInputStream(payload)
+                )
+            ) {
+                if (input.readByte() != Version) {
+                    throw new IllegalStateException("Unknown journal version of swap " + swapId());
+                }
+
+                final TxStatus status = TxStatus.valueOf(input.readUTF());
+                final Data self = read(input, selfData);
+                final Data partner = read(input, partnerData);
+
+                return new Progress(status, self, partner);
+            } catch (final IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        });
+    }
+
+    public String swapId() {
+        return swapId_;
+    }
+
+
+
+    private SwapJournal(final FileJournal journal, final String swapId) {
+        journal_ = journal;
+        swapId_ = swapId;
+    }
+
+    private static byte[] encode(final TxState<TxStatus> state) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(RecordSize);
+
+        try (final DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(Version);
+            output.writeUTF(state.status().name());
+            write(output, state.selfData());
+            write(output, state.partnerData());
+        } catch (final IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static void write(final DataOutputStream output, final Data data) throws IOException {
+        writeHash(output, data.secret());
+        writeHash(output, data.secret() == null ? data.secretHash() : null);
+
+        writeHash(output, data.txOutPoint() == null ? null : data.txOutPoint().getHash());
+        if (data.txOutPoint() != null) {
+            output.writeLong(data.txOutPoint().getIndex());
+        }
+
+        writeHash(output, data.closeTx());
+    }
+
+    private static Data read(final DataInputStream input, final Data data) throws IOException {
+        Data result = data;
+
+        final Optional<Sha256Hash> secret = readHash(input);
+        final Optional<Sha256Hash> secretHash = readHash(input);
+        if (secret.isPresent()) {
+            result = result.withSecret(secret.get());
+        } else if (secretHash.isPresent()) {
+            result = result.withSecretHash(secretHash.get());
+        }
+
+        final Optional<Sha256Hash> txHash = readHash(input);
+        if (txHash.isPresent()) {
+            result = result.withTxOutPoint(new TransactionOutPoint(
+                data.netParams(), input.readLong(), txHash.get()
+            ));
+        }
+
+        final Optional<Sha256Hash> closeTx = readHash(input);
+        if (closeTx.isPresent()) {
+            result = result.withCloseTx(closeTx.get());
+        }
+
+        return result;
+    }
+
+    private static void writeHash(
+        final DataOutputStream output, final Sha256Hash hash
+    ) throws IOException {
+        output.writeBoolean(hash != null);
+        if (hash != null) {
+            output.write(hash.getBytes());
+        }
+    }
+
+    private static Optional<Sha256Hash> readHash(final DataInputStream input) throws IOException {
+        if (!input.readBoolean()) {
+            return Optional.empty();
+        }
+
+        final byte[] hash = new byte[Sha256Hash.LENGTH];
+        input.readFully(hash);
+        return Optional.of(Sha256Hash.wrap(hash));
+    }
+
+    private FileJournal journal() {
+        return journal_;
+    }
+
+    private static final byte Version = 1;
+    private static final int RecordSize = 256;
+
+    private final FileJournal journal_;
+    private final String swapId_;
+
+}
@@ -59,38 +59,15 @@ public interface Data extends Cloneable {
 
     Sha256Hash closeTx();
 
-    void inetAddress(final InetSocketAddress inetAddress);
-
-    void nodeAddress(final InetSocketAddress nodeAddress);
-
-    void nodeLogin(final String login);
-
-    void nodePassword(final String password);
-
-    void notificationPort(final int port);
-
-    void amount(final Coin amount);
-
-    void myKey(final ECKey key);
-
-    void otherKey(final ECKey key);
-
-    void worker(final Worker worker);
-
-    void secret(final Sha256Hash secret);
-
-    void secretHash(final Sha256Hash hash);
-
-    void confirmations(int confirmations);
-
-    void csv(final int csv);
+    Data clone();
 
-    void netParams(final NetworkParameters netParams);
+    // Read-only view, swap progress changes through copies.
+    Data withSecret(final Sha256Hash secret);
 
-    void txOutPoint(final TransactionOutPoint point);
+    Data withSecretHash(final Sha256Hash hash);
 
-    void closeTx(final Sha256Hash closeTx);
+    Data withTxOutPoint(final TransactionOutPoint point);
 
-    Data clone();
+    Data withCloseTx(final Sha256Hash closeTx);
 
 }
\ No newline at end of file
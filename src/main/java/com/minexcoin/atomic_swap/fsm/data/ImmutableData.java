@@ -0,0 +1,233 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.fsm.data;
+
+import java.net.InetSocketAddress;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+
+import com.minexcoin.atomic_swap.workers.Worker;
+
+// Read-only Data split into swap configuration, shared by every snapshot,
+// and swap progress, which with-ers replace. Cloning returns the same
+// object, so state copies cost no data copying at all.
+public final class ImmutableData implements Data {
+
+    public static ImmutableData of(final Data data) {
+        if (data instanceof ImmutableData) {
+            return (ImmutableData)data;
+        }
+
+        return new ImmutableData(
+            new Config(data),
+            new Progress(data.secret(), data.secretHash(), data.txOutPoint(), data.closeTx())
+        );
+    }
+
+    @Override
+    public InetSocketAddress inetAddress() {
+        return config().inetAddress_;
+    }
+
+    @Override
+    public InetSocketAddress nodeAddress() {
+        return config().nodeAddress_;
+    }
+
+    @Override
+    public String nodeLogin() {
+        return config().nodeLogin_;
+    }
+
+    @Override
+    public String nodePassword() {
+        return config().nodePassword_;
+    }
+
+    @Override
+    public int notificationPort() {
+        return config().notificationPort_;
+    }
+
+    @Override
+    public Coin amount() {
+        return config().amount_;
+    }
+
+    @Override
+    public ECKey myKey() {
+        return config().myKey_;
+    }
+
+    @Override
+    public ECKey otherKey() {
+        return config().otherKey_;
+    }
+
+    @Override
+    public Worker worker() {
+        return config().worker_;
+    }
+
+    @Override
+    public Sha256Hash secret() {
+        return progress().secret_;
+    }
+
+    @Override
+    public Sha256Hash secretHash() {
+        return progress().secretHash_;
+    }
+
+    @Override
+    public int confirmations() {
+        return config().confirmations_;
+    }
+
+    @Override
+    public int csv() {
+        return config().csv_;
+    }
+
+    @Override
+    public NetworkParameters netParams() {
+        return config().netParams_;
+    }
+
+    @Override
+    public TransactionOutPoint txOutPoint() {
+        return progress().txOutPoint_;
+    }
+
+    @Override
+    public Sha256Hash closeTx() {
+        return progress().closeTx_;
+    }
+
+    @Override
+    public Data withSecret(final Sha256Hash secret) {
+        return new ImmutableData(
+            config(),
+            new Progress(
+                secret, Sha256Hash.of(secret.getBytes()),
+                txOutPoint(), closeTx()
+            )
+        );
+    }
+
+    @Override
+    public Data withSecretHash(final Sha256Hash hash) {
+        return new ImmutableData(
+            config(),
+            new Progress(null, hash, txOutPoint(), closeTx())
+        );
+    }
+
+    @Override
+    public Data withTxOutPoint(final TransactionOutPoint point) {
+        return new ImmutableData(
+            config(),
+            new Progress(secret(), secretHash(), point, closeTx())
+        );
+    }
+
+    @Override
+    public Data withCloseTx(final Sha256Hash closeTx) {
+        return new ImmutableData(
+            config(),
+            new Progress(secret(), secretHash(), txOutPoint(), closeTx)
+        );
+    }
+
+    @Override
+    public ImmutableData clone() {
+        return this;
+    }
+
+
+
+    private ImmutableData(final Config config, final Progress progress) {
+        config_ = config;
+        progress_ = progress;
+    }
+
+    private static final class Config {
+
+        public Config(final Data data) {
+            inetAddress_ = data.inetAddress();
+            nodeAddress_ = data.nodeAddress();
+            nodeLogin_ = data.nodeLogin();
+            nodePassword_ = data.nodePassword();
+            notificationPort_ = data.notificationPort();
+            amount_ = data.amount();
+            myKey_ = data.myKey();
+            otherKey_ = data.otherKey();
+            worker_ = data.worker();
+            confirmations_ = data.confirmations();
+            csv_ = data.csv();
+            netParams_ = data.netParams();
+        }
+
+        private final InetSocketAddress inetAddress_;
+        private final InetSocketAddress nodeAddress_;
+        private final String nodeLogin_;
+        private final String nodePassword_;
+        private final int notificationPort_;
+        private final Coin amount_;
+        private final ECKey myKey_;
+        private final ECKey otherKey_;
+        private final Worker worker_;
+        private final int confirmations_;
+        private final int csv_;
+        private final NetworkParameters netParams_;
+
+    }
+
+    private static final class Progress {
+
+        public Progress(
+            final Sha256Hash secret, final Sha256Hash secretHash,
+            final TransactionOutPoint txOutPoint, final Sha256Hash closeTx
+        ) {
+            secret_ = secret;
+            secretHash_ = secretHash;
+            txOutPoint_ = txOutPoint;
+            closeTx_ = closeTx;
+        }
+
+        private final Sha256Hash secret_;
+        private final Sha256Hash secretHash_;
+        private final TransactionOutPoint txOutPoint_;
+        private final Sha256Hash closeTx_;
+
+    }
+
+    private Config config() {
+        return config_;
+    }
+
+    private Progress progress() {
+        return progress_;
+    }
+
+    private final Config config_;
+    private final Progress progress_;
+
+}
@@ -107,88 +107,100 @@ public final class SimpleData implements Data {
         return closeTx_;
     }
 
-    @Override
     public void inetAddress(final InetSocketAddress address) {
         inetAddress_ = address;
     }
 
-    @Override
     public void nodeAddress(final InetSocketAddress address) {
         nodeAddress_ = address;
     }
 
-    @Override
     public void nodeLogin(final String login) {
         nodeLogin_ = login;
     }
 
-    @Override
     public void nodePassword(final String password) {
         nodePassword_ = password;
     }
 
-    @Override
     public void notificationPort(final int port) {
         notificationPort_ = port;
     }
 
-    @Override
     public void amount(final Coin amount) {
         amount_ = amount;
     }
 
-    @Override
     public void myKey(final ECKey key) {
         myKey_ = key;
     }
 
-    @Override
     public void otherKey(final ECKey key) {
         otherKey_ = key;
     }
 
-    @Override
     public void worker(final Worker worker) {
         worker_ = worker;
     }
 
-    @Override
     public void secret(final Sha256Hash secret) {
         secret_ = secret;
         secretHash_ = Sha256Hash.of(secret_.getBytes());
     }
 
-    @Override
     public void secretHash(final Sha256Hash hash) {
         secret_ = null;
         secretHash_ = hash;
     }
 
-    @Override
     public void confirmations(final int confirmations) {
         confirmations_ = confirmations;
     }
 
-    @Override
     public void csv(final int csv) {
         csv_ = csv;
     }
 
-    @Override
     public void netParams(final NetworkParameters netParams) {
         netParams_ = netParams;
     }
 
-    @Override
     public void txOutPoint(final TransactionOutPoint point) {
         txOutPoint_ = point;
     }
 
-    @Override
     public void closeTx(final Sha256Hash closeTx) {
         closeTx_ = closeTx;
     }
 
+    @Override
+    public SimpleData withSecret(final Sha256Hash secret) {
+        final SimpleData data = clone();
+        data.secret(secret);
+        return data;
+    }
+
+    @Override
+    public SimpleData withSecretHash(final Sha256Hash hash) {
+        final SimpleData data = clone();
+        data.secretHash(hash);
+        return data;
+    }
+
+    @Override
+    public SimpleData withTxOutPoint(final TransactionOutPoint point) {
+        final SimpleData data = clone();
+        data.txOutPoint(point);
+        return data;
+    }
+
+    @Override
+    public SimpleData withCloseTx(final Sha256Hash closeTx) {
+        final SimpleData data = clone();
+        data.closeTx(closeTx);
+        return data;
+    }
+
     @Override
     public SimpleData clone() {
         try {
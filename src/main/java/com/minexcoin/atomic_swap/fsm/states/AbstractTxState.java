@@ -47,6 +47,16 @@ implements TxState<StatusT> {
         status_ = status;
     }
 
+    // Replaces data of this state only, snapshots already
+    // taken keep the data they were created with.
+    protected void selfData(final Data data) {
+        selfData_ = data;
+    }
+
+    protected void partnerData(final Data data) {
+        partnerData_ = data;
+    }
+
     private Data selfData_;
     private Data partnerData_;
     private final StatusT status_;
@@ -22,9 +22,10 @@ public enum TxStatus {
     Init, HandShake,
 
     Seller, SellerTx, SellerMatureSent, SellerMatureUnsent, SellerSpending, SellerRefunding,
+    SellerSpent, SellerRefunded,
 
     Buyer, BuyerHasSellerTx, BuyerTx, BuyerMature,
-    BuyerSpending, BuyerRefunding,
+    BuyerSpending, BuyerRefunding, BuyerSpent, BuyerRefunded,
 
     Finish, Error
 
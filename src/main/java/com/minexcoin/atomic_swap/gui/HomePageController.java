@@ -27,7 +27,6 @@ import javafx.stage.Stage;
 
 import com.minexcoin.fsm.FSM;
 import com.minexcoin.atomic_swap.AtomicSwapFSM;
-import com.minexcoin.atomic_swap.fsm.data.Data;
 import com.minexcoin.atomic_swap.fsm.data.SimpleData;
 import com.minexcoin.atomic_swap.fsm.states.TxState;
 import com.minexcoin.atomic_swap.fsm.states.TxStatus;
@@ -90,8 +89,8 @@ public class HomePageController implements Initializable {
     @FXML
     private Button exchangeButton;
     
-    private final Data selfData = new SimpleData();
-    private final Data partnerData = new SimpleData();
+    private final SimpleData selfData = new SimpleData();
+    private final SimpleData partnerData = new SimpleData();
     
     @Override
     public void initialize(URL location, ResourceBundle resources) {
@@ -0,0 +1,124 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+
+package com.minexcoin.atomic_swap.peer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.bitcoinj.core.Sha256Hash;
+
+// Frame is type, swap id, payload length, payload and checksum, the
+// first four bytes of double SHA256 of everything before it. The same
+// layout is read from blocking streams and from NIO buffers.
+public final class FrameCodec {
+
+    public static ByteBuffer encode(final Frame frame) {
+        if (frame.payload().length > MaxPayloadSize) {
+            throw new IllegalArgumentException("Too long frame " + frame);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(HeaderSize + frame.payload().length + ChecksumSize);
+        buffer.
+        put(frame.type().code()).
+        put(frame.swapId().getBytes()).
+        putInt(frame.payload().length).
+        put(frame.payload()).
+        putInt(checksum(buffer.array(), HeaderSize + frame.payload().length));
+
+        buffer.flip();
+        return buffer;
+    }
+
+    // Takes one whole frame from the buffer. An incomplete frame
+    // is left in the buffer until the rest of it is read.
+    public static Optional<Frame> decode(final ByteBuffer buffer) throws ProtocolException {
+        if (buffer.remaining() < HeaderSize) {
+            return Optional.empty();
+        }
+
+        final int length = length(buffer.getInt(buffer.position() + LengthOffset));
+        if (buffer.remaining() < HeaderSize + length + ChecksumSize) {
+            return Optional.empty();
+        }
+
+        final byte[] bytes = new byte[HeaderSize + length];
+        buffer.get(bytes);
+        return Optional.of(parse(bytes, buffer.getInt()));
+    }
+
+    public static void write(final OutputStream output, final Frame frame) throws IOException {
+        output.write(encode(frame).array());
+        output.flush();
+    }
+
+    // Reads exactly one frame, a short read only means waiting for more.
+    public static Frame read(final InputStream input) throws IOException {
+        final DataInputStream data = new DataInputStream(input);
+
+        final byte[] header = new byte[HeaderSize];
+        data.readFully(header);
+
+        final int length = length(ByteBuffer.wrap(header).getInt(LengthOffset));
+        final byte[] bytes = Arrays.copyOf(header, HeaderSize + length);
+        data.readFully(bytes, HeaderSize, length);
+
+        return parse(bytes, data.readInt());
+    }
+
+    private FrameCodec() {
+    }
+
+    private static int length(final int length) throws ProtocolException {
+        if (length < 0 || length > MaxPayloadSize) {
+            throw new ProtocolException("Bad frame length " + length);
+        }
+        return length;
+    }
+
+    private static Frame parse(final byte[] bytes, final int checksum) throws ProtocolException {
+        if (checksum(bytes, bytes.length) != checksum) {
+            throw new ProtocolException("Bad frame checksum");
+        }
+
+        final byte code = bytes[0];
+        return new Frame(
+            MessageType.of(code).orElseThrow(
+                () -> new ProtocolException("Unknown message type " + code)
+            ),
+            Sha256Hash.wrap(Arrays.copyOfRange(bytes, 1, LengthOffset)),
+            Arrays.copyOfRange(bytes, HeaderSize, bytes.length)
+        );
+    }
+
+    private static int checksum(final byte[] bytes, final int length) {
+        return ByteBuffer.wrap(Sha256Hash.hashTwice(bytes, 0, length)).getInt();
+    }
+
+    private static final int LengthOffset = 1 + Sha256Hash.LENGTH;
+    private static final int HeaderSize = LengthOffset + 4;
+    private static final int ChecksumSize = 4;
+
+    static final int MaxPayloadSize = 1024;
+    static final int MaxFrameSize = HeaderSize + MaxPayloadSize + ChecksumSize;
+
+}
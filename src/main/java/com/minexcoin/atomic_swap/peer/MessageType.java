@@ -0,0 +1,54 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+
+package com.minexcoin.atomic_swap.peer;
+
+import java.util.Optional;
+
+public enum MessageType {
+
+    // Coin toss commitment and its reveal.
+    Commit((byte)1), Reveal((byte)2),
+
+    // Seller secret hash and funding transaction hash.
+    Funding((byte)3),
+
+    // Session control, sender listening port and keep alive.
+    Hello((byte)4), Heartbeat((byte)5);
+
+    public byte code() {
+        return code_;
+    }
+
+    public static Optional<MessageType> of(final byte code) {
+        for (final MessageType type : values()) {
+            if (type.code() == code) {
+                return Optional.of(type);
+            }
+        }
+
+        return Optional.empty();
+    }
+
+
+
+    private MessageType(final byte code) {
+        code_ = code;
+    }
+
+    private final byte code_;
+
+}
@@ -0,0 +1,797 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+
+package com.minexcoin.atomic_swap.peer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bitcoinj.core.Sha256Hash;
+
+import rx.Observable;
+import rx.subjects.AsyncSubject;
+
+// Single selector thread per listening port. Every swap of a process
+// shares it, messages are routed by swap id and message type.
+// Messages to a counterparty share one long-lived session, which is
+// kept alive by heartbeats and reconnected while messages are queued.
+public final class PeerHub implements AutoCloseable {
+
+    public static PeerHub of(final int port) throws IOException {
+        try {
+            return Hubs.compute(port, (key, hub) -> {
+                if (hub != null && !hub.isClosed().get()) {
+                    return hub;
+                }
+
+                try {
+                    return new PeerHub(key);
+                } catch (final IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            });
+        } catch (final UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+    }
+
+    // Completes once the message is written to the session. Partner may
+    // not listen yet, so refused connections are retried until the timeout.
+    public CompletableFuture<Void> send(
+        final InetSocketAddress address,
+        final Sha256Hash swapId, final MessageType type, final byte[] payload
+    ) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        final ByteBuffer frame;
+        try {
+            frame = FrameCodec.encode(new Frame(type, swapId, payload));
+        } catch (final IllegalArgumentException exception) {
+            result.completeExceptionally(exception);
+            return result;
+        }
+
+        final Outgoing outgoing = new Outgoing(
+            frame, result, System.currentTimeMillis() + SocketMillisecTimeout, false
+        );
+        if (!post(() -> enqueue(address, outgoing))) {
+            result.completeExceptionally(new ClosedChannelException());
+        }
+        return result;
+    }
+
+    // Emits the first message of the type for the swap. Messages which
+    // come before the subscription are kept for it.
+    public Observable<byte[]> receive(final Sha256Hash swapId, final MessageType type) {
+        final Key key = new Key(swapId, type);
+        return Observable.defer(() -> slot(key).subject()).
+        take(1).
+        doOnNext(payload -> slots().remove(key));
+    }
+
+    @Override
+    public void close() {
+        if (isClosed().compareAndSet(false, true)) {
+            selector().wakeup();
+        }
+    }
+
+
+
+    private static final class Key {
+
+        public Key(final Sha256Hash swapId, final MessageType type) {
+            swapId_ = swapId;
+            type_ = type;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            final Key key = (Key)other;
+            return swapId().equals(key.swapId()) && type() == key.type();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * swapId().hashCode() + type().hashCode();
+        }
+
+        private Sha256Hash swapId() {
+            return swapId_;
+        }
+
+        private MessageType type() {
+            return type_;
+        }
+
+        private final Sha256Hash swapId_;
+        private final MessageType type_;
+
+    }
+
+    private static final class Slot {
+
+        public Slot() {
+            subject_ = AsyncSubject.create();
+            created_ = System.currentTimeMillis();
+        }
+
+        public AsyncSubject<byte[]> subject() {
+            return subject_;
+        }
+
+        public long created() {
+            return created_;
+        }
+
+        private final AsyncSubject<byte[]> subject_;
+        private final long created_;
+
+    }
+
+    private static final class Outgoing {
+
+        public Outgoing(
+            final ByteBuffer frame, final CompletableFuture<Void> result, final long deadline,
+            final boolean isControl
+        ) {
+            frame_ = frame;
+            result_ = result;
+            deadline_ = deadline;
+            isControl_ = isControl;
+        }
+
+        public ByteBuffer frame() {
+            return frame_;
+        }
+
+        public CompletableFuture<Void> result() {
+            return result_;
+        }
+
+        public long deadline() {
+            return deadline_;
+        }
+
+        public boolean isControl() {
+            return isControl_;
+        }
+
+        private final ByteBuffer frame_;
+        private final CompletableFuture<Void> result_;
+        private final long deadline_;
+        private final boolean isControl_;
+
+    }
+
+    // Messages to one counterparty, keyed by its listening address.
+    private static final class Session {
+
+        public Session(final InetSocketAddress address) {
+            address_ = address;
+            pending_ = new ArrayDeque<>();
+            connection_ = Optional.empty();
+            retry_ = 0;
+            used_ = System.currentTimeMillis();
+        }
+
+        public InetSocketAddress address() {
+            return address_;
+        }
+
+        public Deque<Outgoing> pending() {
+            return pending_;
+        }
+
+        public Optional<Connection> connection() {
+            return connection_;
+        }
+
+        public void connection(final Optional<Connection> connection) {
+            connection_ = connection;
+        }
+
+        public long retry() {
+            return retry_;
+        }
+
+        public void retry(final long retry) {
+            retry_ = retry;
+        }
+
+        public long used() {
+            return used_;
+        }
+
+        public void used(final long used) {
+            used_ = used;
+        }
+
+        private final InetSocketAddress address_;
+        private final Deque<Outgoing> pending_;
+        private Optional<Connection> connection_;
+        private long retry_;
+        private long used_;
+
+    }
+
+    // Either side of a session. Accepted connections learn their
+    // session from the Hello frame which opens every connection.
+    private static final class Connection {
+
+        public Connection(final SocketChannel channel, final Optional<Session> session) {
+            channel_ = channel;
+            session_ = session;
+            input_ = ByteBuffer.allocate(FrameCodec.MaxFrameSize);
+            output_ = new ArrayDeque<>();
+            read_ = System.currentTimeMillis();
+            written_ = read_;
+        }
+
+        public SocketChannel channel() {
+            return channel_;
+        }
+
+        public Optional<Session> session() {
+            return session_;
+        }
+
+        public void session(final Optional<Session> session) {
+            session_ = session;
+        }
+
+        public ByteBuffer input() {
+            return input_;
+        }
+
+        public Deque<Outgoing> output() {
+            return output_;
+        }
+
+        public long read() {
+            return read_;
+        }
+
+        public void read(final long read) {
+            read_ = read;
+        }
+
+        public long written() {
+            return written_;
+        }
+
+        public void written(final long written) {
+            written_ = written;
+        }
+
+        private final SocketChannel channel_;
+        private Optional<Session> session_;
+        private final ByteBuffer input_;
+        private final Deque<Outgoing> output_;
+        private long read_;
+        private long written_;
+
+    }
+
+    private PeerHub(final int port) throws IOException {
+        port_ = port;
+        isClosed_ = new AtomicBoolean(false);
+        tasks_ = new ConcurrentLinkedQueue<>();
+        sessions_ = new HashMap<>();
+        slots_ = new ConcurrentHashMap<>();
+        selector_ = Selector.open();
+        server_ = ServerSocketChannel.open();
+
+        try {
+            server_.socket().setReuseAddress(true);
+            server_.bind(new InetSocketAddress(port), Backlog);
+            server_.configureBlocking(false);
+            server_.register(selector_, SelectionKey.OP_ACCEPT);
+        } catch (final IOException exception) {
+            server_.close();
+            selector_.close();
+            throw exception;
+        }
+
+        final Thread thread = new Thread(this::loop, "PeerHub " + port);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private boolean post(final Runnable task) {
+        if (isClosed().get()) {
+            return false;
+        }
+
+        tasks().add(task);
+        selector().wakeup();
+        return true;
+    }
+
+    private void loop() {
+        long swept = System.currentTimeMillis();
+        try {
+            while (!isClosed().get()) {
+                selector().select(SelectMillisecTimeout);
+
+                for (Runnable task = tasks().poll(); task != null; task = tasks().poll()) {
+                    task.run();
+                }
+
+                final Iterator<SelectionKey> keys = selector().selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+
+                final long now = System.currentTimeMillis();
+                for (final Session session : sessions().values()) {
+                    if (session.retry() != 0 && session.retry() <= now) {
+                        session.retry(0);
+                        connect(session);
+                    }
+                }
+
+                if (now - swept >= SweepMillisecInterval) {
+                    sweep(now);
+                    swept = now;
+                }
+            }
+        } catch (final IOException exception) {
+            // Broken selector closes the hub as well.
+        } finally {
+            isClosed().set(true);
+            shutdown();
+        }
+    }
+
+    private void handle(final SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+
+        final Connection connection = (Connection)key.attachment();
+        try {
+            if (key.isConnectable()) {
+                finishConnect(key, connection);
+                return;
+            }
+            if (key.isReadable()) {
+                read(key, connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+                write(key, connection);
+            }
+        } catch (final IOException exception) {
+            drop(key, connection, exception);
+        }
+    }
+
+    private void accept() {
+        try {
+            final SocketChannel channel = server().accept();
+            if (channel != null) {
+                channel.configureBlocking(false);
+                channel.register(
+                    selector(), SelectionKey.OP_READ,
+                    new Connection(channel, Optional.empty())
+                );
+            }
+        } catch (final IOException exception) {
+            // Failed connection does not affect the listener.
+        }
+    }
+
+    private void enqueue(final InetSocketAddress address, final Outgoing outgoing) {
+        final Session session = sessions().computeIfAbsent(address, Session::new);
+        session.pending().add(outgoing);
+        flush(session);
+    }
+
+    // Moves queued messages to the connection, opening one if needed.
+    private void flush(final Session session) {
+        if (!session.connection().isPresent()) {
+            if (session.retry() == 0) {
+                connect(session);
+            }
+            return;
+        }
+
+        final Connection connection = session.connection().get();
+        final SelectionKey key = connection.channel().keyFor(selector());
+        if (session.pending().isEmpty() || key == null || !connection.channel().isConnected()) {
+            return;
+        }
+
+        connection.output().addAll(session.pending());
+        session.pending().clear();
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void connect(final Session session) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+
+            final Connection connection = new Connection(channel, Optional.of(session));
+            connection.output().add(control(MessageType.Hello, ByteBuffer.allocate(4).putInt(port()).array()));
+            session.connection(Optional.of(connection));
+
+            if (channel.connect(session.address())) {
+                channel.register(selector(), SelectionKey.OP_READ, connection);
+                connected(connection);
+            } else {
+                channel.register(selector(), SelectionKey.OP_CONNECT, connection);
+            }
+        } catch (final IOException exception) {
+            closeQuietly(channel);
+            session.connection(Optional.empty());
+            retry(session, exception);
+        } catch (final UnresolvedAddressException exception) {
+            closeQuietly(channel);
+            session.connection(Optional.empty());
+            retry(session, new IOException("Unresolved peer " + session.address(), exception));
+        }
+    }
+
+    private void finishConnect(final SelectionKey key, final Connection connection) {
+        try {
+            if (connection.channel().finishConnect()) {
+                key.interestOps(SelectionKey.OP_READ);
+                connected(connection);
+            }
+        } catch (final IOException exception) {
+            close(key);
+            connection.session().ifPresent(session -> {
+                session.connection(Optional.empty());
+                retry(session, exception);
+            });
+        }
+    }
+
+    private void connected(final Connection connection) {
+        final long now = System.currentTimeMillis();
+        connection.read(now);
+        connection.written(now);
+        connection.session().ifPresent(this::flush);
+        connection.channel().keyFor(selector()).interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    // Refused connections are retried while messages are queued,
+    // everything else fails the queued messages at once.
+    private void retry(final Session session, final IOException exception) {
+        if (session.pending().isEmpty()) {
+            return;
+        }
+
+        if (exception instanceof ConnectException) {
+            session.retry(System.currentTimeMillis() + ConnectMillisecRetry);
+        } else {
+            fail(session.pending(), exception);
+        }
+    }
+
+    private void write(final SelectionKey key, final Connection connection) throws IOException {
+        while (!connection.output().isEmpty()) {
+            final Outgoing outgoing = connection.output().peek();
+            connection.channel().write(outgoing.frame());
+            if (outgoing.frame().hasRemaining()) {
+                return;
+            }
+
+            connection.output().poll();
+            connection.written(System.currentTimeMillis());
+            outgoing.result().complete(null);
+        }
+
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void read(final SelectionKey key, final Connection connection) throws IOException {
+        final ByteBuffer buffer = connection.input();
+        final int count = connection.channel().read(buffer);
+        final long now = System.currentTimeMillis();
+        connection.read(now);
+
+        buffer.flip();
+        try {
+            for (
+                Optional<Frame> frame = FrameCodec.decode(buffer);
+                frame.isPresent();
+                frame = FrameCodec.decode(buffer)
+            ) {
+                switch (frame.get().type()) {
+                    case Hello:
+                        hello(connection, frame.get().payload());
+                        break;
+                    case Heartbeat:
+                        break;
+                    default:
+                        connection.session().ifPresent(session -> session.used(now));
+                        deliver(new Key(frame.get().swapId(), frame.get().type()), frame.get().payload());
+                        break;
+                }
+            }
+        } finally {
+            buffer.compact();
+        }
+
+        if (count < 0) {
+            drop(key, connection, new ClosedChannelException());
+        }
+    }
+
+    // Accepted connection becomes the session to its sender,
+    // unless that session already has a connection of its own.
+    private void hello(final Connection connection, final byte[] payload) throws IOException {
+        if (payload.length != 4) {
+            throw new ProtocolException("Bad hello");
+        }
+        if (connection.session().isPresent()) {
+            return;
+        }
+
+        final InetSocketAddress address = new InetSocketAddress(
+            ((InetSocketAddress)connection.channel().getRemoteAddress()).getAddress(),
+            ByteBuffer.wrap(payload).getInt()
+        );
+        final Session session = sessions().computeIfAbsent(address, Session::new);
+        if (session.connection().isPresent()) {
+            return;
+        }
+
+        connection.session(Optional.of(session));
+        session.connection(Optional.of(connection));
+        session.retry(0);
+        flush(session);
+    }
+
+    // Runs on the selector thread, subscribers only schedule their work.
+    private void deliver(final Key key, final byte[] payload) {
+        if (!slots().containsKey(key) && slots().size() >= MaxSlots) {
+            return;
+        }
+
+        final AsyncSubject<byte[]> subject = slot(key).subject();
+        subject.onNext(payload);
+        subject.onCompleted();
+    }
+
+    private Slot slot(final Key key) {
+        return slots().computeIfAbsent(key, ignored -> new Slot());
+    }
+
+    // Beats idle connections, drops silent ones and idle sessions,
+    // fails overdue messages and forgets messages nobody waits for.
+    private void sweep(final long now) {
+        for (final SelectionKey key : selector().keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof Connection)) {
+                continue;
+            }
+
+            final Connection connection = (Connection)key.attachment();
+            if (!connection.channel().isConnected()) {
+                if (now - connection.written() > SocketMillisecTimeout) {
+                    drop(key, connection, new ConnectException("Peer connection timed out"));
+                }
+            } else if (now - connection.read() > SocketMillisecTimeout) {
+                drop(key, connection, new ConnectException("Peer is silent"));
+            } else if (
+                connection.session().isPresent() &&
+                connection.session().get().connection().equals(Optional.of(connection)) &&
+                connection.output().isEmpty() &&
+                connection.session().get().pending().isEmpty() &&
+                now - connection.session().get().used() > SessionMillisecIdle
+            ) {
+                drop(key, connection, new ClosedChannelException());
+            } else if (
+                connection.output().isEmpty() &&
+                now - connection.written() >= HeartbeatMillisecInterval
+            ) {
+                connection.output().add(control(MessageType.Heartbeat, new byte[0]));
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        final Iterator<Session> sessions = sessions().values().iterator();
+        while (sessions.hasNext()) {
+            final Session session = sessions.next();
+            while (!session.pending().isEmpty() && session.pending().peek().deadline() < now) {
+                session.pending().poll().result().completeExceptionally(new ConnectException(
+                    "Peer " + session.address() + " timed out"
+                ));
+            }
+
+            if (session.pending().isEmpty()) {
+                session.retry(0);
+                if (!session.connection().isPresent()) {
+                    sessions.remove();
+                }
+            }
+        }
+
+        slots().entrySet().removeIf(entry -> {
+            return
+            now - entry.getValue().created() > SlotMillisecTimeout &&
+            !entry.getValue().subject().hasObservers();
+        });
+    }
+
+    // Messages not written completely go back to the session
+    // and are sent again once it reconnects, a new connection
+    // makes its own control frames.
+    private void drop(final SelectionKey key, final Connection connection, final IOException exception) {
+        close(key);
+
+        for (Outgoing outgoing = connection.output().pollLast(); outgoing != null; outgoing = connection.output().pollLast()) {
+            if (outgoing.isControl()) {
+                continue;
+            }
+
+            outgoing.frame().rewind();
+            if (connection.session().isPresent()) {
+                connection.session().get().pending().addFirst(outgoing);
+            } else {
+                outgoing.result().completeExceptionally(exception);
+            }
+        }
+
+        connection.session().ifPresent(session -> {
+            if (session.connection().equals(Optional.of(connection))) {
+                session.connection(Optional.empty());
+                if (!session.pending().isEmpty()) {
+                    session.retry(System.currentTimeMillis() + ConnectMillisecRetry);
+                }
+            }
+        });
+    }
+
+    private void shutdown() {
+        Hubs.remove(port(), this);
+
+        // Pending sends are queued first, so they fail below.
+        for (Runnable task = tasks().poll(); task != null; task = tasks().poll()) {
+            task.run();
+        }
+        for (final SelectionKey key : selector().keys()) {
+            if (key.attachment() instanceof Connection) {
+                fail(((Connection)key.attachment()).output(), new ClosedChannelException());
+            }
+            close(key);
+        }
+        for (final Session session : sessions().values()) {
+            fail(session.pending(), new ClosedChannelException());
+        }
+        sessions().clear();
+        slots().values().forEach(slot -> slot.subject().onError(new ClosedChannelException()));
+        slots().clear();
+
+        closeQuietly(selector());
+    }
+
+    private static Outgoing control(final MessageType type, final byte[] payload) {
+        return new Outgoing(
+            FrameCodec.encode(new Frame(type, Sha256Hash.ZERO_HASH, payload)),
+            new CompletableFuture<>(), Long.MAX_VALUE, true
+        );
+    }
+
+    private static void fail(final Queue<Outgoing> queue, final IOException exception) {
+        for (Outgoing outgoing = queue.poll(); outgoing != null; outgoing = queue.poll()) {
+            outgoing.result().completeExceptionally(exception);
+        }
+    }
+
+    private static void close(final SelectionKey key) {
+        key.cancel();
+        closeQuietly(key.channel());
+    }
+
+    private static void closeQuietly(final AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (final Exception exception) {
+            // Nothing to do with a channel which is already gone.
+        }
+    }
+
+    private int port() {
+        return port_;
+    }
+
+    private AtomicBoolean isClosed() {
+        return isClosed_;
+    }
+
+    private Queue<Runnable> tasks() {
+        return tasks_;
+    }
+
+    private Map<InetSocketAddress, Session> sessions() {
+        return sessions_;
+    }
+
+    private ConcurrentMap<Key, Slot> slots() {
+        return slots_;
+    }
+
+    private Selector selector() {
+        return selector_;
+    }
+
+    private ServerSocketChannel server() {
+        return server_;
+    }
+
+    private static final int MaxSlots = 64 * 1024;
+    // All swaps connect to one port, often at once.
+    private static final int Backlog = 1024;
+    private static final int SocketMillisecTimeout = 15 * 1000; // 15 seconds
+    private static final int HeartbeatMillisecInterval = 5 * 1000; // 5 seconds
+    private static final int SessionMillisecIdle = 10 * 60 * 1000; // 10 minutes
+    private static final int ConnectMillisecRetry = 100;
+    private static final int SelectMillisecTimeout = 100;
+    private static final int SweepMillisecInterval = 1000;
+    private static final int SlotMillisecTimeout = 24 * 60 * 60 * 1000; // 1 day
+
+    private static final ConcurrentMap<Integer, PeerHub> Hubs = new ConcurrentHashMap<>();
+
+    private final int port_;
+    private final AtomicBoolean isClosed_;
+    private final Queue<Runnable> tasks_;
+    // Touched on the selector thread only.
+    private final Map<InetSocketAddress, Session> sessions_;
+    private final ConcurrentMap<Key, Slot> slots_;
+    private final Selector selector_;
+    private final ServerSocketChannel server_;
+
+}
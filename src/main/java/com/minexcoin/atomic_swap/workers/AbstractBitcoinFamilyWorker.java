@@ -15,6 +15,8 @@
 
 package com.minexcoin.atomic_swap.workers;
 
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.concurrent.ExecutionException;
@@ -43,25 +45,27 @@ import org.bitcoinj.script.ScriptBuilder;
 import org.bitcoinj.script.ScriptChunk;
 import org.bitcoinj.script.ScriptOpCodes;
 
-import rx.Observable;
-import rx.Observer;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
 import rx.Subscription;
-import rx.observables.AsyncOnSubscribe;
 import rx.observables.ConnectableObservable;
-import rx.schedulers.Schedulers;
-
-import org.zeromq.ZMQ;
-import org.zeromq.ZMQException;
-import org.zeromq.ZMsg;
 
-import wf.bitcoin.javabitcoindrpcclient.BitcoinJSONRPCClient;
 import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient;
 import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.RawTransaction;
-import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.RawTransaction.In;
 import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.RawTransaction.Out;
 
 abstract class AbstractBitcoinFamilyWorker implements Worker {
 
+    protected AbstractBitcoinFamilyWorker() {
+        notificationMode_ = NotificationMode.Hash;
+        async_ = new AsyncBitcoinFamilyWorker(this);
+        htlcs_ = CacheBuilder.newBuilder().
+        maximumSize(MaxHtlcs).
+        build(CacheLoader.from(AbstractBitcoinFamilyWorker::createHtlc));
+    }
+
     @Override
     public TransactionOutPoint sendToAddress(
         final Address address, final Coin amount,
@@ -101,34 +105,13 @@ abstract class AbstractBitcoinFamilyWorker implements Worker {
         final int notificationPort,
         final long timeout, final TimeUnit timeUnit
     ) throws MalformedURLException {
-        if (confirmations < 0) {
-            throw new IllegalArgumentException(
-                "Confirmations is negative value " + confirmations
-            );
-        }
-
-        final BitcoindRpcClient rpc = getRpcClient(inetAddress, login, password);
-
         return new WorkerFutureTask<Unit>(
-            Observable.merge(
-                Observable.just(Unit.unit()).subscribeOn(Schedulers.io()),
-                observeBlocks(
-                    listeners, inetAddress, notificationPort, timeout, timeUnit
-                ).
-                map(value -> Unit.unit()).subscribeOn(Schedulers.io())
+            async().waitTxMature(
+                txHash, confirmations,
+                inetAddress, login, password,
+                notificationPort, timeout, timeUnit
             ).
-            takeFirst(unit -> {
-                try {
-                    final RawTransaction tx = rpc.getRawTransaction(txHash.toString());
-                    if (confirmations == 0) {
-                        return true;
-                    }
-
-                    return tx.confirmations() >= confirmations;
-                } catch (final Throwable exception) {
-                    return false;
-                }
-            }).publish()
+            publish()
         );
     }
 
@@ -141,11 +124,13 @@ abstract class AbstractBitcoinFamilyWorker implements Worker {
         final int notificationPort,
         final long timeout, final TimeUnit timeUnit
     )  throws MalformedURLException {
-        return waitPartnerTx(
-            observeTxs(
-                listeners, inetAddress, notificationPort, timeout, timeUnit
-            ),
-            address, amount, inetAddress, login, password
+        return new WorkerFutureTask<TransactionOutPoint>(
+            async().waitPartnerTx(
+                address, amount,
+                inetAddress, login, password,
+                notificationPort, timeout, timeUnit
+            ).
+            publish()
         );
     }
 
@@ -158,15 +143,13 @@ abstract class AbstractBitcoinFamilyWorker implements Worker {
         final int notificationPort,
         final long timeout, final TimeUnit timeUnit
     )  throws MalformedURLException {
-    	
-        return waitPartnerTx(
-            Observable.merge(
-                Observable.just(txHash).subscribeOn(Schedulers.io()),
-                observeTxs(
-                    listeners, inetAddress, notificationPort, timeout, timeUnit
-                ).subscribeOn(Schedulers.io())
-            ),
-            address, amount, inetAddress, login, password
+        return new WorkerFutureTask<TransactionOutPoint>(
+            async().waitPartnerTx(
+                txHash, address, amount,
+                inetAddress, login, password,
+                notificationPort, timeout, timeUnit
+            ).
+            publish()
         );
     }
 
@@ -174,26 +157,19 @@ abstract class AbstractBitcoinFamilyWorker implements Worker {
     public RunnableFuture<Optional<Sha256Hash>> waitTxSecret(
         final int listeners,
         final TransactionOutPoint txOutPoint,
+        final Sha256Hash secretHash,
         final InetSocketAddress inetAddress,
         final String login, final String password,
         final int notificationPort,
         final long timeout, final TimeUnit timeUnit
     ) throws MalformedURLException {
         return new WorkerFutureTask<Sha256Hash>(
-            observeTxs(
-                listeners, inetAddress, notificationPort, timeout, timeUnit
+            async().waitTxSecret(
+                txOutPoint, secretHash,
+                inetAddress, login, password,
+                notificationPort, timeout, timeUnit
             ).
-            map(txHash -> {
-                try {
-                    return extractSecret(
-                        txHash, txOutPoint, inetAddress, login, password
-                    );
-                } catch (final MalformedURLException exception) {
-                    throw new RuntimeException(exception);
-                }
-            }).
-            takeFirst(Optional::isPresent).
-            map(Optional::get).publish()
+            publish()
         );
     }
 
@@ -216,12 +192,13 @@ abstract class AbstractBitcoinFamilyWorker implements Worker {
             return OptionalInt.empty();
         }
 
+        final String base58 = address.toBase58();
         return IntStream.range(0, tx.vOut().size()).
         filter(index -> {
             final Out out = tx.vOut().get(index);
             return out.value() >= ((double)amount.value / 100000000) &&
             out.scriptPubKey().addresses().size() != 0 &&
-            out.scriptPubKey().addresses().get(0).equals(address.toBase58());
+            out.scriptPubKey().addresses().get(0).equals(base58);
         }).findFirst();
     }
 
@@ -229,63 +206,36 @@ abstract class AbstractBitcoinFamilyWorker implements Worker {
     public Optional<Sha256Hash> extractSecret(
         final Sha256Hash txHash,
         final TransactionOutPoint txOutPoint,
+        final Sha256Hash secretHash,
         final InetSocketAddress inetAddress,
         final String login, final String password
     ) throws MalformedURLException  {
-        final RawTransaction tx = getRawTx(txHash, inetAddress, login, password);
-
-        final OptionalInt position = IntStream.range(0, tx.vIn().size()).
-        filter(index -> {
-            final In in = tx.vIn().get(index);
-            try {
-            	return in.txid().equals(txOutPoint.getHash().toString()) &&
-                        in.vout() == txOutPoint.getIndex();
-            } catch (Throwable e) {
-            	return false;
-            }
-        }).findFirst();
+        final byte[] raw = Utils.HEX.decode(
+            getRpcClient(inetAddress, login, password).getRawTransactionHex(txHash.toString())
+        );
 
+        return RawTransactions.secret(raw, txOutPoint, secretHash);
+    }
 
-        if (!position.isPresent()) {
-            return Optional.empty();
-        }
+    @Override
+    public AsyncWorker async() {
+        return async_;
+    }
 
-        final ScriptChunk chunk = new Script(
-            Utils.HEX.decode(
-                (String)tx.vIn().get(position.getAsInt()).scriptSig().get("hex")
-            )
-        ).getChunks().get(2);
+    @Override
+    public NotificationMode notificationMode() {
+        return notificationMode_;
+    }
 
-        return chunk.opcode == 32 ?
-        Optional.of(Sha256Hash.wrap(chunk.data)) :
-        Optional.empty();
+    @Override
+    public void notificationMode(final NotificationMode mode) {
+        notificationMode_ = mode;
     }
 
 	@Override
     public Script createFundingScript(final ECKey keyForHash, final ECKey keyForCSV,
         final Sha256Hash secretHash, final int csv) {
-
-        return new ScriptBuilder().
-
-        op(OP_IF).
-            op(OP_SHA256).
-            data(secretHash.getBytes()).
-            op(OP_EQUALVERIFY).
-            op(OP_DUP).
-            op(OP_HASH160).
-            data(keyForHash.getPubKeyHash()).
-        op(OP_ELSE).
-            number(csv).
-            op(OP_NOP3). // OP_CHECKSEQUENCEVERIFY BIP68, BIP112, BIP113
-            op(OP_DROP).
-            op(OP_DUP).
-            op(OP_HASH160).
-            data(keyForCSV.getPubKeyHash()).
-        op(OP_ENDIF).
-        op(OP_EQUALVERIFY).
-        op(OP_CHECKSIG).
-
-        build();
+        return htlc(keyForHash, keyForCSV, secretHash, csv).script();
 	}
 
 	@Override
@@ -293,6 +243,12 @@ abstract class AbstractBitcoinFamilyWorker implements Worker {
         return ScriptBuilder.createP2SHOutputScript(script).getToAddress(params);
     }
 
+    @Override
+    public Address createP2SHAddress(final ECKey keyForHash, final ECKey keyForCSV,
+        final Sha256Hash secretHash, final int csv, final NetworkParameters params) {
+        return htlc(keyForHash, keyForCSV, secretHash, csv).address(params);
+    }
+
 	@Override
 	public Transaction createSpendingTx(
         final TransactionOutPoint txOutPoint,
@@ -300,6 +256,9 @@ abstract class AbstractBitcoinFamilyWorker implements Worker {
 	    final ECKey key, final Script script, final Sha256Hash secret) {
         final Transaction transaction = createTx(txOutPoint, recipient, amount, params);
 
+        // Signals BIP125, so a stuck claim can be replaced with a higher fee.
+        // Refunds signal already through their CSV sequence.
+        transaction.getInput(0).setSequenceNumber(ReplaceableSequence);
         transaction.getInput(0).setScriptSig(
             new ScriptBuilder().
             data(
@@ -343,50 +302,36 @@ abstract class AbstractBitcoinFamilyWorker implements Worker {
 
 
 
-    private static Observable<Sha256Hash> observeBlocks(
-        final int listeners,
-        final InetSocketAddress inetAddress,
-        final int notificationPort,
-        final long timeout, final TimeUnit timeUnit
-    ) {
-        return observe(
-            "hashblock", listeners, inetAddress, notificationPort, timeout, timeUnit
-        );
+    private Htlc htlc(final ECKey keyForHash, final ECKey keyForCSV,
+        final Sha256Hash secretHash, final int csv) {
+        return htlcs().getUnchecked(new HtlcKey(
+            keyForHash.getPubKeyHash(), keyForCSV.getPubKeyHash(), secretHash, csv
+        ));
     }
 
-    private static Observable<Sha256Hash> observeTxs(
-        final int listeners,
-        final InetSocketAddress inetAddress,
-        final int notificationPort,
-        final long timeout, final TimeUnit timeUnit
-    ) {
-        return observe(
-            "hashtx", listeners, inetAddress, notificationPort, timeout, timeUnit
-        );
-    }
+    private static Htlc createHtlc(final HtlcKey key) {
+        return new Htlc(
+            new ScriptBuilder().
 
-    private RunnableFuture<Optional<TransactionOutPoint>> waitPartnerTx(
-        final Observable<Sha256Hash> txs,
-        final Address address, final Coin amount,
-        final InetSocketAddress inetAddress,
-        final String login, final String password
-    ) {
-        return new WorkerFutureTask<TransactionOutPoint>(
-            txs.map(txHash -> {
-                try {
-                    return new TransactionOutPoint(
-                        address.getParameters(),
-                        auditTx(
-                            txHash, address, amount, 0, inetAddress, login, password
-                        ).orElse(-1),
-                        txHash
-                    );
-                } catch (final Throwable exception) {
-                    throw new RuntimeException(exception);
-                }
-            }).
-            takeFirst(txOutPoint -> txOutPoint.getIndex() != -1).
-            publish()
+            op(OP_IF).
+                op(OP_SHA256).
+                data(key.secretHash().getBytes()).
+                op(OP_EQUALVERIFY).
+                op(OP_DUP).
+                op(OP_HASH160).
+                data(key.hashKeyHash()).
+            op(OP_ELSE).
+                number(key.csv()).
+                op(OP_NOP3). // OP_CHECKSEQUENCEVERIFY BIP68, BIP112, BIP113
+                op(OP_DROP).
+                op(OP_DUP).
+                op(OP_HASH160).
+                data(key.csvKeyHash()).
+            op(OP_ENDIF).
+            op(OP_EQUALVERIFY).
+            op(OP_CHECKSIG).
+
+            build()
         );
     }
 
@@ -394,10 +339,7 @@ abstract class AbstractBitcoinFamilyWorker implements Worker {
         final InetSocketAddress inetAddress,
         final String login, final String password
     ) throws MalformedURLException {
-        return new BitcoinJSONRPCClient(
-            "http://" + login + ":" + password + "@" +
-            inetAddress.getHostName() + ":" + inetAddress.getPort()
-        );
+        return RpcClientRegistry.instance().client(inetAddress, login, password);
     }
 
     private static RawTransaction getRawTx(
@@ -426,127 +368,93 @@ abstract class AbstractBitcoinFamilyWorker implements Worker {
         return transaction;
     }
 
-    private static Observable<Sha256Hash> observe(
-        final String type,
-        final int listeners,
-        final InetSocketAddress inetAddress,
-        final int notificationPort,
-        final long timeout, final TimeUnit timeUnit
-    ) {
-        return Observable.create(new AsyncOnSubscribe<Void, Sha256Hash>() {
+    private static final class HtlcKey {
 
-            {
-                if (timeout < 0) {
-                    throw new IllegalArgumentException("Negative timeout: " + timeout);
-                }
+        public HtlcKey(
+            final byte[] hashKeyHash, final byte[] csvKeyHash,
+            final Sha256Hash secretHash, final int csv
+        ) {
+            hashKeyHash_ = hashKeyHash;
+            csvKeyHash_ = csvKeyHash;
+            secretHash_ = secretHash;
+            csv_ = csv;
+        }
 
-                this.context_ = ZMQ.context(listeners);
-                try {
-                    this.socket_ = this.context_.socket(ZMQ.SUB);
-                    try {
-                        this.socket_.connect(
-                            "tcp://" + inetAddress.getHostName() + ":" + notificationPort
-                        );
-                        this.socket_.subscribe(type.getBytes());
-                    } catch (final Throwable exception) {
-                        this.socket_.close();
-                        throw exception;
-                    }
-                } catch (final Throwable exception) {
-                    this.context_.close();
-                    throw exception;
-                }
+        @Override
+        public boolean equals(final Object object) {
+            if (this == object) {
+                return true;
             }
-
-            @Override
-            protected Void generateState() {
-                currentTime(System.currentTimeMillis());
-                endTime(currentTime() + timeUnit.toMillis(timeout));
-                return null;
+            if (!(object instanceof HtlcKey)) {
+                return false;
             }
 
-            @Override
-            protected Void next(
-                final Void state, final long requested,
-                final Observer<Observable<? extends Sha256Hash>> observer
-            ) {
-                try {
-                    socket().setReceiveTimeOut(timeout == 0 ? -1 : (int)expiredTime());
-                    final ZMsg msg = ZMsg.recvMsg(socket());
-                    currentTime(System.currentTimeMillis());
-
-                    if (Thread.currentThread().isInterrupted()) {
-                        observer.onError(new InterruptedException());
-                    } else if (msg == null) {
-                        observer.onCompleted();
-                    } else {
-                        msg.pollFirst().getData();
-                        observer.onNext(
-                            Observable.just(
-                                Sha256Hash.wrap(msg.pollFirst().getData())
-                            )
-                        );
-
-                        if (timeout != 0 && expiredTime() < 0) {
-                            observer.onCompleted();
-                        }
-                    }
-                } catch (final Throwable exception) {
-                    if (Thread.currentThread().isInterrupted()) {
-                        observer.onError(new InterruptedException());
-                    } else if (
-                        exception instanceof ZMQException &&
-                        ((ZMQException) exception).getErrorCode() == ZMQ.Error.ETERM.getCode()
-                    ) {
-                        observer.onCompleted();
-                    } else {
-                        observer.onError(exception);
-                    }
-                }
+            final HtlcKey other = (HtlcKey)object;
+            return csv() == other.csv() &&
+            secretHash().equals(other.secretHash()) &&
+            Arrays.equals(hashKeyHash(), other.hashKeyHash()) &&
+            Arrays.equals(csvKeyHash(), other.csvKeyHash());
+        }
 
-                return null;
-            }
+        @Override
+        public int hashCode() {
+            return Objects.hash(
+                Arrays.hashCode(hashKeyHash()), Arrays.hashCode(csvKeyHash()),
+                secretHash(), csv()
+            );
+        }
 
-            @Override
-            protected void onUnsubscribe(final Void state) {
-                socket().close();
-                context().close();
-            }
+        public byte[] hashKeyHash() {
+            return hashKeyHash_;
+        }
 
-            private ZMQ.Context context() {
-                return context_;
-            }
+        public byte[] csvKeyHash() {
+            return csvKeyHash_;
+        }
 
-            private ZMQ.Socket socket() {
-                return socket_;
-            }
+        public Sha256Hash secretHash() {
+            return secretHash_;
+        }
 
-            private long currentTime() {
-                return currentTime_;
-            }
+        public int csv() {
+            return csv_;
+        }
 
-            private void currentTime(final long time) {
-                currentTime_ = time;
-            }
+        private final byte[] hashKeyHash_;
+        private final byte[] csvKeyHash_;
+        private final Sha256Hash secretHash_;
+        private final int csv_;
 
-            private long endTime() {
-                return endTime_;
-            }
+    }
 
-            private void endTime(final long time) {
-                endTime_ = time;
-            }
+    // Script with its hash160 taken once, the address is kept for
+    // the last network asked, a swap only ever asks for one.
+    private static final class Htlc {
+
+        public Htlc(final Script script) {
+            script_ = script;
+            hash160_ = Utils.sha256hash160(script.getProgram());
+        }
 
-            private long expiredTime() {
-                return endTime() - currentTime();
+        public Script script() {
+            return script_;
+        }
+
+        public Address address(final NetworkParameters params) {
+            final Address address = address_;
+            if (address != null && address.getParameters().equals(params)) {
+                return address;
             }
 
-            private final ZMQ.Context context_;
-            private final ZMQ.Socket socket_;
-            long currentTime_;
-            long endTime_;
+            final Address created = Address.fromP2SHHash(params, hash160_);
+            address_ = created;
+            return created;
+        }
+
+        private final Script script_;
+        private final byte[] hash160_;
+        private volatile Address address_;
 
-        });
     }
 
     private static class WorkerFutureTask<T> implements RunnableFuture<Optional<T>> {
@@ -648,4 +556,17 @@ abstract class AbstractBitcoinFamilyWorker implements Worker {
 
     }
 
+    private LoadingCache<HtlcKey, Htlc> htlcs() {
+        return htlcs_;
+    }
+
+    static final long ReplaceableSequence = 0xfffffffdL;
+
+    // Four per swap, a script and address in each direction on each chain.
+    private static final long MaxHtlcs = 16 * 1024;
+
+    private volatile NotificationMode notificationMode_;
+    private final AsyncWorker async_;
+    private final LoadingCache<HtlcKey, Htlc> htlcs_;
+
 }
\ No newline at end of file
@@ -0,0 +1,401 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+
+import rx.Observable;
+
+import com.minexcoin.atomic_swap.workers.Worker.Unit;
+
+final class AsyncBitcoinFamilyWorker implements AsyncWorker {
+
+    public AsyncBitcoinFamilyWorker(final Worker worker) {
+        worker_ = worker;
+    }
+
+    @Override
+    public CompletableFuture<TransactionOutPoint> sendToAddress(
+        final Address address, final Coin amount,
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    ) {
+        return FundingAggregator.of(inetAddress, login, password).submit(address, amount);
+    }
+
+    @Override
+    public CompletableFuture<Unit> sendTx(
+        final Transaction transaction,
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    ) {
+        return query(
+            inetAddress, login, password,
+            "sendrawtransaction", Utils.HEX.encode(transaction.unsafeBitcoinSerialize())
+        ).
+        thenApply(txId -> Unit.unit());
+    }
+
+    @Override
+    public CompletableFuture<Sha256Hash> sweepTx(
+        final Transaction transaction, final ECKey key,
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    ) {
+        return TxSweeper.of(inetAddress, login, password).submit(transaction, key);
+    }
+
+    // A close transaction the node doesn't know is most likely mined
+    // already, it is left alone and the wait goes on.
+    @Override
+    public CompletableFuture<Sha256Hash> bumpTx(
+        final Sha256Hash txHash, final TransactionOutPoint txOutPoint,
+        final Transaction replacement,
+        final ECKey recipient, final Coin childFee,
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    ) {
+        return query(
+            inetAddress, login, password,
+            "getrawtransaction", txHash.toString()
+        ).
+        thenApply(hex -> Optional.of(
+            RawTransactions.parse(txOutPoint.getParams(), Utils.HEX.decode((String)hex))
+        )).
+        exceptionally(exception -> Optional.empty()).
+        thenCompose(parent -> {
+            if (!parent.isPresent()) {
+                return CompletableFuture.completedFuture(txHash);
+            }
+
+            final boolean isOwn =
+                parent.get().getInputs().size() == 1 &&
+                parent.get().getInput(0).getOutpoint().equals(txOutPoint);
+
+            final Transaction bump = isOwn ?
+            replacement :
+            createChildTx(parent.get(), recipient, childFee);
+
+            return sendTx(bump, inetAddress, login, password).
+            thenApply(unit -> isOwn ? replacement.getHash() : txHash);
+        });
+    }
+
+    @Override
+    public Optional<Coin> feePerKb(
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    ) {
+        return FeeEstimator.of(inetAddress, login, password).feePerKb();
+    }
+
+    @Override
+    public Observable<Unit> waitTxMature(
+        final Sha256Hash txHash, final int confirmations,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort,
+        final long timeout, final TimeUnit timeUnit
+    ) {
+        if (confirmations < 0) {
+            throw new IllegalArgumentException(
+                "Confirmations is negative value " + confirmations
+            );
+        }
+
+        return withTimeout(
+            ConfirmationTracker.of(
+                worker().notificationMode(), inetAddress, login, password, notificationPort
+            ).watch(txHash, confirmations),
+            timeout, timeUnit
+        ).
+        take(1);
+    }
+
+    @Override
+    public Observable<Sha256Hash> waitSpendMature(
+        final TransactionOutPoint txOutPoint, final List<Sha256Hash> txHashes,
+        final int confirmations,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort,
+        final long timeout, final TimeUnit timeUnit
+    ) {
+        if (confirmations < 0) {
+            throw new IllegalArgumentException(
+                "Confirmations is negative value " + confirmations
+            );
+        }
+
+        final ConfirmationTracker tracker = ConfirmationTracker.of(
+            worker().notificationMode(), inetAddress, login, password, notificationPort
+        );
+
+        return withTimeout(
+            Observable.merge(
+                Observable.from(txHashes),
+                TxWatchRegistry.of(
+                    worker().notificationMode(), txOutPoint.getParams(),
+                    inetAddress, login, password, notificationPort
+                ).watchOutPoint(txOutPoint).
+                map(input -> input.getParentTransaction().getHash())
+            ).
+            distinct().
+            flatMap(txHash -> tracker.watch(txHash, confirmations).map(unit -> txHash)),
+            timeout, timeUnit
+        ).
+        take(1);
+    }
+
+    @Override
+    public Observable<TransactionOutPoint> waitPartnerTx(
+        final Address address, final Coin amount,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort,
+        final long timeout, final TimeUnit timeUnit
+    ) {
+        return waitPartnerTx(
+            Observable.empty(),
+            address, amount,
+            inetAddress, login, password,
+            notificationPort, timeout, timeUnit
+        );
+    }
+
+    @Override
+    public Observable<TransactionOutPoint> waitPartnerTx(
+        final Sha256Hash txHash,
+        final Address address, final Coin amount,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort,
+        final long timeout, final TimeUnit timeUnit
+    ) {
+        return waitPartnerTx(
+            Observable.just(txHash),
+            address, amount,
+            inetAddress, login, password,
+            notificationPort, timeout, timeUnit
+        );
+    }
+
+    @Override
+    public Observable<Sha256Hash> waitTxSecret(
+        final TransactionOutPoint txOutPoint,
+        final Sha256Hash secretHash,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort,
+        final long timeout, final TimeUnit timeUnit
+    ) {
+        return withTimeout(
+            TxWatchRegistry.of(
+                worker().notificationMode(), txOutPoint.getParams(),
+                inetAddress, login, password, notificationPort
+            ).watchOutPoint(txOutPoint),
+            timeout, timeUnit
+        ).
+        map(input -> RawTransactions.secret(input, secretHash)).
+        takeFirst(Optional::isPresent).
+        map(Optional::get);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public CompletableFuture<OptionalInt> auditTx(
+        final Sha256Hash txHash, final Address address,
+        final Coin amount, final int confirmations,
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    ) {
+        return query(
+            inetAddress, login, password,
+            "getrawtransaction", txHash.toString(), 1
+        ).
+        thenApply(result -> audit((Map<String, Object>)result, address, amount, confirmations)).
+        exceptionally(exception -> OptionalInt.empty());
+    }
+
+    @Override
+    public CompletableFuture<Optional<Sha256Hash>> extractSecret(
+        final Sha256Hash txHash,
+        final TransactionOutPoint txOutPoint,
+        final Sha256Hash secretHash,
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    ) {
+        return query(
+            inetAddress, login, password,
+            "getrawtransaction", txHash.toString()
+        ).
+        thenApply(hex -> RawTransactions.secret(
+            Utils.HEX.decode((String)hex), txOutPoint, secretHash
+        ));
+    }
+
+
+
+    // Index of the output paying at least amount to address in
+    // a verbose getrawtransaction result, if mined deep enough.
+    @SuppressWarnings("unchecked")
+    static OptionalInt audit(
+        final Map<String, Object> tx,
+        final Address address, final Coin amount, final int confirmations
+    ) {
+        final Object mined = tx.get("confirmations");
+        if (confirmations > 0 &&
+            (mined == null || ((Number)mined).intValue() < confirmations)) {
+            return OptionalInt.empty();
+        }
+
+        final List<Map<String, Object>> outs = (List<Map<String, Object>>)tx.get("vout");
+        final String base58 = address.toBase58();
+        return IntStream.range(0, outs.size()).
+        filter(index -> {
+            final Map<String, Object> out = outs.get(index);
+            final List<Object> addresses = (List<Object>)(
+                (Map<String, Object>)out.get("scriptPubKey")
+            ).get("addresses");
+
+            return ((Number)out.get("value")).doubleValue() >=
+            ((double)amount.value / 100000000) &&
+            addresses != null && addresses.size() != 0 &&
+            addresses.get(0).equals(base58);
+        }).findFirst();
+    }
+
+    private Observable<TransactionOutPoint> waitPartnerTx(
+        final Observable<Sha256Hash> knownTxs,
+        final Address address, final Coin amount,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort,
+        final long timeout, final TimeUnit timeUnit
+    ) {
+        final Observable<TransactionOutPoint> audited = knownTxs.
+        concatMap(txHash -> AsyncWorker.observe(() -> auditTx(
+            txHash, address, amount, 0, inetAddress, login, password
+        )).
+        map(index -> new TransactionOutPoint(
+            address.getParameters(), index.orElse(-1), txHash
+        )));
+
+        final Observable<TransactionOutPoint> notified = withTimeout(
+            TxWatchRegistry.of(
+                worker().notificationMode(), address.getParameters(),
+                inetAddress, login, password, notificationPort
+            ).watchScriptHash(address.getHash160(), amount),
+            timeout, timeUnit
+        );
+
+        return Observable.merge(audited, notified).
+        takeFirst(txOutPoint -> txOutPoint.getIndex() != -1);
+    }
+
+    // Child of parent moving recipient's output back to recipient. It is
+    // replaceable itself, so a later bump can pay more.
+    private static Transaction createChildTx(
+        final Transaction parent, final ECKey recipient, final Coin fee
+    ) {
+        final Script script = ScriptBuilder.createOutputScript(
+            new Address(parent.getParams(), recipient.getPubKeyHash())
+        );
+        final TransactionOutput output = parent.getOutputs().stream().
+        filter(candidate -> Arrays.equals(candidate.getScriptBytes(), script.getProgram())).
+        findFirst().
+        orElseThrow(() -> new IllegalStateException(
+            "Transaction " + parent.getHash() + " pays nothing to " + recipient.getPublicKeyAsHex()
+        ));
+
+        final Coin amount = output.getValue().minus(fee);
+        if (amount.isLessThan(Transaction.MIN_NONDUST_OUTPUT)) {
+            throw new IllegalStateException(
+                "Output " + output.getOutPointFor() + " can't pay fee " + fee.toFriendlyString()
+            );
+        }
+
+        final Transaction child = new Transaction(parent.getParams());
+        child.setVersion(2);
+        child.addOutput(amount, script);
+
+        final TransactionInput input = child.addInput(output);
+        input.setSequenceNumber(AbstractBitcoinFamilyWorker.ReplaceableSequence);
+        input.setScriptSig(ScriptBuilder.createInputScript(
+            child.calculateSignature(0, recipient, script, Transaction.SigHash.ALL, false),
+            recipient
+        ));
+
+        return child;
+    }
+
+    private static CompletableFuture<Object> query(
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final String method, final Object... params
+    ) {
+        try {
+            return RpcClientRegistry.instance().
+            client(inetAddress, login, password).
+            queryAsync(method, params);
+        } catch (final MalformedURLException exception) {
+            final CompletableFuture<Object> result = new CompletableFuture<>();
+            result.completeExceptionally(exception);
+            return result;
+        }
+    }
+
+    private static <T> Observable<T> withTimeout(
+        final Observable<T> source,
+        final long timeout, final TimeUnit timeUnit
+    ) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Negative timeout: " + timeout);
+        }
+
+        return timeout == 0 ?
+        source :
+        source.takeUntil(Observable.timer(timeout, timeUnit));
+    }
+
+    private Worker worker() {
+        return worker_;
+    }
+
+    private final Worker worker_;
+
+}
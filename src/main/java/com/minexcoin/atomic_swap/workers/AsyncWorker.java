@@ -0,0 +1,162 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.net.InetSocketAddress;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutPoint;
+
+import rx.Emitter;
+import rx.Observable;
+
+import com.minexcoin.atomic_swap.workers.Worker.Unit;
+
+// Non-blocking counterpart of Worker. Futures complete on RPC dispatcher
+// threads, waits are cold observables that emit once and complete empty
+// when timeout (0 means no timeout) expires.
+public interface AsyncWorker {
+
+    CompletableFuture<TransactionOutPoint> sendToAddress(
+        final Address address, final Coin amount,
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    );
+
+    CompletableFuture<Unit> sendTx(
+        final Transaction transaction,
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    );
+
+    // Broadcasts a signed one-input close transaction, possibly merged
+    // with other closes on the node, completes with the hash actually sent.
+    CompletableFuture<Sha256Hash> sweepTx(
+        final Transaction transaction, final ECKey key,
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    );
+
+    // Gets an unconfirmed close transaction mined sooner. One spending
+    // only txOutPoint is replaced by replacement (RBF), a merged one gets
+    // a child moving recipient's output and paying childFee (CPFP).
+    // Completes with the hash to wait for.
+    CompletableFuture<Sha256Hash> bumpTx(
+        final Sha256Hash txHash, final TransactionOutPoint txOutPoint,
+        final Transaction replacement,
+        final ECKey recipient, final Coin childFee,
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    );
+
+    // Node's fee estimate per 1000 bytes from a cache refreshed in the
+    // background, empty until the node has answered. Never waits.
+    Optional<Coin> feePerKb(
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    );
+
+    Observable<Unit> waitTxMature(
+        final Sha256Hash txHash, final int confirmations,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort,
+        final long timeout, final TimeUnit timeUnit
+    );
+
+    // Any version of a replaced close transaction may be mined, so this
+    // waits for whichever transaction spending txOutPoint gets the
+    // confirmations first. Known versions are tracked by hash, other
+    // spenders are picked up as the node relays them.
+    Observable<Sha256Hash> waitSpendMature(
+        final TransactionOutPoint txOutPoint, final List<Sha256Hash> txHashes,
+        final int confirmations,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort,
+        final long timeout, final TimeUnit timeUnit
+    );
+
+    Observable<TransactionOutPoint> waitPartnerTx(
+        final Address address, final Coin amount,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort,
+        final long timeout, final TimeUnit timeUnit
+    );
+
+    Observable<TransactionOutPoint> waitPartnerTx(
+        final Sha256Hash txHash,
+        final Address address, final Coin amount,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort,
+        final long timeout, final TimeUnit timeUnit
+    );
+
+    Observable<Sha256Hash> waitTxSecret(
+        final TransactionOutPoint txOutPoint,
+        final Sha256Hash secretHash,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort,
+        final long timeout, final TimeUnit timeUnit
+    );
+
+    CompletableFuture<OptionalInt> auditTx(
+        final Sha256Hash txHash, final Address address,
+        final Coin amount, final int confirmations,
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    );
+
+    CompletableFuture<Optional<Sha256Hash>> extractSecret(
+        final Sha256Hash txHash,
+        final TransactionOutPoint txOutPoint,
+        final Sha256Hash secretHash,
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    );
+
+    static <T> Observable<T> observe(final Supplier<? extends CompletionStage<T>> call) {
+        return Observable.defer(() -> Observable.<T>create(
+            emitter -> call.get().whenComplete((value, exception) -> {
+                if (exception instanceof CompletionException && exception.getCause() != null) {
+                    emitter.onError(exception.getCause());
+                } else if (exception != null) {
+                    emitter.onError(exception);
+                } else {
+                    emitter.onNext(value);
+                    emitter.onCompleted();
+                }
+            }),
+            Emitter.BackpressureMode.BUFFER
+        ));
+    }
+
+}
@@ -0,0 +1,139 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Function;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.script.Script;
+
+// Signs inputs of many transactions on a fork-join pool. ECDSA and the
+// signature hash, which reads the whole transaction, are most of the
+// cost of a close, and a block revealing many secrets closes many at once.
+final class BatchSigner implements AutoCloseable {
+
+    public static BatchSigner instance() {
+        return Instance;
+    }
+
+    public BatchSigner(final int parallelism) {
+        pool_ = new ForkJoinPool(
+            parallelism,
+            pool -> {
+                final ForkJoinWorkerThread thread =
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("BatchSigner-" + thread.getPoolIndex());
+                return thread;
+            },
+            null, false
+        );
+    }
+
+    public static final class Input {
+
+        // scriptSig makes the input script around the signature
+        // of input index of transaction for redeemScript.
+        public Input(
+            final Transaction transaction, final int index,
+            final ECKey key, final Script redeemScript,
+            final Function<TransactionSignature, Script> scriptSig
+        ) {
+            transaction_ = transaction;
+            index_ = index;
+            key_ = key;
+            redeemScript_ = redeemScript;
+            scriptSig_ = scriptSig;
+        }
+
+        public Transaction transaction() {
+            return transaction_;
+        }
+
+
+
+        private TransactionSignature signature() {
+            return transaction().calculateSignature(
+                index_, key_, redeemScript_, Transaction.SigHash.ALL, false
+            );
+        }
+
+        private void apply(final TransactionSignature signature) {
+            transaction().getInput(index_).setScriptSig(scriptSig_.apply(signature));
+        }
+
+        private final Transaction transaction_;
+        private final int index_;
+        private final ECKey key_;
+        private final Script redeemScript_;
+        private final Function<TransactionSignature, Script> scriptSig_;
+
+    }
+
+    // Scripts are set only once every signature is made, no transaction
+    // changes while it is being read. Returns the signed transactions in
+    // the order of their first input.
+    public List<Transaction> sign(final List<Input> inputs) {
+        final List<TransactionSignature> signatures = new ArrayList<>(inputs.size());
+        if (inputs.size() == 1) {
+            signatures.add(inputs.get(0).signature());
+        } else {
+            final List<ForkJoinTask<TransactionSignature>> tasks = new ArrayList<>(inputs.size());
+            inputs.forEach(input -> tasks.add(pool().submit(input::signature)));
+            tasks.forEach(task -> signatures.add(task.join()));
+        }
+
+        final Set<Transaction> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        final List<Transaction> transactions = new ArrayList<>();
+        for (int index = 0; index < inputs.size(); ++index) {
+            final Input input = inputs.get(index);
+            input.apply(signatures.get(index));
+            if (seen.add(input.transaction())) {
+                transactions.add(input.transaction());
+            }
+        }
+
+        return transactions;
+    }
+
+    @Override
+    public void close() {
+        pool().shutdown();
+    }
+
+
+
+    private ForkJoinPool pool() {
+        return pool_;
+    }
+
+    private static final BatchSigner Instance = new BatchSigner(
+        Runtime.getRuntime().availableProcessors()
+    );
+
+    private final ForkJoinPool pool_;
+
+}
@@ -0,0 +1,443 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bitcoinj.core.Sha256Hash;
+
+import com.minexcoin.atomic_swap.workers.Worker.NotificationMode;
+import com.minexcoin.atomic_swap.workers.Worker.Unit;
+
+import rx.Emitter;
+import rx.Observable;
+import rx.Observer;
+import rx.Subscription;
+import rx.functions.Actions;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Block;
+
+final class ConfirmationTracker {
+
+    public static ConfirmationTracker of(
+        final NotificationMode mode,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort
+    ) {
+        return Trackers.computeIfAbsent(
+            mode + "|" +
+            inetAddress.getHostName() + ":" + inetAddress.getPort() + "|" +
+            login + "|" + password + "|" + notificationPort,
+            key -> new ConfirmationTracker(
+                mode, inetAddress, login, password, notificationPort
+            )
+        );
+    }
+
+    public Observable<Unit> watch(final Sha256Hash txHash, final int confirmations) {
+        if (confirmations < 0) {
+            throw new IllegalArgumentException(
+                "Confirmations is negative value " + confirmations
+            );
+        }
+
+        return Observable.create(emitter -> {
+            final Watch watch = new Watch(confirmations, emitter);
+
+            synchronized (this) {
+                txs().computeIfAbsent(txHash, ignored -> new Tracked()).watches().add(watch);
+                if (watches_++ == 0) {
+                    upstream_ = blocks().subscribe(this::onBlock, this::fail);
+                }
+            }
+
+            emitter.setCancellation(() -> {
+                synchronized (this) {
+                    final Tracked tracked = txs().get(txHash);
+                    if (tracked != null) {
+                        tracked.watches().remove(watch);
+                        if (tracked.watches().isEmpty()) {
+                            txs().remove(txHash);
+                        }
+                    }
+
+                    if (--watches_ == 0 && upstream_ != null) {
+                        upstream_.unsubscribe();
+                        upstream_ = null;
+                    }
+                }
+            });
+
+            seed(txHash);
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+
+
+    private static final class Watch {
+
+        public Watch(final int confirmations, final Observer<? super Unit> observer) {
+            confirmations_ = confirmations;
+            observer_ = observer;
+        }
+
+        public int confirmations() {
+            return confirmations_;
+        }
+
+        public Observer<? super Unit> observer() {
+            return observer_;
+        }
+
+        private final int confirmations_;
+        private final Observer<? super Unit> observer_;
+
+    }
+
+    private static final class Tracked {
+
+        public Tracked() {
+            isKnown_ = false;
+            isSeeding_ = false;
+            isOutdated_ = false;
+            height_ = 0;
+            watches_ = new ArrayList<>();
+        }
+
+        public boolean isKnown() {
+            return isKnown_;
+        }
+
+        public boolean isSeeding() {
+            return isSeeding_;
+        }
+
+        public void seeding(final boolean isSeeding) {
+            isSeeding_ = isSeeding;
+        }
+
+        // Asked again while a lookup was on the way, its answer may
+        // predate the block that asked.
+        public boolean isOutdated() {
+            return isOutdated_;
+        }
+
+        public void outdated(final boolean isOutdated) {
+            isOutdated_ = isOutdated;
+        }
+
+        public int height() {
+            return height_;
+        }
+
+        public void mined(final boolean isKnown, final int height) {
+            isKnown_ = isKnown;
+            height_ = height;
+        }
+
+        public List<Watch> watches() {
+            return watches_;
+        }
+
+        private boolean isKnown_;
+        private boolean isSeeding_;
+        private boolean isOutdated_;
+        private int height_; // 0 is in mempool
+        private final List<Watch> watches_;
+
+    }
+
+    private ConfirmationTracker(
+        final NotificationMode mode,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort
+    ) {
+        mode_ = mode;
+        inetAddress_ = inetAddress;
+        login_ = login;
+        password_ = password;
+        notificationPort_ = notificationPort;
+        txs_ = new HashMap<>();
+        tipHeight_ = 0;
+        watches_ = 0;
+        upstream_ = null;
+    }
+
+    // Nothing to catch up on overflow: the next block after dropped ones
+    // is a height gap, and a gap re-seeds every transaction not yet mined.
+    private Observable<Sha256Hash> blocks() {
+        return mode() == NotificationMode.Raw ?
+        NotificationHub.observe("rawblock", inetAddress(), notificationPort(), Actions.empty()).
+        map(body -> Sha256Hash.wrapReversed(Sha256Hash.hashTwice(body, 0, 80))) :
+        NotificationHub.observe("hashblock", inetAddress(), notificationPort(), Actions.empty()).
+        map(Sha256Hash::wrap);
+    }
+
+    // Runs on whatever thread subscribes, so it never waits for the node:
+    // blocking there could hold the very HTTP thread the answer needs.
+    // One lookup per transaction at a time, when the node answers slower
+    // than blocks arrive retries would only pile up.
+    @SuppressWarnings("unchecked")
+    private void seed(final Sha256Hash txHash) {
+        synchronized (this) {
+            final Tracked tracked = txs().get(txHash);
+            if (tracked == null) {
+                return;
+            }
+
+            if (tracked.isSeeding()) {
+                tracked.outdated(true);
+                return;
+            }
+
+            tracked.seeding(true);
+        }
+
+        final PooledJSONRPCClient rpc;
+        try {
+            rpc = rpc();
+        } catch (final Throwable exception) {
+            unseeded(txHash);
+            return;
+        }
+
+        // Unknown yet transactions are retried on the next block
+        rpc.queryAsync("getrawtransaction", txHash.toString(), 1).
+        thenAccept(result -> {
+            // Mempool transactions have no confirmations field
+            final Object mined = ((Map<String, Object>)result).get("confirmations");
+            final int confirmations = (mined == null) ? 0 : ((Number)mined).intValue();
+
+            if (confirmations > 0) {
+                rpc.queryAsync("getblockcount").
+                whenComplete((count, exception) -> {
+                    if (exception != null) {
+                        unseeded(txHash);
+                    } else {
+                        seeded(txHash, confirmations, ((Number)count).intValue());
+                    }
+                });
+            } else {
+                seeded(txHash, 0, 0);
+            }
+        }).
+        exceptionally(exception -> {
+            unseeded(txHash);
+            return null;
+        });
+    }
+
+    private synchronized void unseeded(final Sha256Hash txHash) {
+        final Tracked tracked = txs().get(txHash);
+        if (tracked != null) {
+            tracked.seeding(false);
+            tracked.outdated(false);
+        }
+    }
+
+    private void seeded(final Sha256Hash txHash, final int confirmations, final int tipHeight) {
+        final boolean isOutdated;
+        final List<Observer<? super Unit>> fired = new ArrayList<>();
+        synchronized (this) {
+            final Tracked tracked = txs().get(txHash);
+            if (tracked == null) {
+                return;
+            }
+
+            tracked.seeding(false);
+            isOutdated = tracked.isOutdated();
+            tracked.outdated(false);
+
+            if (!isOutdated) {
+                if (confirmations > 0) {
+                    tipHeight(Math.max(tipHeight(), tipHeight));
+                    tracked.mined(true, tipHeight - confirmations + 1);
+                } else if (!tracked.isKnown()) {
+                    // A block may have mined it while the answer was on the way
+                    tracked.mined(true, 0);
+                }
+
+                fired.addAll(collectFired(txHash, tracked));
+            }
+        }
+
+        if (isOutdated) {
+            seed(txHash);
+        } else {
+            complete(fired);
+        }
+    }
+
+    private void onBlock(final Sha256Hash blockHash) {
+        final Block block;
+        try {
+            block = rpc().getBlock(blockHash.toString());
+        } catch (final Throwable exception) {
+            missed();
+            return;
+        }
+
+        final Set<Sha256Hash> blockTxs = new HashSet<>();
+        block.tx().forEach(txId -> blockTxs.add(Sha256Hash.wrap(txId)));
+
+        final List<Sha256Hash> unknown = new ArrayList<>();
+        final List<Observer<? super Unit>> fired = new ArrayList<>();
+
+        synchronized (this) {
+            final boolean isReorg = block.height() <= tipHeight();
+            final boolean isGap = tipHeight() != 0 && block.height() > tipHeight() + 1;
+            tipHeight(block.height());
+
+            for (final Sha256Hash txHash : blockTxs) {
+                final Tracked tracked = txs().get(txHash);
+                if (tracked != null) {
+                    tracked.mined(true, block.height());
+                }
+            }
+
+            for (final Map.Entry<Sha256Hash, Tracked> entry : txs().entrySet()) {
+                final Tracked tracked = entry.getValue();
+                if (
+                    !tracked.isKnown() ||
+                    (isReorg && tracked.height() >= block.height() && !blockTxs.contains(entry.getKey())) ||
+                    (isGap && tracked.height() == 0)
+                ) {
+                    tracked.mined(false, 0);
+                    unknown.add(entry.getKey());
+                } else {
+                    fired.addAll(collectFired(entry.getKey(), tracked));
+                }
+            }
+        }
+
+        complete(fired);
+        unknown.forEach(this::seed);
+    }
+
+    // A block that couldn't be read may have mined any transaction
+    // still thought in mempool, they are looked up again like on a gap.
+    private void missed() {
+        final List<Sha256Hash> unknown = new ArrayList<>();
+        synchronized (this) {
+            for (final Map.Entry<Sha256Hash, Tracked> entry : txs().entrySet()) {
+                if (entry.getValue().height() == 0) {
+                    entry.getValue().mined(false, 0);
+                    unknown.add(entry.getKey());
+                }
+            }
+        }
+
+        unknown.forEach(this::seed);
+    }
+
+    private List<Observer<? super Unit>> collectFired(
+        final Sha256Hash txHash, final Tracked tracked
+    ) {
+        final int confirmations = tracked.height() == 0 ?
+        0 :
+        tipHeight() - tracked.height() + 1;
+
+        final List<Observer<? super Unit>> fired = new ArrayList<>();
+        tracked.watches().removeIf(watch -> {
+            if (watch.confirmations() > confirmations) {
+                return false;
+            }
+
+            fired.add(watch.observer());
+            return true;
+        });
+
+        return fired;
+    }
+
+    private static void complete(final List<Observer<? super Unit>> observers) {
+        observers.forEach(observer -> {
+            observer.onNext(Unit.unit());
+            observer.onCompleted();
+        });
+    }
+
+    private void fail(final Throwable exception) {
+        final List<Observer<? super Unit>> failed = new ArrayList<>();
+        synchronized (this) {
+            txs().values().forEach(
+                tracked -> tracked.watches().forEach(watch -> failed.add(watch.observer()))
+            );
+            upstream_ = null;
+        }
+
+        failed.forEach(observer -> observer.onError(exception));
+    }
+
+    private PooledJSONRPCClient rpc() throws Exception {
+        return RpcClientRegistry.instance().client(inetAddress(), login(), password());
+    }
+
+    private NotificationMode mode() {
+        return mode_;
+    }
+
+    private InetSocketAddress inetAddress() {
+        return inetAddress_;
+    }
+
+    private String login() {
+        return login_;
+    }
+
+    private String password() {
+        return password_;
+    }
+
+    private int notificationPort() {
+        return notificationPort_;
+    }
+
+    private Map<Sha256Hash, Tracked> txs() {
+        return txs_;
+    }
+
+    private int tipHeight() {
+        return tipHeight_;
+    }
+
+    private void tipHeight(final int height) {
+        tipHeight_ = height;
+    }
+
+    private static final ConcurrentMap<String, ConfirmationTracker> Trackers = new ConcurrentHashMap<>();
+
+    private final NotificationMode mode_;
+    private final InetSocketAddress inetAddress_;
+    private final String login_;
+    private final String password_;
+    private final int notificationPort_;
+    private final Map<Sha256Hash, Tracked> txs_;
+    private int tipHeight_;
+    private int watches_;
+    private Subscription upstream_;
+
+}
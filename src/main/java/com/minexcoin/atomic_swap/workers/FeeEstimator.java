@@ -0,0 +1,167 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bitcoinj.core.Coin;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+// Keeps the node's estimatesmartfee answer fresh in the background,
+// so reading it never waits on the node. Refreshing stops while unused.
+final class FeeEstimator {
+
+    public static FeeEstimator of(
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    ) {
+        return Estimators.computeIfAbsent(
+            inetAddress.getHostName() + ":" + inetAddress.getPort() + "|" +
+            login + "|" + password,
+            key -> new FeeEstimator(inetAddress, login, password)
+        );
+    }
+
+    // Empty until the node has answered, or once its last answer is
+    // older than the TTL.
+    public Optional<Coin> feePerKb() {
+        final long now = System.currentTimeMillis();
+        lastUsed_ = now;
+        if (isRefreshing().compareAndSet(false, true)) {
+            Timer.execute(this::refresh);
+        }
+
+        final Estimate estimate = estimate_;
+        return (estimate != null && now - estimate.time() < EstimateMillisecTtl) ?
+        Optional.of(estimate.feePerKb()) :
+        Optional.empty();
+    }
+
+
+
+    private static final class Estimate {
+
+        public Estimate(final Coin feePerKb, final long time) {
+            feePerKb_ = feePerKb;
+            time_ = time;
+        }
+
+        public Coin feePerKb() {
+            return feePerKb_;
+        }
+
+        public long time() {
+            return time_;
+        }
+
+        private final Coin feePerKb_;
+        private final long time_;
+
+    }
+
+    private FeeEstimator(
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    ) {
+        inetAddress_ = inetAddress;
+        login_ = login;
+        password_ = password;
+        isRefreshing_ = new AtomicBoolean(false);
+    }
+
+    private void refresh() {
+        if (System.currentTimeMillis() - lastUsed_ > IdleMillisecTimeout) {
+            isRefreshing().set(false);
+            return;
+        }
+
+        query("estimatesmartfee", ConfirmationTarget).
+        whenComplete((result, exception) -> {
+            // Nodes without enough data answer with errors and no feerate,
+            // the previous estimate then simply ages out.
+            if (exception == null && result instanceof Map) {
+                final Object feeRate = ((Map<?, ?>)result).get("feerate");
+                if (feeRate instanceof Number && ((Number)feeRate).doubleValue() > 0) {
+                    estimate_ = new Estimate(
+                        Coin.valueOf(Math.round(((Number)feeRate).doubleValue() * 100000000)),
+                        System.currentTimeMillis()
+                    );
+                }
+            }
+
+            Timer.schedule(this::refresh, RefreshMillisecPeriod, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private CompletableFuture<Object> query(final String method, final Object... params) {
+        try {
+            return RpcClientRegistry.instance().
+            client(inetAddress(), login(), password()).
+            queryAsync(method, params);
+        } catch (final MalformedURLException exception) {
+            final CompletableFuture<Object> result = new CompletableFuture<>();
+            result.completeExceptionally(exception);
+            return result;
+        }
+    }
+
+    private InetSocketAddress inetAddress() {
+        return inetAddress_;
+    }
+
+    private String login() {
+        return login_;
+    }
+
+    private String password() {
+        return password_;
+    }
+
+    private AtomicBoolean isRefreshing() {
+        return isRefreshing_;
+    }
+
+    // Claims race the partner's CSV refund, so aim at the next blocks.
+    private static final int ConfirmationTarget = 2;
+    private static final long RefreshMillisecPeriod = 30 * 1000; // 30 seconds
+    private static final long EstimateMillisecTtl = 5 * 60 * 1000; // 5 minutes
+    private static final long IdleMillisecTimeout = 10 * 60 * 1000; // 10 minutes
+    private static final ConcurrentMap<String, FeeEstimator> Estimators = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService Timer =
+    Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("FeeEstimator Timer").setDaemon(true).build()
+    );
+
+    private final InetSocketAddress inetAddress_;
+    private final String login_;
+    private final String password_;
+    private final AtomicBoolean isRefreshing_;
+    private volatile Estimate estimate_;
+    private volatile long lastUsed_;
+
+}
@@ -0,0 +1,273 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.OptionalInt;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoinRPCException;
+
+// Funding requests arriving within a short window are paid by one
+// sendmany transaction, each swap getting its own output of it.
+final class FundingAggregator {
+
+    public static FundingAggregator of(
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    ) {
+        return Aggregators.computeIfAbsent(
+            inetAddress.getHostName() + ":" + inetAddress.getPort() + "|" +
+            login + "|" + password,
+            key -> new FundingAggregator(inetAddress, login, password)
+        );
+    }
+
+    public CompletableFuture<TransactionOutPoint> submit(
+        final Address address, final Coin amount
+    ) {
+        final Request request = new Request(address, amount);
+        requests().add(request);
+
+        if (requests().size() >= MaxOutputs) {
+            Flushers.execute(this::flush);
+        } else if (isScheduled().compareAndSet(false, true)) {
+            Timer.schedule(
+                () -> Flushers.execute(this::flush),
+                MillisecWindow, TimeUnit.MILLISECONDS
+            );
+        }
+
+        return request.result();
+    }
+
+
+
+    private static final class Request {
+
+        public Request(final Address address, final Coin amount) {
+            address_ = address;
+            amount_ = amount;
+            result_ = new CompletableFuture<>();
+        }
+
+        public Address address() {
+            return address_;
+        }
+
+        public Coin amount() {
+            return amount_;
+        }
+
+        public CompletableFuture<TransactionOutPoint> result() {
+            return result_;
+        }
+
+        private final Address address_;
+        private final Coin amount_;
+        private final CompletableFuture<TransactionOutPoint> result_;
+
+    }
+
+    private FundingAggregator(
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    ) {
+        inetAddress_ = inetAddress;
+        login_ = login;
+        password_ = password;
+        requests_ = new ConcurrentLinkedQueue<>();
+        isScheduled_ = new AtomicBoolean(false);
+    }
+
+    // A sendmany pays every address once, so a repeated address
+    // waits for the next transaction.
+    private void flush() {
+        isScheduled().set(false);
+
+        final List<Request> pending = new ArrayList<>();
+        for (Request request = requests().poll(); request != null; request = requests().poll()) {
+            pending.add(request);
+        }
+
+        while (!pending.isEmpty()) {
+            final Map<String, Request> batch = new LinkedHashMap<>();
+            for (
+                final Iterator<Request> iterator = pending.iterator();
+                iterator.hasNext() && batch.size() < MaxOutputs;
+            ) {
+                final Request request = iterator.next();
+                if (batch.putIfAbsent(request.address().toBase58(), request) == null) {
+                    iterator.remove();
+                }
+            }
+
+            send(new ArrayList<>(batch.values()));
+        }
+    }
+
+    private void send(final List<Request> batch) {
+        if (batch.size() == 1) {
+            sendOne(batch.get(0));
+            return;
+        }
+
+        final Map<String, Object> amounts = new LinkedHashMap<>();
+        batch.forEach(request -> amounts.put(
+            request.address().toBase58(), coins(request.amount())
+        ));
+
+        query("sendmany", "", amounts).
+        whenComplete((txId, exception) -> {
+            if (exception == null) {
+                settle(batch, Sha256Hash.wrap((String)txId));
+            } else if (isRejected(exception)) {
+                // Nothing was paid, one bad output must not fail the others.
+                batch.forEach(this::sendOne);
+            } else {
+                // The node may have paid anyway, retrying could fund twice.
+                batch.forEach(request -> request.result().completeExceptionally(exception));
+            }
+        });
+    }
+
+    private void sendOne(final Request request) {
+        query("sendtoaddress", request.address().toBase58(), coins(request.amount())).
+        whenComplete((txId, exception) -> {
+            if (exception == null) {
+                settle(Collections.singletonList(request), Sha256Hash.wrap((String)txId));
+            } else {
+                request.result().completeExceptionally(exception);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void settle(final List<Request> batch, final Sha256Hash txHash) {
+        query("getrawtransaction", txHash.toString(), 1).
+        whenComplete((tx, exception) -> batch.forEach(request -> {
+            if (exception != null) {
+                request.result().completeExceptionally(exception);
+                return;
+            }
+
+            final OptionalInt index = AsyncBitcoinFamilyWorker.audit(
+                (Map<String, Object>)tx, request.address(), request.amount(), 0
+            );
+            if (index.isPresent()) {
+                request.result().complete(new TransactionOutPoint(
+                    request.address().getParameters(), index.getAsInt(), txHash
+                ));
+            } else {
+                request.result().completeExceptionally(new NoSuchElementException(
+                    "No output to " + request.address() + " in " + txHash
+                ));
+            }
+        }));
+    }
+
+    private CompletableFuture<Object> query(final String method, final Object... params) {
+        try {
+            return RpcClientRegistry.instance().
+            client(inetAddress(), login(), password()).
+            queryAsync(method, params);
+        } catch (final MalformedURLException exception) {
+            final CompletableFuture<Object> result = new CompletableFuture<>();
+            result.completeExceptionally(exception);
+            return result;
+        }
+    }
+
+    // A node answering with an RPC error has not broadcast anything,
+    // a transport failure leaves that unknown.
+    private static boolean isRejected(final Throwable exception) {
+        final Throwable cause = (exception instanceof CompletionException) ?
+        exception.getCause() :
+        exception;
+
+        return cause instanceof BitcoinRPCException &&
+        ((BitcoinRPCException)cause).getResponseCode() != 0;
+    }
+
+    private static double coins(final Coin amount) {
+        return (double)amount.value / 100000000;
+    }
+
+    private InetSocketAddress inetAddress() {
+        return inetAddress_;
+    }
+
+    private String login() {
+        return login_;
+    }
+
+    private String password() {
+        return password_;
+    }
+
+    private Queue<Request> requests() {
+        return requests_;
+    }
+
+    private AtomicBoolean isScheduled() {
+        return isScheduled_;
+    }
+
+    private static final int MaxOutputs = 100;
+    private static final long MillisecWindow = 100;
+    private static final ConcurrentMap<String, FundingAggregator> Aggregators =
+    new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService Timer =
+    Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("FundingAggregator Timer").setDaemon(true).build()
+    );
+    private static final ExecutorService Flushers = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("FundingAggregator-%d").setDaemon(true).build()
+    );
+
+    private final InetSocketAddress inetAddress_;
+    private final String login_;
+    private final String password_;
+    private final Queue<Request> requests_;
+    private final AtomicBoolean isScheduled_;
+
+}
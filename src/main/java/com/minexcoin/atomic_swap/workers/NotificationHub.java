@@ -0,0 +1,239 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.net.InetSocketAddress;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.minexcoin.metrics.Histogram;
+
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQException;
+import org.zeromq.ZMsg;
+
+import rx.BackpressureOverflow;
+import rx.Emitter;
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
+
+final class NotificationHub {
+
+    // A subscriber falling behind by more than BufferCapacity loses the
+    // oldest notifications, onOverflow is then called so it can catch up
+    // from the node.
+    public static Observable<byte[]> observe(
+        final String topic,
+        final InetSocketAddress inetAddress, final int notificationPort,
+        final Action0 onOverflow
+    ) {
+        final String key = inetAddress.getHostName() + ":" + notificationPort;
+
+        return Observable.<byte[]>create(emitter -> {
+            final NotificationHub hub = acquire(key);
+            hub.subscribe(topic);
+
+            final Subscription subscription = hub.subject().
+            filter(notification -> notification.topic().equals(topic)).
+            map(Notification::body).
+            subscribe(emitter::onNext, emitter::onError, emitter::onCompleted);
+
+            emitter.setCancellation(() -> {
+                subscription.unsubscribe();
+                release(key, hub);
+            });
+        }, Emitter.BackpressureMode.NONE).
+        onBackpressureBuffer(BufferCapacity, onOverflow, BackpressureOverflow.ON_OVERFLOW_DROP_OLDEST).
+        observeOn(Schedulers.io());
+    }
+
+
+
+    private static final class Notification {
+
+        public Notification(final String topic, final byte[] body) {
+            topic_ = topic;
+            body_ = body;
+        }
+
+        public String topic() {
+            return topic_;
+        }
+
+        public byte[] body() {
+            return body_;
+        }
+
+        private final String topic_;
+        private final byte[] body_;
+
+    }
+
+    private NotificationHub(final String endpoint) {
+        endpoint_ = endpoint;
+        references_ = 1;
+        isClosed_ = new AtomicBoolean(false);
+        topics_ = ConcurrentHashMap.newKeySet();
+        pendingTopics_ = new ConcurrentLinkedQueue<>();
+        subject_ = PublishSubject.<Notification>create().toSerialized();
+        latencies_ = WorkerMetrics.instance().notificationLatency(endpoint);
+
+        final Thread thread = new Thread(this::listen, "NotificationHub " + endpoint);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static NotificationHub acquire(final String key) {
+        return Hubs.compute(key, (endpoint, hub) -> {
+            if (hub == null || hub.isClosed().get()) {
+                return new NotificationHub(endpoint);
+            }
+
+            hub.references(hub.references() + 1);
+            return hub;
+        });
+    }
+
+    private static void release(final String key, final NotificationHub hub) {
+        Hubs.computeIfPresent(key, (endpoint, current) -> {
+            if (current != hub) {
+                return current;
+            }
+
+            current.references(current.references() - 1);
+            if (current.references() > 0) {
+                return current;
+            }
+
+            current.close();
+            return null;
+        });
+    }
+
+    private void subscribe(final String topic) {
+        if (topics().add(topic)) {
+            pendingTopics().add(topic);
+        }
+    }
+
+    private void close() {
+        isClosed().set(true);
+    }
+
+    private void listen() {
+        final ZMQ.Context context = ZMQ.context(1);
+        try {
+            final ZMQ.Socket socket = context.socket(ZMQ.SUB);
+            try {
+                socket.setReceiveTimeOut(PollMillisecTimeout);
+                socket.connect("tcp://" + endpoint());
+
+                while (!isClosed().get()) {
+                    for (String topic = pendingTopics().poll(); topic != null; topic = pendingTopics().poll()) {
+                        socket.subscribe(topic.getBytes());
+                    }
+
+                    final ZMsg msg = ZMsg.recvMsg(socket);
+                    if (msg == null) {
+                        continue;
+                    }
+
+                    final ZFrame topic = msg.pollFirst();
+                    final ZFrame body = msg.pollFirst();
+                    if (topic != null && body != null) {
+                        // Time to hand the message to every watcher,
+                        // grows when subscribers push back.
+                        final long started = System.nanoTime();
+                        final String name = new String(topic.getData());
+                        subject().onNext(new Notification(name, body.getData()));
+                        WorkerMetrics.histogram(latencies(), name).record(System.nanoTime() - started);
+                    }
+                }
+
+                subject().onCompleted();
+            } finally {
+                socket.close();
+            }
+        } catch (final Throwable exception) {
+            close();
+            if (
+                exception instanceof ZMQException &&
+                ((ZMQException) exception).getErrorCode() == ZMQ.Error.ETERM.getCode()
+            ) {
+                subject().onCompleted();
+            } else {
+                subject().onError(exception);
+            }
+        } finally {
+            context.close();
+        }
+    }
+
+    private String endpoint() {
+        return endpoint_;
+    }
+
+    private int references() {
+        return references_;
+    }
+
+    private void references(final int references) {
+        references_ = references;
+    }
+
+    private AtomicBoolean isClosed() {
+        return isClosed_;
+    }
+
+    private Set<String> topics() {
+        return topics_;
+    }
+
+    private Queue<String> pendingTopics() {
+        return pendingTopics_;
+    }
+
+    private Subject<Notification, Notification> subject() {
+        return subject_;
+    }
+
+    private ConcurrentMap<String, Histogram> latencies() {
+        return latencies_;
+    }
+
+    private static final int PollMillisecTimeout = 100;
+    private static final long BufferCapacity = 16 * 1024;
+
+    private static final ConcurrentMap<String, NotificationHub> Hubs = new ConcurrentHashMap<>();
+
+    private final String endpoint_;
+    private int references_;
+    private final AtomicBoolean isClosed_;
+    private final Set<String> topics_;
+    private final Queue<String> pendingTopics_;
+    private final Subject<Notification, Notification> subject_;
+    private final ConcurrentMap<String, Histogram> latencies_;
+
+}
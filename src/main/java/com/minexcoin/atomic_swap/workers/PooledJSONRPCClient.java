@@ -0,0 +1,285 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.minexcoin.metrics.Histogram;
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoinJSONRPCClient;
+import wf.bitcoin.javabitcoindrpcclient.BitcoinRPCException;
+import wf.bitcoin.javabitcoindrpcclient.BitcoinRpcException;
+
+final class PooledJSONRPCClient extends BitcoinJSONRPCClient {
+
+    public PooledJSONRPCClient(
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int maxConnections,
+        final long keepAliveTime, final TimeUnit keepAliveUnit
+    ) throws MalformedURLException {
+        super(new URL(
+            "http://" + login + ":" + password + "@" +
+            inetAddress.getHostName() + ":" + inetAddress.getPort()
+        ));
+
+        password_ = password;
+        url_ = "http://" + inetAddress.getHostName() + ":" + inetAddress.getPort() + "/";
+        authorization_ = "Basic " + BaseEncoding.base64().encode(
+            (login + ":" + password).getBytes(QUERY_CHARSET)
+        );
+        permits_ = new Semaphore(maxConnections, true);
+        batcher_ = new RpcBatcher(this, BatchMaxSize, BatchMillisecWindow);
+
+        final String node = inetAddress.getHostName() + ":" + inetAddress.getPort();
+        latencies_ = WorkerMetrics.instance().rpcLatency(node);
+        errors_ = WorkerMetrics.instance().rpcErrors(node);
+
+        http_ = new OkHttpClient();
+        http_.setConnectionPool(
+            new ConnectionPool(maxConnections, keepAliveTime, keepAliveUnit)
+        );
+        http_.setConnectTimeout(ConnectMillisecTimeout, TimeUnit.MILLISECONDS);
+        http_.setReadTimeout(ReadMillisecTimeout, TimeUnit.MILLISECONDS);
+        http_.setWriteTimeout(ReadMillisecTimeout, TimeUnit.MILLISECONDS);
+        http_.setFollowRedirects(false);
+
+        final Dispatcher dispatcher = new Dispatcher(Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("JSON-RPC-%d").setDaemon(true).build()
+        ));
+        dispatcher.setMaxRequestsPerHost(maxConnections);
+        http_.setDispatcher(dispatcher);
+    }
+
+    @Override
+    public Object query(final String method, final Object... params) throws BitcoinRpcException {
+        if (BatchedMethods.contains(method)) {
+            return batcher().query(method, params);
+        }
+
+        try {
+            return loadResponse(
+                new ByteArrayInputStream(
+                    exchange(prepareRequest(method, params), method, Arrays.deepToString(params))
+                ),
+                "1", true
+            );
+        } catch (final IOException exception) {
+            throw new BitcoinRPCException(method, Arrays.deepToString(params), exception);
+        }
+    }
+
+    public CompletableFuture<Object> queryAsync(final String method, final Object... params) {
+        if (BatchedMethods.contains(method)) {
+            return batcher().submit(method, params);
+        }
+
+        final String arguments = Arrays.deepToString(params);
+        return exchangeAsync(prepareRequest(method, params), method, arguments).
+        thenApply(body -> {
+            try {
+                return loadResponse(new ByteArrayInputStream(body), "1", true);
+            } catch (final IOException exception) {
+                throw new BitcoinRPCException(method, arguments, exception);
+            }
+        });
+    }
+
+    public byte[] exchange(
+        final byte[] body, final String method, final String params
+    ) throws IOException {
+        try {
+            permits().acquire();
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new BitcoinRPCException(method, params, exception);
+        }
+
+        final long started = System.nanoTime();
+        boolean isFailed = true;
+        try {
+            final Response response = http().newCall(request(body)).execute();
+
+            if (response.code() != 200) {
+                throw new BitcoinRPCException(
+                    method, params,
+                    response.code(), response.message(), response.body().string()
+                );
+            }
+
+            final byte[] bytes = response.body().bytes();
+            isFailed = false;
+            return bytes;
+        } finally {
+            record(method, started, isFailed);
+            permits().release();
+        }
+    }
+
+    // Queued on the OkHttp dispatcher, which caps in-flight calls per node
+    // instead of the permits used by the blocking path.
+    public CompletableFuture<byte[]> exchangeAsync(
+        final byte[] body, final String method, final String params
+    ) {
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        final long started = System.nanoTime();
+
+        final Callback callback = new Callback() {
+            @Override
+            public void onFailure(final Request request, final IOException exception) {
+                record(method, started, true);
+                result.completeExceptionally(new BitcoinRPCException(method, params, exception));
+            }
+
+            @Override
+            public void onResponse(final Response response) throws IOException {
+                try {
+                    if (response.code() != 200) {
+                        record(method, started, true);
+                        result.completeExceptionally(new BitcoinRPCException(
+                            method, params,
+                            response.code(), response.message(), response.body().string()
+                        ));
+                    } else {
+                        final byte[] bytes = response.body().bytes();
+                        record(method, started, false);
+                        result.complete(bytes);
+                    }
+                } catch (final IOException exception) {
+                    record(method, started, true);
+                    result.completeExceptionally(new BitcoinRPCException(method, params, exception));
+                }
+            }
+        };
+
+        try {
+            http().newCall(request(body)).enqueue(callback);
+        } catch (final RejectedExecutionException exception) {
+            record(method, started, true);
+            result.completeExceptionally(new BitcoinRPCException(method, params, exception));
+        }
+
+        return result;
+    }
+
+    public String password() {
+        return password_;
+    }
+
+    // Calls already queued still complete, later async ones fail.
+    // Lifting the limits hands every queued call to the executor
+    // before it stops taking new ones.
+    public void close() {
+        batcher().close();
+
+        final Dispatcher dispatcher = http().getDispatcher();
+        dispatcher.setMaxRequests(Integer.MAX_VALUE);
+        dispatcher.setMaxRequestsPerHost(Integer.MAX_VALUE);
+        dispatcher.getExecutorService().shutdown();
+
+        http().getConnectionPool().evictAll();
+    }
+
+
+
+    private Request request(final byte[] body) {
+        return new Request.Builder().
+        url(url()).
+        header("Authorization", authorization()).
+        post(RequestBody.create(JsonType, body)).
+        build();
+    }
+
+    // Failed calls are timed too, a slow timeout is still latency.
+    private void record(final String method, final long started, final boolean isFailed) {
+        WorkerMetrics.histogram(latencies(), method).record(System.nanoTime() - started);
+        if (isFailed) {
+            WorkerMetrics.counter(errors(), method).increment();
+        }
+    }
+
+    private OkHttpClient http() {
+        return http_;
+    }
+
+    private String url() {
+        return url_;
+    }
+
+    private String authorization() {
+        return authorization_;
+    }
+
+    private Semaphore permits() {
+        return permits_;
+    }
+
+    private RpcBatcher batcher() {
+        return batcher_;
+    }
+
+    private ConcurrentMap<String, Histogram> latencies() {
+        return latencies_;
+    }
+
+    private ConcurrentMap<String, LongAdder> errors() {
+        return errors_;
+    }
+
+    private static final MediaType JsonType = MediaType.parse("application/json");
+    private static final int ConnectMillisecTimeout = 15 * 1000; // 15 seconds
+    private static final int ReadMillisecTimeout = 60 * 1000; // 1 minute
+    private static final int BatchMaxSize = 64;
+    private static final long BatchMillisecWindow = 5;
+    private static final Set<String> BatchedMethods = Collections.unmodifiableSet(
+        new HashSet<>(Arrays.asList("getrawtransaction"))
+    );
+
+    private final String password_;
+    private final String url_;
+    private final String authorization_;
+    private final Semaphore permits_;
+    private final RpcBatcher batcher_;
+    private final ConcurrentMap<String, Histogram> latencies_;
+    private final ConcurrentMap<String, LongAdder> errors_;
+    private final OkHttpClient http_;
+
+}
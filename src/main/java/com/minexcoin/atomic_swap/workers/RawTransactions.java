@@ -0,0 +1,348 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.workers;
+
+import static org.bitcoinj.script.ScriptOpCodes.OP_PUSHDATA1;
+import static org.bitcoinj.script.ScriptOpCodes.OP_PUSHDATA2;
+import static org.bitcoinj.script.ScriptOpCodes.OP_PUSHDATA4;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.Utils;
+
+final class RawTransactions {
+
+    public static Transaction parse(final NetworkParameters params, final byte[] raw) {
+        return new Transaction(params, stripWitness(raw));
+    }
+
+    // Transactions of a raw block, the header skipped. A malformed
+    // transaction ends the list instead of failing the whole block.
+    public static List<Transaction> blockTransactions(
+        final NetworkParameters params, final byte[] raw
+    ) {
+        final List<Transaction> transactions = new ArrayList<>();
+        final long count = varInt(raw, BlockHeaderSize);
+        int cursor = BlockHeaderSize + varIntSize(raw, BlockHeaderSize);
+        for (long index = 0; index < count; ++index) {
+            final int length = txLength(raw, cursor);
+            if (length < 0) {
+                break;
+            }
+
+            transactions.add(parse(params, Arrays.copyOfRange(raw, cursor, cursor + length)));
+            cursor += length;
+        }
+
+        return transactions;
+    }
+
+    // Length of the transaction serialized at raw[offset], witness
+    // included, -1 if it's truncated or malformed.
+    static int txLength(final byte[] raw, final int offset) {
+        if (offset < 0 || raw.length - offset < 5) {
+            return -1;
+        }
+
+        final boolean isWitness =
+            raw.length - offset > 5 && raw[offset + 4] == 0 && raw[offset + 5] != 0;
+        long cursor = offset + (isWitness ? 6 : 4);
+
+        final long inputs = varInt(raw, (int)cursor);
+        cursor += varIntSize(raw, (int)cursor);
+        for (long index = 0; index < inputs; ++index) {
+            cursor = skipPush(raw, cursor + 36);
+            if (cursor < 0) {
+                return -1;
+            }
+            cursor += 4;
+        }
+
+        cursor = skipCount(raw, cursor, 8);
+        if (inputs < 0 || cursor < 0) {
+            return -1;
+        }
+
+        for (long index = 0; isWitness && index < inputs; ++index) {
+            cursor = skipCount(raw, cursor, 0);
+            if (cursor < 0) {
+                return -1;
+            }
+        }
+
+        cursor += 4;
+        return cursor > raw.length ? -1 : (int)(cursor - offset);
+    }
+
+    // Secret revealed by the input: the 32 bytes push of its scriptSig
+    // hashing to secretHash, wherever it sits among the pushes.
+    public static Optional<Sha256Hash> secret(
+        final TransactionInput input, final Sha256Hash secretHash
+    ) {
+        final byte[] script = input.getScriptBytes();
+        return secret(script, 0, script.length, secretHash);
+    }
+
+    public static Optional<Sha256Hash> secret(
+        final byte[] script, final int offset, final int length,
+        final Sha256Hash secretHash
+    ) {
+        final int position = secretOffset(script, offset, length, secretHash.getBytes());
+        return position < 0 ?
+        Optional.empty() :
+        Optional.of(Sha256Hash.wrap(
+            Arrays.copyOfRange(script, position, position + Sha256Hash.LENGTH)
+        ));
+    }
+
+    // Secret revealed by the input of raw transaction spending txOutPoint.
+    // Inputs are walked in place, witness or not, nothing is parsed.
+    public static Optional<Sha256Hash> secret(
+        final byte[] raw, final TransactionOutPoint txOutPoint,
+        final Sha256Hash secretHash
+    ) {
+        if (raw.length < 5) {
+            return Optional.empty();
+        }
+
+        int cursor = raw.length > 5 && raw[4] == 0 && raw[5] != 0 ? 6 : 4;
+
+        final long inputs = varInt(raw, cursor);
+        cursor += varIntSize(raw, cursor);
+        for (long index = 0; index < inputs; ++index) {
+            if (raw.length - cursor < 37) {
+                return Optional.empty();
+            }
+
+            final boolean isSpending = isOutPoint(raw, cursor, txOutPoint);
+            cursor += 36;
+
+            final long length = varInt(raw, cursor);
+            cursor += varIntSize(raw, cursor);
+            if (length < 0 || length > raw.length - cursor) {
+                return Optional.empty();
+            }
+
+            if (isSpending) {
+                return secret(raw, cursor, (int)length, secretHash);
+            }
+
+            cursor += (int)length + 4;
+        }
+
+        return Optional.empty();
+    }
+
+    // Offset of the 32 bytes push in script[offset, offset + length)
+    // hashing to secretHash, -1 if none. Truncated pushes and other
+    // opcodes don't throw, the script just doesn't match.
+    static int secretOffset(
+        final byte[] script, final int offset, final int length,
+        final byte[] secretHash
+    ) {
+        final int end = offset + length;
+        int cursor = offset;
+        while (cursor < end) {
+            final int opcode = script[cursor++] & 0xff;
+
+            final long size;
+            if (opcode < OP_PUSHDATA1) {
+                size = opcode;
+            } else if (opcode == OP_PUSHDATA1 && end - cursor >= 1) {
+                size = script[cursor] & 0xff;
+                cursor += 1;
+            } else if (opcode == OP_PUSHDATA2 && end - cursor >= 2) {
+                size = (script[cursor] & 0xff) | (script[cursor + 1] & 0xff) << 8;
+                cursor += 2;
+            } else if (opcode == OP_PUSHDATA4 && end - cursor >= 4) {
+                size = Utils.readUint32(script, cursor);
+                cursor += 4;
+            } else if (opcode <= OP_PUSHDATA4) {
+                return -1;
+            } else {
+                continue;
+            }
+
+            if (size > end - cursor) {
+                return -1;
+            }
+
+            if (size == Sha256Hash.LENGTH && isPreimage(script, cursor, secretHash)) {
+                return cursor;
+            }
+
+            cursor += (int)size;
+        }
+
+        return -1;
+    }
+
+    // bitcoinj 0.14 doesn't understand BIP144 serialization, so the
+    // witness marker, flag and witness stacks are cut out before parsing.
+    // Transaction id is computed over the stripped form anyway. Truncated
+    // or malformed input is rejected the way bitcoinj rejects it.
+    public static byte[] stripWitness(final byte[] raw) {
+        if (raw.length < 6 || raw[4] != 0 || raw[5] == 0) {
+            return raw;
+        }
+
+        final long inputs = varInt(raw, 6);
+        long cursor = 6 + varIntSize(raw, 6);
+        for (long index = 0; index < inputs; ++index) {
+            cursor = skipPush(raw, cursor + 36);
+            if (cursor < 0) {
+                throw new ProtocolException("Truncated input");
+            }
+            cursor += 4;
+        }
+
+        cursor = skipCount(raw, cursor, 8);
+        if (inputs < 0 || cursor < 0) {
+            throw new ProtocolException("Truncated outputs");
+        }
+
+        final int bodyEnd = (int)cursor;
+
+        for (long index = 0; index < inputs; ++index) {
+            cursor = skipCount(raw, cursor, 0);
+            if (cursor < 0) {
+                throw new ProtocolException("Truncated witness");
+            }
+        }
+
+        if (raw.length - cursor < 4) {
+            throw new ProtocolException("Truncated lock time");
+        }
+
+        final byte[] stripped = new byte[4 + (bodyEnd - 6) + 4];
+        System.arraycopy(raw, 0, stripped, 0, 4);
+        System.arraycopy(raw, 6, stripped, 4, bodyEnd - 6);
+        System.arraycopy(raw, (int)cursor, stripped, 4 + (bodyEnd - 6), 4);
+        return stripped;
+    }
+
+
+
+    // Cursor past a count of items at raw[cursor], each one prefix bytes
+    // and length prefixed bytes, -1 if they run past the end.
+    private static long skipCount(final byte[] raw, long cursor, final int prefix) {
+        if (cursor >= raw.length) {
+            return -1;
+        }
+
+        final long count = varInt(raw, (int)cursor);
+        cursor += varIntSize(raw, (int)cursor);
+        for (long index = 0; index < count && cursor >= 0; ++index) {
+            cursor = skipPush(raw, cursor + prefix);
+        }
+
+        return count < 0 ? -1 : cursor;
+    }
+
+    // Cursor past the length prefixed bytes at raw[cursor], -1 if they
+    // run past the end.
+    private static long skipPush(final byte[] raw, final long cursor) {
+        if (cursor < 0 || cursor >= raw.length) {
+            return -1;
+        }
+
+        final long length = varInt(raw, (int)cursor);
+        final long end = cursor + varIntSize(raw, (int)cursor) + length;
+        return length < 0 || end > raw.length ? -1 : end;
+    }
+
+    private static boolean isPreimage(final byte[] bytes, final int offset, final byte[] hash) {
+        final MessageDigest digest = Digests.get();
+        final byte[] result = Results.get();
+        digest.update(bytes, offset, Sha256Hash.LENGTH);
+        try {
+            digest.digest(result, 0, result.length);
+        } catch (final DigestException exception) {
+            digest.reset();
+            return false;
+        }
+
+        return Arrays.equals(result, hash);
+    }
+
+    // Outpoint hash is serialized little endian, compared reversed.
+    private static boolean isOutPoint(
+        final byte[] raw, final int offset, final TransactionOutPoint txOutPoint
+    ) {
+        final byte[] hash = txOutPoint.getHash().getBytes();
+        for (int index = 0; index < Sha256Hash.LENGTH; ++index) {
+            if (raw[offset + index] != hash[Sha256Hash.LENGTH - 1 - index]) {
+                return false;
+            }
+        }
+
+        return Utils.readUint32(raw, offset + Sha256Hash.LENGTH) == txOutPoint.getIndex();
+    }
+
+    // -1 if the varint runs past the end or doesn't fit an array.
+    private static long varInt(final byte[] raw, final int offset) {
+        final int size = varIntSize(raw, offset);
+        if (offset >= raw.length || raw.length - offset < size) {
+            return -1;
+        }
+
+        final long value;
+        switch (size) {
+            case 1: value = raw[offset] & 0xff; break;
+            case 3: value = (raw[offset + 1] & 0xff) | (raw[offset + 2] & 0xff) << 8; break;
+            case 5: value = Utils.readUint32(raw, offset + 1); break;
+            default: value = Utils.readInt64(raw, offset + 1); break;
+        }
+
+        return value < 0 || value > Integer.MAX_VALUE ? -1 : value;
+    }
+
+    private static int varIntSize(final byte[] raw, final int offset) {
+        if (offset >= raw.length) {
+            return 1;
+        }
+
+        switch (raw[offset] & 0xff) {
+            case 0xfd: return 3;
+            case 0xfe: return 5;
+            case 0xff: return 9;
+            default: return 1;
+        }
+    }
+
+    private RawTransactions() {}
+
+    private static final int BlockHeaderSize = 80;
+
+    // Scanning a whole mempool for secrets shouldn't churn a digest
+    // and a buffer per 32 bytes push.
+    private static final ThreadLocal<MessageDigest> Digests =
+        ThreadLocal.withInitial(Sha256Hash::newDigest);
+    private static final ThreadLocal<byte[]> Results =
+        ThreadLocal.withInitial(() -> new byte[Sha256Hash.LENGTH]);
+
+}
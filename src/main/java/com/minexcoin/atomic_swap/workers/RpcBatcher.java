@@ -0,0 +1,287 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoinRPCException;
+import wf.bitcoin.javabitcoindrpcclient.BitcoinRpcException;
+import wf.bitcoin.krotjson.JSON;
+
+final class RpcBatcher {
+
+    public RpcBatcher(
+        final PooledJSONRPCClient client,
+        final int maxSize, final long millisecWindow
+    ) {
+        client_ = client;
+        maxSize_ = maxSize;
+        millisecWindow_ = millisecWindow;
+        calls_ = new ConcurrentLinkedQueue<>();
+        pending_ = new AtomicInteger();
+        isScheduled_ = new AtomicBoolean(false);
+        isClosed_ = new AtomicBoolean(false);
+        ids_ = new AtomicLong();
+    }
+
+    public Object query(final String method, final Object... params) throws BitcoinRpcException {
+        final CompletableFuture<Object> result = submit(method, params);
+
+        try {
+            return result.get();
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new BitcoinRPCException(method, Arrays.deepToString(params), exception);
+        } catch (final ExecutionException exception) {
+            if (exception.getCause() instanceof BitcoinRpcException) {
+                throw (BitcoinRpcException)exception.getCause();
+            }
+
+            throw new BitcoinRPCException(
+                method, Arrays.deepToString(params), exception.getCause()
+            );
+        }
+    }
+
+
+
+    public CompletableFuture<Object> submit(final String method, final Object... params) {
+        if (isClosed().get()) {
+            final CompletableFuture<Object> result = new CompletableFuture<>();
+            result.completeExceptionally(new BitcoinRPCException(
+                method, Arrays.deepToString(params),
+                new IllegalStateException("RPC client is closed")
+            ));
+            return result;
+        }
+
+        final Call call = new Call(
+            Long.toString(ids().incrementAndGet()), method, params
+        );
+        calls().add(call);
+
+        if (pending().incrementAndGet() >= maxSize()) {
+            Flushers.execute(this::flush);
+        } else if (isScheduled().compareAndSet(false, true)) {
+            Timer.schedule(
+                () -> Flushers.execute(this::flush),
+                millisecWindow(), TimeUnit.MILLISECONDS
+            );
+        }
+
+        return call.result();
+    }
+
+    // Pending calls are sent right away, later ones fail.
+    public void close() {
+        isClosed().set(true);
+        flush();
+    }
+
+
+
+    private static final class Call {
+
+        public Call(final String id, final String method, final Object[] params) {
+            id_ = id;
+            method_ = method;
+            params_ = params;
+            result_ = new CompletableFuture<>();
+        }
+
+        public Map<String, Object> request() {
+            final Map<String, Object> request = new LinkedHashMap<>();
+            request.put("jsonrpc", "1.0");
+            request.put("method", method());
+            request.put("params", params());
+            request.put("id", id());
+            return request;
+        }
+
+        public String id() {
+            return id_;
+        }
+
+        public String method() {
+            return method_;
+        }
+
+        public Object[] params() {
+            return params_;
+        }
+
+        public CompletableFuture<Object> result() {
+            return result_;
+        }
+
+        private final String id_;
+        private final String method_;
+        private final Object[] params_;
+        private final CompletableFuture<Object> result_;
+
+    }
+
+    private void flush() {
+        isScheduled().set(false);
+
+        while (!calls().isEmpty()) {
+            final List<Call> batch = new ArrayList<>(maxSize());
+            for (Call call = calls().poll(); call != null; call = calls().poll()) {
+                pending().decrementAndGet();
+                batch.add(call);
+                if (batch.size() >= maxSize()) {
+                    break;
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                send(batch);
+            }
+        }
+    }
+
+    private void send(final List<Call> batch) {
+        final List<Map<String, Object>> requests = new ArrayList<>(batch.size());
+        batch.forEach(call -> requests.add(call.request()));
+
+        client().exchangeAsync(
+            JSON.stringify(requests).getBytes(PooledJSONRPCClient.QUERY_CHARSET),
+            "batch", Integer.toString(batch.size())
+        ).
+        whenComplete((body, exception) -> {
+            if (exception != null) {
+                batch.forEach(call -> call.result().completeExceptionally(exception));
+                return;
+            }
+
+            try {
+                dispatch(batch, JSON.parse(new String(body, PooledJSONRPCClient.QUERY_CHARSET)));
+            } catch (final RuntimeException error) {
+                batch.forEach(call -> call.result().completeExceptionally(error));
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void dispatch(final List<Call> batch, final Object response) {
+        if (!(response instanceof List)) {
+            throw new BitcoinRPCException("Invalid batch response: " + response);
+        }
+
+        final Map<String, Map<String, Object>> results = new HashMap<>();
+        ((List<Object>)response).forEach(result -> {
+            final Map<String, Object> entry = (Map<String, Object>)result;
+            results.put(String.valueOf(entry.get("id")), entry);
+        });
+
+        batch.forEach(call -> {
+            final Map<String, Object> result = results.get(call.id());
+            if (result == null) {
+                call.result().completeExceptionally(new BitcoinRPCException(
+                    "Missing batch response for " + call.method() + " " +
+                    Arrays.deepToString(call.params())
+                ));
+            } else if (result.get("error") != null) {
+                call.result().completeExceptionally(error(call, result.get("error")));
+            } else {
+                call.result().complete(result.get("result"));
+            }
+        });
+    }
+
+    // Same shape as an unbatched failure, with the RPC error code as
+    // response code, so callers can still tell rejections apart.
+    @SuppressWarnings("unchecked")
+    private static BitcoinRPCException error(final Call call, final Object error) {
+        final Object code = (error instanceof Map) ? ((Map<String, Object>)error).get("code") : null;
+        final Object message = (error instanceof Map) ? ((Map<String, Object>)error).get("message") : null;
+
+        return new BitcoinRPCException(
+            call.method(), Arrays.deepToString(call.params()),
+            (code instanceof Number) ? ((Number)code).intValue() : -1,
+            String.valueOf(message), JSON.stringify(error)
+        );
+    }
+
+    private PooledJSONRPCClient client() {
+        return client_;
+    }
+
+    private int maxSize() {
+        return maxSize_;
+    }
+
+    private long millisecWindow() {
+        return millisecWindow_;
+    }
+
+    private Queue<Call> calls() {
+        return calls_;
+    }
+
+    // ConcurrentLinkedQueue.size() walks the whole queue.
+    private AtomicInteger pending() {
+        return pending_;
+    }
+
+    private AtomicBoolean isScheduled() {
+        return isScheduled_;
+    }
+
+    private AtomicBoolean isClosed() {
+        return isClosed_;
+    }
+
+    private AtomicLong ids() {
+        return ids_;
+    }
+
+    private static final ScheduledExecutorService Timer =
+    Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("RpcBatcher Timer").setDaemon(true).build()
+    );
+    private static final ExecutorService Flushers = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("RpcBatcher-%d").setDaemon(true).build()
+    );
+
+    private final PooledJSONRPCClient client_;
+    private final int maxSize_;
+    private final long millisecWindow_;
+    private final Queue<Call> calls_;
+    private final AtomicInteger pending_;
+    private final AtomicBoolean isScheduled_;
+    private final AtomicBoolean isClosed_;
+    private final AtomicLong ids_;
+
+}
@@ -0,0 +1,120 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+final class RpcClientRegistry {
+
+    public static RpcClientRegistry instance() {
+        return Instance;
+    }
+
+    public PooledJSONRPCClient client(
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    ) throws MalformedURLException {
+        final Node node = new Node(inetAddress, login);
+
+        final PooledJSONRPCClient cached = clients().get(node);
+        if (cached != null && cached.password().equals(password)) {
+            return cached;
+        }
+
+        final PooledJSONRPCClient client = new PooledJSONRPCClient(
+            inetAddress, login, password,
+            MaxConnections, KeepAliveSeconds, TimeUnit.SECONDS
+        );
+
+        final boolean isStored = (cached == null) ?
+        clients().putIfAbsent(node, client) == null :
+        clients().replace(node, cached, client);
+
+        if (!isStored) {
+            client.close();
+            return client(inetAddress, login, password);
+        }
+
+        if (cached != null) {
+            cached.close();
+        }
+
+        return client;
+    }
+
+    public void close() {
+        clients().values().forEach(PooledJSONRPCClient::close);
+        clients().clear();
+    }
+
+
+
+    private static final class Node {
+
+        public Node(final InetSocketAddress inetAddress, final String login) {
+            host_ = inetAddress.getHostName();
+            port_ = inetAddress.getPort();
+            login_ = login;
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (this == object) {
+                return true;
+            }
+
+            if (!(object instanceof Node)) {
+                return false;
+            }
+
+            final Node node = (Node)object;
+            return port_ == node.port_ &&
+            host_.equals(node.host_) &&
+            Objects.equals(login_, node.login_);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host_, port_, login_);
+        }
+
+        private final String host_;
+        private final int port_;
+        private final String login_;
+
+    }
+
+    private ConcurrentMap<Node, PooledJSONRPCClient> clients() {
+        return clients_;
+    }
+
+    private static final int MaxConnections = 16;
+    private static final long KeepAliveSeconds = 5 * 60; // 5 minutes
+
+    private static final RpcClientRegistry Instance = new RpcClientRegistry();
+
+    private final ConcurrentMap<Node, PooledJSONRPCClient> clients_;
+
+    private RpcClientRegistry() {
+        clients_ = new ConcurrentHashMap<>();
+    }
+
+}
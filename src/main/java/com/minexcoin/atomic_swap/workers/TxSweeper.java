@@ -0,0 +1,315 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.script.ScriptChunk;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoinRPCException;
+
+// Claims and refunds closing within a short window are merged into one
+// transaction. Inputs keep their sequence and scriptSig, only signatures
+// are remade over the merged transaction, outputs to one script are summed.
+final class TxSweeper {
+
+    public static TxSweeper of(
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    ) {
+        return Sweepers.computeIfAbsent(
+            inetAddress.getHostName() + ":" + inetAddress.getPort() + "|" +
+            login + "|" + password,
+            key -> new TxSweeper(inetAddress, login, password)
+        );
+    }
+
+    // Transaction is a signed one-input close transaction and
+    // key the one that signed it.
+    public CompletableFuture<Sha256Hash> submit(final Transaction transaction, final ECKey key) {
+        if (transaction.getInputs().size() != 1) {
+            throw new IllegalArgumentException(
+                "Sweeping transaction with " + transaction.getInputs().size() + " inputs"
+            );
+        }
+
+        final Request request = new Request(transaction, key);
+        requests().add(request);
+
+        if (requests().size() >= MaxInputs) {
+            Flushers.execute(this::flush);
+        } else if (isScheduled().compareAndSet(false, true)) {
+            Timer.schedule(
+                () -> Flushers.execute(this::flush),
+                MillisecWindow, TimeUnit.MILLISECONDS
+            );
+        }
+
+        return request.result();
+    }
+
+
+
+    private static final class Request {
+
+        public Request(final Transaction transaction, final ECKey key) {
+            transaction_ = transaction;
+            key_ = key;
+            result_ = new CompletableFuture<>();
+        }
+
+        public TransactionInput input() {
+            return transaction().getInput(0);
+        }
+
+        public Transaction transaction() {
+            return transaction_;
+        }
+
+        public ECKey key() {
+            return key_;
+        }
+
+        public CompletableFuture<Sha256Hash> result() {
+            return result_;
+        }
+
+        private final Transaction transaction_;
+        private final ECKey key_;
+        private final CompletableFuture<Sha256Hash> result_;
+
+    }
+
+    private TxSweeper(
+        final InetSocketAddress inetAddress,
+        final String login, final String password
+    ) {
+        inetAddress_ = inetAddress;
+        login_ = login;
+        password_ = password;
+        requests_ = new ConcurrentLinkedQueue<>();
+        isScheduled_ = new AtomicBoolean(false);
+    }
+
+    // An outpoint spent twice would make the whole sweep invalid,
+    // so a repeated one waits for the next transaction.
+    private void flush() {
+        isScheduled().set(false);
+
+        final List<Request> pending = new ArrayList<>();
+        for (Request request = requests().poll(); request != null; request = requests().poll()) {
+            pending.add(request);
+        }
+
+        while (!pending.isEmpty()) {
+            final Map<TransactionOutPoint, Request> batch = new LinkedHashMap<>();
+            for (
+                final Iterator<Request> iterator = pending.iterator();
+                iterator.hasNext() && batch.size() < MaxInputs;
+            ) {
+                final Request request = iterator.next();
+                if (batch.putIfAbsent(request.input().getOutpoint(), request) == null) {
+                    iterator.remove();
+                }
+            }
+
+            send(new ArrayList<>(batch.values()));
+        }
+    }
+
+    private void send(final List<Request> batch) {
+        if (batch.size() == 1) {
+            sendOne(batch.get(0));
+            return;
+        }
+
+        final Transaction sweep;
+        try {
+            sweep = sweep(batch);
+        } catch (final RuntimeException exception) {
+            batch.forEach(this::sendOne);
+            return;
+        }
+
+        query("sendrawtransaction", Utils.HEX.encode(sweep.unsafeBitcoinSerialize())).
+        whenComplete((txId, exception) -> {
+            if (exception == null) {
+                batch.forEach(request -> request.result().complete(sweep.getHash()));
+            } else if (isRejected(exception)) {
+                // One immature refund or spent input must not hold the others.
+                batch.forEach(this::sendOne);
+            } else {
+                batch.forEach(request -> request.result().completeExceptionally(exception));
+            }
+        });
+    }
+
+    private void sendOne(final Request request) {
+        query(
+            "sendrawtransaction",
+            Utils.HEX.encode(request.transaction().unsafeBitcoinSerialize())
+        ).
+        whenComplete((txId, exception) -> {
+            if (exception == null) {
+                request.result().complete(request.transaction().getHash());
+            } else {
+                request.result().completeExceptionally(exception);
+            }
+        });
+    }
+
+    private static Transaction sweep(final List<Request> batch) {
+        final Transaction first = batch.get(0).transaction();
+        final Transaction sweep = new Transaction(first.getParams());
+
+        // Relative lock times of refunds only hold from version 2 on,
+        // so the sweep takes the highest version of the batch.
+        sweep.setVersion((int)batch.stream().
+            mapToLong(request -> request.transaction().getVersion()).
+            max().
+            getAsLong()
+        );
+
+        final Map<ByteBuffer, Coin> amounts = new LinkedHashMap<>();
+        batch.forEach(request -> {
+            final TransactionInput input = request.input();
+            final TransactionInput copy = new TransactionInput(
+                sweep.getParams(), sweep, new byte[]{}, input.getOutpoint()
+            );
+            copy.setSequenceNumber(input.getSequenceNumber());
+            sweep.addInput(copy);
+
+            request.transaction().getOutputs().forEach(output -> amounts.merge(
+                ByteBuffer.wrap(output.getScriptBytes()), output.getValue(), Coin::add
+            ));
+        });
+
+        amounts.forEach((script, amount) -> sweep.addOutput(new TransactionOutput(
+            sweep.getParams(), sweep, amount, script.array()
+        )));
+
+        final List<BatchSigner.Input> inputs = new ArrayList<>(batch.size());
+        for (int index = 0; index < batch.size(); ++index) {
+            final Request request = batch.get(index);
+            final List<ScriptChunk> chunks = request.input().getScriptSig().getChunks();
+
+            inputs.add(new BatchSigner.Input(
+                sweep, index,
+                request.key(), new Script(chunks.get(chunks.size() - 1).data),
+                signature -> {
+                    final ScriptBuilder scriptSig = new ScriptBuilder().
+                    data(signature.encodeToBitcoin());
+                    chunks.subList(1, chunks.size()).forEach(scriptSig::addChunk);
+                    return scriptSig.build();
+                }
+            ));
+        }
+
+        return BatchSigner.instance().sign(inputs).get(0);
+    }
+
+    private CompletableFuture<Object> query(final String method, final Object... params) {
+        try {
+            return RpcClientRegistry.instance().
+            client(inetAddress(), login(), password()).
+            queryAsync(method, params);
+        } catch (final MalformedURLException exception) {
+            final CompletableFuture<Object> result = new CompletableFuture<>();
+            result.completeExceptionally(exception);
+            return result;
+        }
+    }
+
+    // A node answering with an RPC error has not relayed anything,
+    // a transport failure leaves that unknown.
+    private static boolean isRejected(final Throwable exception) {
+        final Throwable cause = (exception instanceof CompletionException) ?
+        exception.getCause() :
+        exception;
+
+        return cause instanceof BitcoinRPCException &&
+        ((BitcoinRPCException)cause).getResponseCode() != 0;
+    }
+
+    private InetSocketAddress inetAddress() {
+        return inetAddress_;
+    }
+
+    private String login() {
+        return login_;
+    }
+
+    private String password() {
+        return password_;
+    }
+
+    private Queue<Request> requests() {
+        return requests_;
+    }
+
+    private AtomicBoolean isScheduled() {
+        return isScheduled_;
+    }
+
+    private static final int MaxInputs = 100;
+    private static final long MillisecWindow = 100;
+    private static final ConcurrentMap<String, TxSweeper> Sweepers = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService Timer =
+    Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("TxSweeper Timer").setDaemon(true).build()
+    );
+    private static final ExecutorService Flushers = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("TxSweeper-%d").setDaemon(true).build()
+    );
+
+    private final InetSocketAddress inetAddress_;
+    private final String login_;
+    private final String password_;
+    private final Queue<Request> requests_;
+    private final AtomicBoolean isScheduled_;
+
+}
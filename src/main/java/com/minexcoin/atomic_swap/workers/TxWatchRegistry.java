@@ -0,0 +1,361 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.workers;
+
+import static org.bitcoinj.script.ScriptOpCodes.OP_EQUAL;
+import static org.bitcoinj.script.ScriptOpCodes.OP_HASH160;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Utils;
+
+import com.minexcoin.atomic_swap.workers.Worker.NotificationMode;
+import com.minexcoin.atomic_swap.workers.Worker.Unit;
+
+import rx.Emitter;
+import rx.Observable;
+import rx.Observer;
+import rx.Subscription;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
+
+final class TxWatchRegistry {
+
+    public static TxWatchRegistry of(
+        final NotificationMode mode, final NetworkParameters params,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort
+    ) {
+        return Registries.computeIfAbsent(
+            mode + "|" + params.getId() + "|" +
+            inetAddress.getHostName() + ":" + inetAddress.getPort() + "|" +
+            login + "|" + password + "|" + notificationPort,
+            key -> new TxWatchRegistry(
+                mode, params, inetAddress, login, password, notificationPort
+            )
+        );
+    }
+
+    public Observable<TransactionOutPoint> watchScriptHash(
+        final byte[] scriptHash, final Coin amount
+    ) {
+        return watch(scriptHashes(), ByteBuffer.wrap(scriptHash.clone()), amount);
+    }
+
+    public Observable<TransactionInput> watchOutPoint(final TransactionOutPoint txOutPoint) {
+        return watch(outPoints(), txOutPoint, null);
+    }
+
+
+
+    private static final class Watch<T> {
+
+        public Watch(final Coin amount, final Observer<? super T> observer) {
+            amount_ = amount;
+            observer_ = observer;
+        }
+
+        public Coin amount() {
+            return amount_;
+        }
+
+        public Observer<? super T> observer() {
+            return observer_;
+        }
+
+        private final Coin amount_;
+        private final Observer<? super T> observer_;
+
+    }
+
+    private TxWatchRegistry(
+        final NotificationMode mode, final NetworkParameters params,
+        final InetSocketAddress inetAddress,
+        final String login, final String password,
+        final int notificationPort
+    ) {
+        mode_ = mode;
+        params_ = params;
+        inetAddress_ = inetAddress;
+        login_ = login;
+        password_ = password;
+        notificationPort_ = notificationPort;
+        scriptHashes_ = new ConcurrentHashMap<>();
+        outPoints_ = new ConcurrentHashMap<>();
+        rescans_ = PublishSubject.<Unit>create().toSerialized();
+        scannedHeight_ = 0;
+        watches_ = 0;
+        upstream_ = null;
+    }
+
+    private <K, T> Observable<T> watch(
+        final ConcurrentMap<K, List<Watch<T>>> index, final K key, final Coin amount
+    ) {
+        return Observable.create(emitter -> {
+            final Watch<T> watch = new Watch<>(amount, emitter);
+            index.computeIfAbsent(key, ignored -> new CopyOnWriteArrayList<>()).add(watch);
+            retain();
+
+            emitter.setCancellation(() -> {
+                index.computeIfPresent(key, (ignored, watches) -> {
+                    watches.remove(watch);
+                    return watches.isEmpty() ? null : watches;
+                });
+                release();
+            });
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    private synchronized void retain() {
+        if (watches_++ == 0) {
+            upstream_ = transactions().subscribe(
+                this::dispatch,
+                this::fail
+            );
+        }
+    }
+
+    private synchronized void release() {
+        if (--watches_ == 0 && upstream_ != null) {
+            upstream_.unsubscribe();
+            upstream_ = null;
+        }
+    }
+
+    // Rescans are merged in, so watchers still see one tx at a time.
+    private Observable<Transaction> transactions() {
+        return Observable.merge(
+            notified(),
+            rescans().onBackpressureLatest().concatMap(ignored -> rescanned())
+        );
+    }
+
+    private Observable<Transaction> notified() {
+        if (mode() == NotificationMode.Raw) {
+            return NotificationHub.observe("rawtx", inetAddress(), notificationPort(), this::rescan).
+            concatMap(body -> {
+                try {
+                    return Observable.just(RawTransactions.parse(params(), body));
+                } catch (final ProtocolException exception) {
+                    return Observable.empty();
+                }
+            });
+        }
+
+        // Lookups run concurrently so the batcher can group them, one
+        // at a time a busy mempool outpaces the node round trips.
+        return NotificationHub.observe("hashtx", inetAddress(), notificationPort(), this::rescan).
+        flatMap(body -> lookup(Sha256Hash.wrap(body)), MaxPendingLookups);
+    }
+
+    // Notifications dropped behind a slow watcher may have carried a
+    // watched tx, so the whole mempool is looked through once more. Blocks
+    // are counted after the mempool is listed: a tx mined in between is
+    // still in one of the blocks scanned.
+    @SuppressWarnings("unchecked")
+    private Observable<Transaction> rescanned() {
+        return AsyncWorker.observe(() -> query("getrawmempool")).
+        concatMap(txIds -> Observable.merge(
+            Observable.from((List<String>)txIds).
+            flatMap(txId -> lookup(Sha256Hash.wrap(txId)), MaxPendingLookups),
+            recentBlocks()
+        )).
+        onErrorResumeNext(Observable.empty());
+    }
+
+    // Blocks mined since the last rescan, RescanMaxBlocks at most.
+    private Observable<Transaction> recentBlocks() {
+        return AsyncWorker.observe(() -> query("getblockcount")).
+        concatMap(count -> {
+            final int height = ((Number)count).intValue();
+            final int from = Math.max(scannedHeight() + 1, height - RescanMaxBlocks + 1);
+            scannedHeight_ = height;
+            return Observable.range(from, Math.max(0, height - from + 1));
+        }).
+        concatMap(height -> AsyncWorker.observe(() -> query("getblockhash", height))).
+        concatMap(hash -> AsyncWorker.observe(() -> query("getblock", hash, false))).
+        flatMapIterable(hex -> RawTransactions.blockTransactions(
+            params(), Utils.HEX.decode((String)hex)
+        )).
+        onErrorResumeNext(Observable.empty());
+    }
+
+    private Observable<Transaction> lookup(final Sha256Hash txHash) {
+        return AsyncWorker.observe(() -> query("getrawtransaction", txHash.toString())).
+        concatMap(hex -> {
+            try {
+                return Observable.just(RawTransactions.parse(
+                    params(), Utils.HEX.decode((String)hex)
+                ));
+            } catch (final ProtocolException exception) {
+                return Observable.<Transaction>empty();
+            }
+        }).
+        onErrorResumeNext(Observable.empty());
+    }
+
+    private void rescan() {
+        rescans().onNext(Unit.unit());
+    }
+
+    private CompletableFuture<Object> query(final String method, final Object... params) {
+        try {
+            return RpcClientRegistry.instance().
+            client(inetAddress(), login(), password()).
+            queryAsync(method, params);
+        } catch (final MalformedURLException exception) {
+            final CompletableFuture<Object> result = new CompletableFuture<>();
+            result.completeExceptionally(exception);
+            return result;
+        }
+    }
+
+    private void dispatch(final Transaction transaction) {
+        if (!scriptHashes().isEmpty()) {
+            final List<TransactionOutput> outputs = transaction.getOutputs();
+            for (int index = 0; index < outputs.size(); ++index) {
+                final TransactionOutput output = outputs.get(index);
+                final byte[] program = output.getScriptBytes();
+
+                // OP_HASH160 <20 bytes> OP_EQUAL
+                if (
+                    program.length != 23 ||
+                    (program[0] & 0xFF) != OP_HASH160 ||
+                    program[1] != 20 ||
+                    (program[22] & 0xFF) != OP_EQUAL
+                ) {
+                    continue;
+                }
+
+                final List<Watch<TransactionOutPoint>> watches = scriptHashes().get(
+                    ByteBuffer.wrap(program, 2, 20).slice()
+                );
+                if (watches == null) {
+                    continue;
+                }
+
+                final TransactionOutPoint txOutPoint = new TransactionOutPoint(
+                    params(), index, transaction.getHash()
+                );
+                for (final Watch<TransactionOutPoint> watch : watches) {
+                    if (output.getValue().compareTo(watch.amount()) >= 0) {
+                        watch.observer().onNext(txOutPoint);
+                    }
+                }
+            }
+        }
+
+        if (!outPoints().isEmpty()) {
+            for (final TransactionInput input : transaction.getInputs()) {
+                final List<Watch<TransactionInput>> watches = outPoints().get(input.getOutpoint());
+                if (watches == null) {
+                    continue;
+                }
+
+                for (final Watch<TransactionInput> watch : watches) {
+                    watch.observer().onNext(input);
+                }
+            }
+        }
+    }
+
+    private void fail(final Throwable exception) {
+        scriptHashes().values().forEach(watches -> watches.forEach(
+            watch -> watch.observer().onError(exception)
+        ));
+        outPoints().values().forEach(watches -> watches.forEach(
+            watch -> watch.observer().onError(exception)
+        ));
+
+        synchronized (this) {
+            upstream_ = null;
+        }
+    }
+
+    private NotificationMode mode() {
+        return mode_;
+    }
+
+    private NetworkParameters params() {
+        return params_;
+    }
+
+    private InetSocketAddress inetAddress() {
+        return inetAddress_;
+    }
+
+    private String login() {
+        return login_;
+    }
+
+    private String password() {
+        return password_;
+    }
+
+    private int notificationPort() {
+        return notificationPort_;
+    }
+
+    private ConcurrentMap<ByteBuffer, List<Watch<TransactionOutPoint>>> scriptHashes() {
+        return scriptHashes_;
+    }
+
+    private ConcurrentMap<TransactionOutPoint, List<Watch<TransactionInput>>> outPoints() {
+        return outPoints_;
+    }
+
+    private Subject<Unit, Unit> rescans() {
+        return rescans_;
+    }
+
+    private int scannedHeight() {
+        return scannedHeight_;
+    }
+
+    private static final int MaxPendingLookups = 256;
+    private static final int RescanMaxBlocks = 6;
+
+    private static final ConcurrentMap<String, TxWatchRegistry> Registries = new ConcurrentHashMap<>();
+
+    private final NotificationMode mode_;
+    private final NetworkParameters params_;
+    private final InetSocketAddress inetAddress_;
+    private final String login_;
+    private final String password_;
+    private final int notificationPort_;
+    private final ConcurrentMap<ByteBuffer, List<Watch<TransactionOutPoint>>> scriptHashes_;
+    private final ConcurrentMap<TransactionOutPoint, List<Watch<TransactionInput>>> outPoints_;
+    private final Subject<Unit, Unit> rescans_;
+    private volatile int scannedHeight_;
+    private int watches_;
+    private Subscription upstream_;
+
+}
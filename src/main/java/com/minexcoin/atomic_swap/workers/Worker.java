@@ -50,6 +50,8 @@ public interface Worker {
 
     }
 
+    public static enum NotificationMode { Hash, Raw }
+
     TransactionOutPoint sendToAddress(
         final Address address, final Coin amount,
         final InetSocketAddress inetAddress,
@@ -92,6 +94,7 @@ public interface Worker {
     RunnableFuture<Optional<Sha256Hash>> waitTxSecret(
         final int listeners,
         final TransactionOutPoint txOutPoint,
+        final Sha256Hash secretHash,
         final InetSocketAddress inetAddress,
         final String login, final String password,
         final int notificationPort,
@@ -108,6 +111,7 @@ public interface Worker {
     Optional<Sha256Hash> extractSecret(
         final Sha256Hash txHash,
         final TransactionOutPoint txOutPoint,
+        final Sha256Hash secretHash,
         final InetSocketAddress inetAddress,
         final String login, final String password
     ) throws MalformedURLException;
@@ -132,6 +136,12 @@ public interface Worker {
         final ECKey recipient, final Coin amount, final NetworkParameters params,
         final ECKey key, final Script script, final int csv);
 
+    AsyncWorker async();
+
+    NotificationMode notificationMode();
+
+    void notificationMode(final NotificationMode mode);
+
     String name();
 
     String ticker();
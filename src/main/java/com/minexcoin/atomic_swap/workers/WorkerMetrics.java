@@ -0,0 +1,122 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.minexcoin.metrics.Histogram;
+import com.minexcoin.metrics.MetricSet;
+
+// RPC round trips and ZMQ dispatch of all nodes in the process. Clients and
+// hubs resolve their per-node tables once, recording then costs one map
+// read by method or topic.
+public final class WorkerMetrics implements MetricSet {
+
+    public static WorkerMetrics instance() {
+        return Instance;
+    }
+
+    @Override
+    public void write(final StringBuilder out) {
+        out.append("# HELP atomic_swap_rpc_seconds JSON-RPC round trip by node and method.\n");
+        out.append("# TYPE atomic_swap_rpc_seconds histogram\n");
+        rpcLatency().forEach((node, methods) -> methods.forEach((method, histogram) -> {
+            histogram.write(
+                out, "atomic_swap_rpc_seconds",
+                "node=\"" + node + "\",method=\"" + method + "\"", NanosecsPerSecond
+            );
+        }));
+
+        out.append("# HELP atomic_swap_rpc_errors_total Failed JSON-RPC calls by node and method.\n");
+        out.append("# TYPE atomic_swap_rpc_errors_total counter\n");
+        rpcErrors().forEach((node, methods) -> methods.forEach((method, count) -> {
+            out.append("atomic_swap_rpc_errors_total{node=\"").append(node).
+            append("\",method=\"").append(method).append("\"} ").
+            append(count.sum()).append('\n');
+        }));
+
+        out.append("# HELP atomic_swap_notification_seconds ZMQ notification dispatch by endpoint and topic.\n");
+        out.append("# TYPE atomic_swap_notification_seconds histogram\n");
+        notificationLatency().forEach((endpoint, topics) -> topics.forEach((topic, histogram) -> {
+            histogram.write(
+                out, "atomic_swap_notification_seconds",
+                "endpoint=\"" + endpoint + "\",topic=\"" + topic + "\"", NanosecsPerSecond
+            );
+        }));
+    }
+
+
+
+    ConcurrentMap<String, Histogram> rpcLatency(final String node) {
+        return table(rpcLatency(), node);
+    }
+
+    ConcurrentMap<String, LongAdder> rpcErrors(final String node) {
+        return table(rpcErrors(), node);
+    }
+
+    ConcurrentMap<String, Histogram> notificationLatency(final String endpoint) {
+        return table(notificationLatency(), endpoint);
+    }
+
+    static Histogram histogram(final ConcurrentMap<String, Histogram> table, final String key) {
+        final Histogram histogram = table.get(key);
+        return histogram != null ? histogram : table.computeIfAbsent(key, ignored -> new Histogram());
+    }
+
+    static LongAdder counter(final ConcurrentMap<String, LongAdder> table, final String key) {
+        final LongAdder counter = table.get(key);
+        return counter != null ? counter : table.computeIfAbsent(key, ignored -> new LongAdder());
+    }
+
+
+
+    private WorkerMetrics() {
+        rpcLatency_ = new ConcurrentHashMap<>();
+        rpcErrors_ = new ConcurrentHashMap<>();
+        notificationLatency_ = new ConcurrentHashMap<>();
+    }
+
+    private static <T> ConcurrentMap<String, T> table(
+        final ConcurrentMap<String, ConcurrentMap<String, T>> tables, final String key
+    ) {
+        return tables.computeIfAbsent(key, ignored -> new ConcurrentHashMap<>());
+    }
+
+    private ConcurrentMap<String, ConcurrentMap<String, Histogram>> rpcLatency() {
+        return rpcLatency_;
+    }
+
+    private ConcurrentMap<String, ConcurrentMap<String, LongAdder>> rpcErrors() {
+        return rpcErrors_;
+    }
+
+    private ConcurrentMap<String, ConcurrentMap<String, Histogram>> notificationLatency() {
+        return notificationLatency_;
+    }
+
+    private static final double NanosecsPerSecond = 1e9;
+
+    private static final WorkerMetrics Instance = new WorkerMetrics();
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Histogram>> rpcLatency_;
+    private final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> rpcErrors_;
+    private final ConcurrentMap<String, ConcurrentMap<String, Histogram>> notificationLatency_;
+
+}
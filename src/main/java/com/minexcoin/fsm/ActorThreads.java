@@ -0,0 +1,118 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.fsm;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+// Actors spend most of their life parked on worker futures, so on a JVM
+// with virtual threads they are run one virtual thread per task. The
+// lookup is reflective to keep the code runnable on Java 8, where the
+// platform mode is used instead.
+public final class ActorThreads {
+
+    public static enum Mode { Platform, Virtual }
+
+    public static boolean isVirtualSupported() {
+        return VirtualFactory != null;
+    }
+
+    // Thread per task executor of virtual threads, empty if this JVM
+    // can't run them.
+    public static Optional<ExecutorService> virtual(final String threadName) {
+        if (!isVirtualSupported()) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of((ExecutorService)ThreadPerTask.invoke(
+                null, VirtualFactory.invoke(threadName.replace("%d", ""))
+            ));
+        } catch (final ReflectiveOperationException | RuntimeException exception) {
+            return Optional.empty();
+        }
+    }
+
+    public static ExecutorService create(
+        final Mode mode,
+        final long keepAliveTime, final TimeUnit unit,
+        final String threadName
+    ) {
+        if (mode == Mode.Virtual) {
+            final Optional<ExecutorService> executor = virtual(threadName);
+            if (executor.isPresent()) {
+                return executor.get();
+            }
+        }
+
+        return new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE,
+            keepAliveTime, unit,
+            new SynchronousQueue<Runnable>(),
+            new ThreadFactoryBuilder().setNameFormat(threadName).build()
+        );
+    }
+
+
+
+    private ActorThreads() {}
+
+    @FunctionalInterface
+    private static interface Factory {
+        ThreadFactory invoke(final String prefix) throws ReflectiveOperationException;
+    }
+
+    private static Factory virtualFactory() {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            final Method name = builderClass.getMethod("name", String.class, long.class);
+            final Method factory = builderClass.getMethod("factory");
+
+            final Factory virtual = prefix -> (ThreadFactory)factory.invoke(
+                name.invoke(ofVirtual.invoke(null), prefix, 0L)
+            );
+
+            // Java 19 and 20 have the methods but throw unless preview
+            // features are enabled, so one thread is built to be sure.
+            virtual.invoke("probe-").newThread(() -> {});
+            return virtual;
+        } catch (final ReflectiveOperationException | RuntimeException exception) {
+            return null;
+        }
+    }
+
+    private static Method threadPerTask() {
+        try {
+            return Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (final ReflectiveOperationException exception) {
+            return null;
+        }
+    }
+
+    private static final Method ThreadPerTask = threadPerTask();
+    private static final Factory VirtualFactory =
+    (ThreadPerTask != null) ? virtualFactory() : null;
+
+}
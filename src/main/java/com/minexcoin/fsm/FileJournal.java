@@ -0,0 +1,300 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.fsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+// Append-only log of (key, payload) records. Appends are queued and a
+// single writer thread flushes everything pending with one fsync, so
+// concurrent FSMs share the cost of a sync instead of queueing on it.
+//
+// Record: length(4) crc32(4) keyLength(2) key payload.
+// A torn or corrupted tail is cut off when the file is opened.
+public final class FileJournal implements AutoCloseable {
+
+    public static FileJournal open(final Path path) throws IOException {
+        return new FileJournal(path);
+    }
+
+    public CompletableFuture<Void> append(final String key, final byte[] payload) {
+        final Append append = new Append(record(key, payload));
+
+        synchronized (pending()) {
+            if (isClosed()) {
+                append.done().completeExceptionally(
+                    new IOException("Journal " + path() + " is closed")
+                );
+                return append.done();
+            }
+
+            pending().add(append);
+        }
+
+        return append.done();
+    }
+
+    // Last payload of the key found in the file when it was opened.
+    public Optional<byte[]> recovered(final String key) {
+        return Optional.ofNullable(recovered().get(key));
+    }
+
+    public Map<String, byte[]> recovered() {
+        return Collections.unmodifiableMap(recovered_);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (pending()) {
+            isClosed_ = true;
+            pending().add(Append.Poison);
+        }
+
+        try {
+            writer().join();
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+
+        channel().close();
+    }
+
+
+
+    private FileJournal(final Path path) throws IOException {
+        path_ = path;
+        channel_ = FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        );
+        recovered_ = new HashMap<>();
+        pending_ = new LinkedBlockingQueue<>();
+        isClosed_ = false;
+
+        end_ = replay();
+        failure_ = null;
+        channel().truncate(end());
+        channel().position(end());
+
+        writer_ = new Thread(this::write, "FileJournal " + path.getFileName());
+        writer_.setDaemon(true);
+        writer_.start();
+    }
+
+    private static final class Append {
+
+        public Append(final ByteBuffer record) {
+            record_ = record;
+            done_ = new CompletableFuture<>();
+        }
+
+        public ByteBuffer record() {
+            return record_;
+        }
+
+        public CompletableFuture<Void> done() {
+            return done_;
+        }
+
+        private static final Append Poison = new Append(ByteBuffer.allocate(0));
+
+        private final ByteBuffer record_;
+        private final CompletableFuture<Void> done_;
+
+    }
+
+    private long replay() throws IOException {
+        final long size = channel().size();
+        final ByteBuffer header = ByteBuffer.allocate(HeaderSize);
+
+        long position = 0;
+        while (position + HeaderSize <= size) {
+            header.clear();
+            channel().read(header, position);
+            header.flip();
+
+            final int length = header.getInt();
+            final int checksum = header.getInt();
+            if (length < KeyLengthSize || position + HeaderSize + length > size) {
+                break;
+            }
+
+            final ByteBuffer body = ByteBuffer.allocate(length);
+            channel().read(body, position + HeaderSize);
+            if (checksum(body.array()) != checksum) {
+                break;
+            }
+
+            final int keyLength = body.getShort(0) & 0xFFFF;
+            if (KeyLengthSize + keyLength > length) {
+                break;
+            }
+
+            final byte[] payload = new byte[length - KeyLengthSize - keyLength];
+            System.arraycopy(body.array(), KeyLengthSize + keyLength, payload, 0, payload.length);
+            recovered_.put(
+                new String(body.array(), KeyLengthSize, keyLength, StandardCharsets.UTF_8),
+                payload
+            );
+
+            position += HeaderSize + length;
+        }
+
+        return position;
+    }
+
+    private void write() {
+        final List<Append> batch = new ArrayList<>(MaxBatch);
+
+        while (true) {
+            try {
+                batch.add(pending().take());
+            } catch (final InterruptedException exception) {
+                return;
+            }
+            pending().drainTo(batch, MaxBatch - 1);
+
+            // Nothing is queued after the poison, see close()
+            final boolean isPoisoned = batch.remove(Append.Poison);
+            if (!batch.isEmpty()) {
+                flush(batch);
+            }
+            batch.clear();
+
+            if (isPoisoned) {
+                return;
+            }
+        }
+    }
+
+    private void flush(final List<Append> batch) {
+        if (failure() != null) {
+            batch.forEach(append -> append.done().completeExceptionally(failure()));
+            return;
+        }
+
+        try {
+            for (final Append append : batch) {
+                while (append.record().hasRemaining()) {
+                    channel().write(append.record());
+                }
+            }
+            channel().force(false);
+            end_ = channel().position();
+
+            batch.forEach(append -> append.done().complete(null));
+        } catch (final IOException exception) {
+            rollback(exception);
+            batch.forEach(append -> append.done().completeExceptionally(exception));
+        }
+    }
+
+    // A failed group write may leave a torn record behind, and replay
+    // stops at the first one, dropping every durable record after it.
+    // So the file is cut back to the last flushed record, and if even
+    // that fails the journal refuses all later writes.
+    private void rollback(final IOException exception) {
+        try {
+            channel().truncate(end());
+            channel().position(end());
+            channel().force(false);
+        } catch (final IOException truncation) {
+            exception.addSuppressed(truncation);
+            failure_ = exception;
+        }
+    }
+
+    private static ByteBuffer record(final String key, final byte[] payload) {
+        final byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        if (rawKey.length > 0xFFFF) {
+            throw new IllegalArgumentException("Journal key is too long: " + rawKey.length);
+        }
+
+        final ByteBuffer body = ByteBuffer.allocate(KeyLengthSize + rawKey.length + payload.length);
+        body.putShort((short)rawKey.length).put(rawKey).put(payload);
+
+        final ByteBuffer record = ByteBuffer.allocate(HeaderSize + body.capacity());
+        record.putInt(body.capacity()).putInt(checksum(body.array())).put(body.array());
+        record.flip();
+
+        return record;
+    }
+
+    private static int checksum(final byte[] body) {
+        final CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int)crc.getValue();
+    }
+
+    private Path path() {
+        return path_;
+    }
+
+    private FileChannel channel() {
+        return channel_;
+    }
+
+    private BlockingQueue<Append> pending() {
+        return pending_;
+    }
+
+    private boolean isClosed() {
+        return isClosed_;
+    }
+
+    private Thread writer() {
+        return writer_;
+    }
+
+    private long end() {
+        return end_;
+    }
+
+    private IOException failure() {
+        return failure_;
+    }
+
+    private static final int HeaderSize = 8;
+    private static final int KeyLengthSize = 2;
+    private static final int MaxBatch = 1024;
+
+    private final Path path_;
+    private final FileChannel channel_;
+    private final Map<String, byte[]> recovered_;
+    private final BlockingQueue<Append> pending_;
+    private volatile boolean isClosed_;
+    private final Thread writer_;
+    // Both touched by the writer thread only.
+    private long end_;
+    private IOException failure_;
+
+}
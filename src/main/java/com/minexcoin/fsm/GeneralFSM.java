@@ -19,35 +19,44 @@ import static java.lang.annotation.ElementType.METHOD;
 import static java.lang.annotation.RetentionPolicy.SOURCE;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Function;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.CancellationException;
-import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import rx.Observable;
+import rx.Observer;
 import rx.schedulers.Schedulers;
 import rx.subjects.BehaviorSubject;
 import rx.subjects.PublishSubject;
-import rx.subjects.ReplaySubject;
 import rx.subjects.Subject;
+import rx.subscriptions.CompositeSubscription;
 
 public abstract class GeneralFSM<StateT extends Copyable<StateT>> implements FSM<StateT> {
 
     @Override
     public Observable<StateT> states() {
-        return states_.asObservable();
+        return states_;
     }
 
     @Override
@@ -60,6 +69,8 @@ public abstract class GeneralFSM<StateT extends Copyable<StateT>> implements FSM
         if (!status_.compareAndSet(Status.Ready, Status.Active))
             return false;
 
+        entered(System.nanoTime());
+        onStart(state());
         startImpl();
         return true;
     }
@@ -95,37 +106,64 @@ public abstract class GeneralFSM<StateT extends Copyable<StateT>> implements FSM
         final int taskLimit,
         final String eventThreadName, final String taskThreadName
     ) {
-        state_ = state;
-        status_ =  new AtomicReference<Status>(Status.Ready);
-
-        events_ = new ThreadPoolExecutor(
-            1, 1,
+        this(
+            state, opts,
             eventKeepAliveTime, eventUnit,
-            new LinkedBlockingQueue<Runnable>(taskLimit),
-            new ThreadFactoryBuilder().setNameFormat(eventThreadName).build()
-        );
-        executor_ = new ThreadPoolExecutor(
-            0, Integer.MAX_VALUE,
             taskKeepAliveTime, taskUnit,
-            new SynchronousQueue<Runnable>(),
-            new ThreadFactoryBuilder().setNameFormat(taskThreadName).build()
+            taskLimit,
+            eventThreadName, taskThreadName,
+            ActorThreads.Mode.Platform
         );
+    }
 
-        subject_ = PublishSubject.create();
-        states_ = (opts == StreamOpts.Always) ?
-        ReplaySubject.create() : BehaviorSubject.create();
+    protected GeneralFSM(
+        final StateT state, final StreamOpts opts,
+        final long eventKeepAliveTime, final TimeUnit eventUnit,
+        final long taskKeepAliveTime, final TimeUnit taskUnit,
+        final int taskLimit,
+        final String eventThreadName, final String taskThreadName,
+        final ActorThreads.Mode actorMode
+    ) {
+        this(
+            state, opts,
+            new ThreadPoolExecutor(
+                1, 1,
+                eventKeepAliveTime, eventUnit,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat(eventThreadName).build()
+            ),
+            ActorThreads.create(actorMode, taskKeepAliveTime, taskUnit, taskThreadName),
+            taskLimit, true, Journal.none(), HistoryPolicy.all()
+        );
+    }
 
-        (
-            (opts == StreamOpts.Last) ?
-            (Function<Observable<StateT>, Observable<StateT>>)
-            Observable<StateT>::onBackpressureLatest :
-            (Function<Observable<StateT>, Observable<StateT>>)
-            Observable<StateT>::onBackpressureBuffer
-        ).apply(subject_.asObservable()).
-        subscribeOn(Schedulers.from(executor_)).
-        subscribe(states_);
+    // Runs on pools owned by the caller: events are serialized through
+    // a per-FSM mailbox and pools are never shut down by the FSM itself.
+    protected GeneralFSM(
+        final StateT state, final StreamOpts opts,
+        final Executor eventPool, final ExecutorService taskPool,
+        final int taskLimit
+    ) {
+        this(state, opts, eventPool, taskPool, taskLimit, false, Journal.none(), HistoryPolicy.all());
+    }
 
-        eventThread_ = new AtomicReference<Thread>(null);
+    protected GeneralFSM(
+        final StateT state, final StreamOpts opts,
+        final Executor eventPool, final ExecutorService taskPool,
+        final int taskLimit, final Journal<? super StateT> journal
+    ) {
+        this(state, opts, eventPool, taskPool, taskLimit, false, journal, HistoryPolicy.all());
+    }
+
+    // Retention policy bounds what StreamOpts.Always replays, other options keep
+    // the last state only and ignore it.
+    protected GeneralFSM(
+        final StateT state, final StreamOpts opts,
+        final Executor eventPool, final ExecutorService taskPool,
+        final int taskLimit, final Journal<? super StateT> journal,
+        final HistoryPolicy<StateT> retention
+    ) {
+        this(state, opts, eventPool, taskPool, taskLimit, false, journal, retention);
     }
 
     protected <StateU extends StateT> void trigger(
@@ -136,22 +174,61 @@ public abstract class GeneralFSM<StateT extends Copyable<StateT>> implements FSM
     }
 
     protected void async(final Executable task) {
-        executor().submit(makeActor(task));
+        submit(makeActor(task));
     }
 
-    protected void async(
-        final Collection<Executable> tasks, final boolean all
-    ) throws InterruptedException, ExecutionException {
-        final List<Callable<?>> collection =
+    protected void async(final Collection<Executable> tasks, final boolean all) {
+        if (all) {
+            tasks.forEach(this::async);
+            return;
+        }
+
+        // First finished actor cancels the rest, like invokeAny,
+        // but without parking the event thread until it happens.
+        final AtomicBoolean isDone = new AtomicBoolean(false);
+        final List<FutureTask<Object>> actors =
         tasks.stream().
-        map(this::makeActor).
+        map(task -> actor(makeActor(task))).
         collect(Collectors.toList());
 
-        if (all) {
-            executor().invokeAll(collection);
-        } else {
-            executor().invokeAny(collection);
-        }
+        actors.forEach(actor -> {
+            final FutureTask<Object> winner = actor;
+            submit(
+                winner,
+                () -> {
+                    if (isDone.compareAndSet(false, true)) {
+                        actors.stream().
+                        filter(other -> other != winner).
+                        forEach(other -> other.cancel(true));
+                    }
+                }
+            );
+        });
+    }
+
+    // Subscribes without holding a thread, the continuation runs as an
+    // actor. A source that completes empty fails with TimeoutException.
+    protected <T> void await(
+        final Observable<T> source,
+        final Processable<? super T> processor
+    ) {
+        subscriptions().add(
+            source.
+            take(1).
+            switchIfEmpty(Observable.error(new TimeoutException("Nothing was awaited"))).
+            subscribe(
+                value -> {
+                    if (!isFinish()) {
+                        async(() -> processor.process(value));
+                    }
+                },
+                exception -> {
+                    if (!isFinish()) {
+                        trigger(() -> {throw exception;});
+                    }
+                }
+            )
+        );
     }
 
     protected <StateU extends StateT> void transit(final StateU state) throws Throwable {
@@ -191,11 +268,61 @@ public abstract class GeneralFSM<StateT extends Copyable<StateT>> implements FSM
     protected abstract boolean isFinal(final StateT state);
     protected abstract StateT errorState(final StateT state, final Throwable exception);
 
+    // Instrumentation hooks, run inline with every transition so they have
+    // to be cheap. Dwell is the time spent in the state being left.
+    protected void onStart(final StateT state) {}
+    protected void onTransit(final StateT from, final StateT to, final long dwellNanos) {}
+    protected void onError(final StateT from, final Throwable exception) {}
+
+
 
+    private GeneralFSM(
+        final StateT state, final StreamOpts opts,
+        final Executor eventPool, final ExecutorService taskPool,
+        final int taskLimit, final boolean isOwner,
+        final Journal<? super StateT> journal, final HistoryPolicy<StateT> retention
+    ) {
+        state_ = state;
+        journal_ = journal;
+        status_ =  new AtomicReference<Status>(Status.Ready);
+
+        events_ = new SerialExecutor(eventPool, taskLimit);
+        executor_ = taskPool;
+        actors_ = ConcurrentHashMap.newKeySet();
+        subscriptions_ = new CompositeSubscription();
+        pools_ = isOwner ?
+        Arrays.asList((ExecutorService)eventPool, taskPool) :
+        Collections.emptyList();
+
+        subject_ = PublishSubject.create();
+
+        final Observer<StateT> sink;
+        if (opts == StreamOpts.Always) {
+            final History<StateT> history = retention.history();
+            sink = history;
+            states_ = history.observable();
+        } else {
+            final BehaviorSubject<StateT> last = BehaviorSubject.create();
+            sink = last;
+            states_ = last.asObservable();
+        }
+
+        (
+            (opts == StreamOpts.Last) ?
+            (Function<Observable<StateT>, Observable<StateT>>)
+            Observable<StateT>::onBackpressureLatest :
+            (Function<Observable<StateT>, Observable<StateT>>)
+            Observable<StateT>::onBackpressureBuffer
+        ).apply(subject_.asObservable()).
+        subscribeOn(Schedulers.from(executor_)).
+        subscribe(sink);
+
+        eventThread_ = new AtomicReference<Thread>(null);
+    }
 
     private <StateU extends StateT> void trigger(final Executable executer) {
         try {
-            events().submit(() -> {
+            events().execute(() -> {
                 try {
                     if (isError()) {
                         throw new RejectedExecutionException("Event pool is full");
@@ -204,12 +331,19 @@ public abstract class GeneralFSM<StateT extends Copyable<StateT>> implements FSM
                     eventThread(Thread.currentThread());
                     executer.execute();
                 } catch (final Throwable exception) {
-                    state(errorState(state(), exception));
+                    final StateT from = state();
+                    state(errorState(from, exception));
+                    if (!isFinal(from)) {
+                        onError(from, exception);
+                        onTransit(from, state(), System.nanoTime() - entered());
+                    }
                     status(Status.Error);
                     subject().onNext(state());
+                    if (!isFinal(from)) {
+                        journalError();
+                    }
                     subject().onError(exception);
-                    events().shutdownNow();
-                    executor().shutdownNow();
+                    shutdown();
                 } finally {
                     eventThread(null);
                 }
@@ -219,7 +353,7 @@ public abstract class GeneralFSM<StateT extends Copyable<StateT>> implements FSM
         }
     }
 
-    private Callable<?> makeActor(final Executable executer) {
+    private Callable<Object> makeActor(final Executable executer) {
         return () -> {
             try {
                 executer.execute();
@@ -240,18 +374,81 @@ public abstract class GeneralFSM<StateT extends Copyable<StateT>> implements FSM
             throw new IllegalMonitorStateException("Transition only able in event thread");
         }
 
+        final long now = System.nanoTime();
+        final StateT from = state();
         this.state(state);
+        onTransit(from, state(), now - entered());
+        entered(now);
         subject().onNext(state().copy());
+
+        final CompletionStage<Void> durable = journal().write(state());
         if (isFinal(state())) {
             status(Status.Done);
             subject().onCompleted();
-            events().shutdownNow();
-            executor().shutdownNow();
+            shutdown();
         } else {
-            executer.execute();
+            durable.whenComplete((ignored, exception) -> {
+                try {
+                    if (exception != null) {
+                        throw exception;
+                    }
+
+                    executer.execute();
+                } catch (final Throwable error) {
+                    trigger(() -> {throw error;});
+                }
+            });
+        }
+    }
+
+    // The error state is journaled before the stream fails, otherwise a
+    // failed FSM would be recovered at its last good state and run again.
+    private void journalError() {
+        try {
+            journal().write(state());
+        } catch (final RuntimeException exception) {
+            // The FSM fails anyway
+        }
+    }
+
+    private FutureTask<Object> actor(final Callable<Object> callable) {
+        return new FutureTask<Object>(callable) {
+            @Override
+            protected void done() {
+                actors().remove(this);
+            }
+        };
+    }
+
+    private void submit(final Callable<Object> callable) {
+        submit(actor(callable), () -> {});
+    }
+
+    private void submit(final FutureTask<Object> actor, final Runnable onFinish) {
+        actors().add(actor);
+        try {
+            executor().execute(() -> {
+                try {
+                    actor.run();
+                } finally {
+                    if (!actor.isCancelled()) {
+                        onFinish.run();
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException exception) {
+            actors().remove(actor);
+            throw exception;
         }
     }
 
+    private void shutdown() {
+        events().close();
+        subscriptions().unsubscribe();
+        actors().forEach(actor -> actor.cancel(true));
+        pools().forEach(ExecutorService::shutdownNow);
+    }
+
     private StateT state() {
         return state_;
     }
@@ -260,11 +457,23 @@ public abstract class GeneralFSM<StateT extends Copyable<StateT>> implements FSM
         state_ = state;
     }
 
+    private long entered() {
+        return entered_;
+    }
+
+    private void entered(final long entered) {
+        entered_ = entered;
+    }
+
     private void status(final Status status) {
         status_.set(status);
     }
 
-    private ExecutorService events() {
+    private Journal<? super StateT> journal() {
+        return journal_;
+    }
+
+    private SerialExecutor events() {
         return events_;
     }
 
@@ -272,6 +481,18 @@ public abstract class GeneralFSM<StateT extends Copyable<StateT>> implements FSM
         return executor_;
     }
 
+    private Set<Future<?>> actors() {
+        return actors_;
+    }
+
+    private CompositeSubscription subscriptions() {
+        return subscriptions_;
+    }
+
+    private List<ExecutorService> pools() {
+        return pools_;
+    }
+
     private Subject<StateT, StateT> subject() {
         return subject_;
     }
@@ -285,11 +506,16 @@ public abstract class GeneralFSM<StateT extends Copyable<StateT>> implements FSM
     }
 
     private StateT state_;
+    private long entered_;
+    private final Journal<? super StateT> journal_;
     private final AtomicReference<Status> status_;
-    private final ExecutorService events_;
+    private final SerialExecutor events_;
     private final ExecutorService executor_;
+    private final Set<Future<?>> actors_;
+    private final CompositeSubscription subscriptions_;
+    private final List<ExecutorService> pools_;
     private final Subject<StateT, StateT> subject_;
-    private final Subject<StateT, StateT> states_;
+    private final Observable<StateT> states_;
     private final AtomicReference<Thread> eventThread_;
 
 }
\ No newline at end of file
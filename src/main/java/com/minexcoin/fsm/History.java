@@ -0,0 +1,266 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.fsm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+
+import rx.Observable;
+import rx.Observer;
+import rx.Subscription;
+import rx.subjects.PublishSubject;
+import rx.subjects.UnicastSubject;
+
+// Replays retained states to every subscriber and then continues live.
+// Each state gets a sequence number when recorded, a subscriber
+// listens live before taking the snapshot and drops live states
+// the snapshot already holds, so nothing is lost or repeated.
+final class History<StateT> implements Observer<StateT> {
+
+    public History(final HistoryPolicy<StateT> retention) {
+        retention_ = retention;
+        entries_ = new ArrayDeque<>();
+        first_ = Optional.empty();
+        spill_ = Optional.empty();
+        isSpillFailed_ = false;
+        spilled_ = 0;
+        sequence_ = 0;
+        live_ = PublishSubject.create();
+    }
+
+    public Observable<StateT> observable() {
+        return Observable.defer(() -> {
+            final UnicastSubject<Entry<StateT>> buffer = UnicastSubject.create();
+            final Subscription subscription = live().subscribe(buffer);
+
+            final List<StateT> snapshot;
+            final long last;
+            synchronized (this) {
+                evict(System.nanoTime());
+                snapshot = snapshot();
+                last = sequence_;
+            }
+
+            return Observable.from(snapshot).
+            concatWith(
+                buffer.
+                filter(entry -> entry.sequence() > last).
+                map(Entry::state)
+            ).
+            doOnUnsubscribe(subscription::unsubscribe);
+        });
+    }
+
+    @Override
+    public void onNext(final StateT state) {
+        final Entry<StateT> entry;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            entry = new Entry<>(++sequence_, now, state);
+
+            if (retention().keepsFirst() && !first_.isPresent()) {
+                first_ = Optional.of(entry);
+            } else {
+                entries().addLast(entry);
+            }
+            evict(now);
+        }
+
+        live().onNext(entry);
+    }
+
+    @Override
+    public void onCompleted() {
+        closeSpill();
+        live().onCompleted();
+    }
+
+    @Override
+    public void onError(final Throwable exception) {
+        closeSpill();
+        live().onError(exception);
+    }
+
+
+
+    private static final class Entry<StateT> {
+
+        public Entry(final long sequence, final long time, final StateT state) {
+            sequence_ = sequence;
+            time_ = time;
+            state_ = state;
+        }
+
+        public long sequence() {
+            return sequence_;
+        }
+
+        public long time() {
+            return time_;
+        }
+
+        public StateT state() {
+            return state_;
+        }
+
+        private final long sequence_;
+        private final long time_;
+        private final StateT state_;
+
+    }
+
+    private static final class Spill {
+
+        public Spill(final Path file) throws IOException {
+            file_ = file;
+            output_ = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+            isOpen_ = true;
+        }
+
+        public Path file() {
+            return file_;
+        }
+
+        public void write(final byte[] bytes) throws IOException {
+            output_.writeInt(bytes.length);
+            output_.write(bytes);
+        }
+
+        public void flush() throws IOException {
+            if (isOpen_) {
+                output_.flush();
+            }
+        }
+
+        public void close() {
+            if (isOpen_) {
+                isOpen_ = false;
+                try {
+                    output_.close();
+                } catch (final IOException exception) {
+                    // Records written so far are still readable
+                }
+            }
+        }
+
+        private final Path file_;
+        private final DataOutputStream output_;
+        private boolean isOpen_;
+
+    }
+
+    // Called under the lock.
+    private void evict(final long now) {
+        while (
+            (entries().size() > retention().count()) ||
+            (
+                (retention().nanos() > 0) && !entries().isEmpty() &&
+                (now - entries().peekFirst().time() > retention().nanos())
+            )
+        ) {
+            spill(entries().pollFirst().state());
+        }
+    }
+
+    // Called under the lock. A failed spill stops spilling,
+    // the history is then bounded by the memory policy only.
+    private void spill(final StateT state) {
+        if (!retention().codec().isPresent() || isSpillFailed_) {
+            return;
+        }
+
+        try {
+            if (!spill_.isPresent()) {
+                final Path file = Files.createTempFile(
+                    retention().directory().get(), "history-", ".log"
+                );
+                file.toFile().deleteOnExit();
+                spill_ = Optional.of(new Spill(file));
+            }
+
+            spill_.get().write(retention().codec().get().encode(state));
+            ++spilled_;
+        } catch (final IOException exception) {
+            isSpillFailed_ = true;
+            spill_.ifPresent(Spill::close);
+        }
+    }
+
+    // Called under the lock.
+    private List<StateT> snapshot() {
+        final List<StateT> snapshot = new ArrayList<>(entries().size() + 1);
+        first_.ifPresent(first -> snapshot.add(first.state()));
+
+        if (spilled_ > 0) {
+            try {
+                spill_.get().flush();
+
+                try (
+                    final DataInputStream input = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(spill_.get().file()))
+                    )
+                ) {
+                    for (long index = 0; index < spilled_; ++index) {
+                        final byte[] bytes = new byte[input.readInt()];
+                        input.readFully(bytes);
+                        snapshot.add(retention().codec().get().decode(bytes));
+                    }
+                }
+            } catch (final IOException exception) {
+                // Spill is unreadable, replay what was read
+            }
+        }
+
+        entries().forEach(entry -> snapshot.add(entry.state()));
+        return snapshot;
+    }
+
+    private synchronized void closeSpill() {
+        spill_.ifPresent(Spill::close);
+    }
+
+    private HistoryPolicy<StateT> retention() {
+        return retention_;
+    }
+
+    private Deque<Entry<StateT>> entries() {
+        return entries_;
+    }
+
+    private PublishSubject<Entry<StateT>> live() {
+        return live_;
+    }
+
+    private final HistoryPolicy<StateT> retention_;
+    private final Deque<Entry<StateT>> entries_;
+    private Optional<Entry<StateT>> first_;
+    private Optional<Spill> spill_;
+    private boolean isSpillFailed_;
+    private long spilled_;
+    private long sequence_;
+    private final PublishSubject<Entry<StateT>> live_;
+
+}
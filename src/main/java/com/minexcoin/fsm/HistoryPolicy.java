@@ -0,0 +1,118 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.fsm;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// How much of the state history states() replays to late subscribers.
+// Policies are immutable and may be shared, every FSM builds its own
+// history from them.
+public final class HistoryPolicy<StateT> {
+
+    public static interface Codec<StateT> {
+        byte[] encode(final StateT state) throws IOException;
+        StateT decode(final byte[] bytes) throws IOException;
+    }
+
+    public static <StateT> HistoryPolicy<StateT> all() {
+        return new HistoryPolicy<>(Integer.MAX_VALUE, 0, false, Optional.empty(), Optional.empty());
+    }
+
+    public static <StateT> HistoryPolicy<StateT> last(final int count) {
+        return new HistoryPolicy<>(count(count), 0, false, Optional.empty(), Optional.empty());
+    }
+
+    public static <StateT> HistoryPolicy<StateT> within(final long time, final TimeUnit unit) {
+        if (time <= 0) {
+            throw new IllegalArgumentException("Retention time must be positive: " + time);
+        }
+
+        return new HistoryPolicy<>(
+            Integer.MAX_VALUE, unit.toNanos(time), false,
+            Optional.empty(), Optional.empty()
+        );
+    }
+
+    // Initial state plus the most recent ones, the compacted
+    // view of a swap: what was requested and where it is now.
+    public static <StateT> HistoryPolicy<StateT> firstAndLast(final int count) {
+        return new HistoryPolicy<>(count(count), 0, true, Optional.empty(), Optional.empty());
+    }
+
+    // States evicted from memory are appended to a file in the directory
+    // and read back for every late subscriber, so replay stays complete.
+    public HistoryPolicy<StateT> spill(final Path directory, final Codec<StateT> codec) {
+        return new HistoryPolicy<>(
+            count(), nanos(), keepsFirst(),
+            Optional.of(directory), Optional.of(codec)
+        );
+    }
+
+    History<StateT> history() {
+        return new History<>(this);
+    }
+
+    int count() {
+        return count_;
+    }
+
+    long nanos() {
+        return nanos_;
+    }
+
+    boolean keepsFirst() {
+        return keepsFirst_;
+    }
+
+    Optional<Path> directory() {
+        return directory_;
+    }
+
+    Optional<Codec<StateT>> codec() {
+        return codec_;
+    }
+
+
+
+    private HistoryPolicy(
+        final int count, final long nanos, final boolean keepsFirst,
+        final Optional<Path> directory, final Optional<Codec<StateT>> codec
+    ) {
+        count_ = count;
+        nanos_ = nanos;
+        keepsFirst_ = keepsFirst;
+        directory_ = directory;
+        codec_ = codec;
+    }
+
+    private static int count(final int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Retained states count must be positive: " + count);
+        }
+
+        return count;
+    }
+
+    private final int count_;
+    private final long nanos_;
+    private final boolean keepsFirst_;
+    private final Optional<Path> directory_;
+    private final Optional<Codec<StateT>> codec_;
+
+}
@@ -0,0 +1,127 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.fsm;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class SerialExecutor implements Executor {
+
+    public SerialExecutor(final Executor executor, final int limit) {
+        executor_ = executor;
+        limit_ = limit;
+        tasks_ = new ConcurrentLinkedQueue<>();
+        size_ = new AtomicInteger();
+        isRunning_ = new AtomicBoolean(false);
+        isClosed_ = new AtomicBoolean(false);
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        if (isClosed().get()) {
+            throw new RejectedExecutionException("Mailbox is closed");
+        }
+
+        if (size().incrementAndGet() > limit()) {
+            size().decrementAndGet();
+            throw new RejectedExecutionException("Mailbox is full");
+        }
+
+        tasks().add(task);
+        schedule();
+    }
+
+    public void close() {
+        isClosed().set(true);
+        tasks().clear();
+    }
+
+
+
+    private void schedule() {
+        if (!isRunning().compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor().execute(this::drain);
+        } catch (final RejectedExecutionException exception) {
+            isRunning().set(false);
+            throw exception;
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int count = 0; count < DrainLimit; ++count) {
+                final Runnable task = tasks().poll();
+                if (task == null) {
+                    break;
+                }
+
+                size().decrementAndGet();
+                if (!isClosed().get()) {
+                    task.run();
+                }
+            }
+        } finally {
+            isRunning().set(false);
+            if (!tasks().isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    private Executor executor() {
+        return executor_;
+    }
+
+    private int limit() {
+        return limit_;
+    }
+
+    private Queue<Runnable> tasks() {
+        return tasks_;
+    }
+
+    private AtomicInteger size() {
+        return size_;
+    }
+
+    private AtomicBoolean isRunning() {
+        return isRunning_;
+    }
+
+    private AtomicBoolean isClosed() {
+        return isClosed_;
+    }
+
+    // Mailbox gives its pool thread back after this many events
+    // so a busy FSM can't starve the others on a shared pool.
+    private static final int DrainLimit = 16;
+
+    private final Executor executor_;
+    private final int limit_;
+    private final Queue<Runnable> tasks_;
+    private final AtomicInteger size_;
+    private final AtomicBoolean isRunning_;
+    private final AtomicBoolean isClosed_;
+
+}
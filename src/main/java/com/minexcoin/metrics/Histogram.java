@@ -0,0 +1,143 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+
+package com.minexcoin.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram of non-negative longs, every power of two is
+// split in SubBuckets equal buckets. Recording is lock-free and does not
+// allocate, readers see each bucket atomically but not the whole set.
+public final class Histogram {
+
+    public Histogram() {
+        counts_ = new AtomicLongArray(Buckets);
+        total_ = new LongAdder();
+    }
+
+    public void record(final long value) {
+        counts().incrementAndGet(index(value));
+        total().add(value);
+    }
+
+    public long count() {
+        long count = 0;
+        for (int index = 0; index < Buckets; ++index) {
+            count += counts().get(index);
+        }
+
+        return count;
+    }
+
+    public long sum() {
+        return total().sum();
+    }
+
+    // Upper bound of the bucket holding the given fraction of samples,
+    // zero when nothing was recorded.
+    public long percentile(final double fraction) {
+        final long total = count();
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = (long)Math.ceil(fraction * total);
+        long seen = 0;
+        for (int index = 0; index < Buckets - 1; ++index) {
+            seen += counts().get(index);
+            if (seen >= rank) {
+                return upperBound(index);
+            }
+        }
+
+        return Long.MAX_VALUE;
+    }
+
+    // Writes cumulative buckets, sum and count of one series, values are
+    // divided by unit, e.g. 1e9 to report nanoseconds in seconds.
+    public void write(
+        final StringBuilder out,
+        final String name, final String labels, final double unit
+    ) {
+        final String prefix = labels.isEmpty() ? "" : labels + ",";
+
+        long cumulative = 0;
+        for (int index = 0; index < Buckets - 1; ++index) {
+            cumulative += counts().get(index);
+            out.append(name).append("_bucket{").append(prefix).
+            append("le=\"").append(upperBound(index) / unit).append("\"} ").
+            append(cumulative).append('\n');
+        }
+        cumulative += counts().get(Buckets - 1);
+
+        out.append(name).append("_bucket{").append(prefix).
+        append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum").append(braces(labels)).append(' ').
+        append(sum() / unit).append('\n');
+        out.append(name).append("_count").append(braces(labels)).append(' ').
+        append(cumulative).append('\n');
+    }
+
+
+
+    static int index(final long value) {
+        if (value < Lowest) {
+            return 0;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MaxExponent) {
+            return Buckets - 1;
+        }
+
+        final int sub = (int)(value >>> (exponent - SubBits)) & (SubBuckets - 1);
+        return 1 + (exponent - MinExponent) * SubBuckets + sub;
+    }
+
+    static long upperBound(final int index) {
+        if (index == 0) {
+            return Lowest;
+        }
+
+        final int exponent = MinExponent + (index - 1) / SubBuckets;
+        final int sub = (index - 1) % SubBuckets;
+        return (long)(SubBuckets + sub + 1) << (exponent - SubBits);
+    }
+
+    private static String braces(final String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private AtomicLongArray counts() {
+        return counts_;
+    }
+
+    private LongAdder total() {
+        return total_;
+    }
+
+    private static final int SubBits = 1;
+    private static final int SubBuckets = 1 << SubBits;
+    private static final int MinExponent = 10; // ~1 microsecond in nanoseconds
+    private static final int MaxExponent = 44; // ~5 hours in nanoseconds
+    private static final long Lowest = 1L << MinExponent;
+    static final int Buckets = 2 + (MaxExponent - MinExponent + 1) * SubBuckets;
+
+    private final AtomicLongArray counts_;
+    private final LongAdder total_;
+
+}
@@ -0,0 +1,113 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+
+package com.minexcoin.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Pull endpoint, serves GET /metrics in the Prometheus text format.
+// Sets are rendered on request only, recording never waits for scrapes.
+public final class MetricsEndpoint implements AutoCloseable {
+
+    public static MetricsEndpoint start(
+        final InetSocketAddress inetAddress, final MetricSet... sets
+    ) throws IOException {
+        return new MetricsEndpoint(inetAddress, Arrays.asList(sets));
+    }
+
+    public InetSocketAddress address() {
+        return server().getAddress();
+    }
+
+    public String scrape() {
+        final StringBuilder out = new StringBuilder(ScrapeCapacity);
+        sets().forEach(set -> set.write(out));
+        return out.toString();
+    }
+
+    @Override
+    public void close() {
+        server().stop(0);
+        executor().shutdownNow();
+    }
+
+
+
+    private MetricsEndpoint(
+        final InetSocketAddress inetAddress, final List<MetricSet> sets
+    ) throws IOException {
+        sets_ = Collections.unmodifiableList(sets);
+        executor_ = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("MetricsEndpoint").setDaemon(true).build()
+        );
+
+        server_ = HttpServer.create(inetAddress, 0);
+        server_.createContext(Path, this::handle);
+        server_.setExecutor(executor_);
+        server_.start();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            final byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", ContentType);
+            exchange.sendResponseHeaders(200, body.length);
+            try (final OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private List<MetricSet> sets() {
+        return sets_;
+    }
+
+    private ExecutorService executor() {
+        return executor_;
+    }
+
+    private HttpServer server() {
+        return server_;
+    }
+
+    private static final String Path = "/metrics";
+    private static final String ContentType = "text/plain; version=0.0.4; charset=utf-8";
+    private static final int ScrapeCapacity = 64 * 1024;
+
+    private final List<MetricSet> sets_;
+    private final ExecutorService executor_;
+    private final HttpServer server_;
+
+}
@@ -0,0 +1,121 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.fsm.data;
+
+import java.net.InetSocketAddress;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.TestNet3Params;
+
+import junit.framework.TestCase;
+
+public class ImmutableDataTest extends TestCase {
+
+    public void testCopiesConfiguration() {
+        final SimpleData simple = simple();
+        final Data data = ImmutableData.of(simple);
+
+        assertEquals(simple.inetAddress(), data.inetAddress());
+        assertEquals(simple.nodeAddress(), data.nodeAddress());
+        assertEquals(simple.nodeLogin(), data.nodeLogin());
+        assertEquals(simple.nodePassword(), data.nodePassword());
+        assertEquals(simple.notificationPort(), data.notificationPort());
+        assertEquals(simple.amount(), data.amount());
+        assertSame(simple.myKey(), data.myKey());
+        assertSame(simple.otherKey(), data.otherKey());
+        assertEquals(simple.confirmations(), data.confirmations());
+        assertEquals(simple.csv(), data.csv());
+        assertSame(simple.netParams(), data.netParams());
+        assertEquals(simple.secretHash(), data.secretHash());
+        assertNull(data.secret());
+        assertNull(data.txOutPoint());
+        assertNull(data.closeTx());
+    }
+
+    public void testWithersMatchSimpleData() {
+        final SimpleData simple = simple();
+        final Data data = ImmutableData.of(simple);
+
+        assertSame(data, ImmutableData.of(data));
+        assertSame(data, data.clone());
+
+        assertSameProgress(simple.withSecret(Secret), data.withSecret(Secret));
+        assertSameProgress(
+            simple.withSecret(Secret).withSecretHash(SecretHash),
+            data.withSecret(Secret).withSecretHash(SecretHash)
+        );
+        assertSameProgress(simple.withTxOutPoint(outPoint()), data.withTxOutPoint(outPoint()));
+        assertSameProgress(simple.withCloseTx(CloseTx), data.withCloseTx(CloseTx));
+        assertSameProgress(
+            simple.withSecret(Secret).withTxOutPoint(outPoint()).withCloseTx(CloseTx),
+            data.withSecret(Secret).withTxOutPoint(outPoint()).withCloseTx(CloseTx)
+        );
+    }
+
+    public void testWithersLeaveOriginalAlone() {
+        final SimpleData simple = simple();
+        final Data data = ImmutableData.of(simple);
+
+        final Data changed = data.withSecret(Secret).withTxOutPoint(outPoint());
+        assertEquals(Sha256Hash.of(Secret.getBytes()), changed.secretHash());
+        assertNull(data.secret());
+        assertNull(data.txOutPoint());
+        assertEquals(SecretHash, data.secretHash());
+
+        simple.withCloseTx(CloseTx);
+        assertNull(simple.closeTx());
+    }
+
+
+
+    private static void assertSameProgress(final Data expected, final Data actual) {
+        assertEquals(expected.secret(), actual.secret());
+        assertEquals(expected.secretHash(), actual.secretHash());
+        assertEquals(expected.txOutPoint(), actual.txOutPoint());
+        assertEquals(expected.closeTx(), actual.closeTx());
+        assertEquals(expected.amount(), actual.amount());
+        assertEquals(expected.csv(), actual.csv());
+    }
+
+    private static SimpleData simple() {
+        final SimpleData data = new SimpleData();
+        data.inetAddress(new InetSocketAddress("127.0.0.1", 5556));
+        data.nodeAddress(new InetSocketAddress("127.0.0.1", 18332));
+        data.nodeLogin("user");
+        data.nodePassword("password");
+        data.notificationPort(7778);
+        data.amount(Coin.valueOf(200000));
+        data.myKey(new ECKey());
+        data.otherKey(new ECKey());
+        data.confirmations(3);
+        data.csv(10);
+        data.netParams(TestNet3Params.get());
+        data.secretHash(SecretHash);
+        return data;
+    }
+
+    private static TransactionOutPoint outPoint() {
+        return new TransactionOutPoint(TestNet3Params.get(), 1, CloseTx);
+    }
+
+    private static final Sha256Hash Secret = Sha256Hash.of(new byte[] {1, 2, 3});
+    private static final Sha256Hash SecretHash = Sha256Hash.of(new byte[] {4, 5, 6});
+    private static final Sha256Hash CloseTx = Sha256Hash.of(new byte[] {7, 8, 9});
+
+}
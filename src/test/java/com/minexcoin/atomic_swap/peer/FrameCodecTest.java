@@ -0,0 +1,168 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.peer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.bitcoinj.core.Sha256Hash;
+
+import junit.framework.TestCase;
+
+public class FrameCodecTest extends TestCase {
+
+    public void testRoundTripsThroughBuffer() throws ProtocolException {
+        final Frame frame = frame(MessageType.Funding, 100);
+        final ByteBuffer buffer = FrameCodec.encode(frame);
+
+        assertSameFrame(frame, FrameCodec.decode(buffer).get());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    public void testRoundTripsThroughStream() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Frame first = frame(MessageType.Hello, 0);
+        final Frame second = frame(MessageType.Commit, FrameCodec.MaxPayloadSize);
+        FrameCodec.write(output, first);
+        FrameCodec.write(output, second);
+
+        final ByteArrayInputStream input = new ByteArrayInputStream(output.toByteArray());
+        assertSameFrame(first, FrameCodec.read(input));
+        assertSameFrame(second, FrameCodec.read(input));
+        assertEquals(0, input.available());
+    }
+
+    public void testWaitsForWholeFrame() throws ProtocolException {
+        final byte[] encoded = FrameCodec.encode(frame(MessageType.Reveal, 40)).array();
+        final ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.MaxFrameSize);
+
+        for (int index = 0; index < encoded.length - 1; ++index) {
+            buffer.put(encoded[index]);
+            buffer.flip();
+            assertFalse(FrameCodec.decode(buffer).isPresent());
+            assertEquals(0, buffer.position());
+            buffer.compact();
+        }
+
+        buffer.put(encoded[encoded.length - 1]);
+        buffer.flip();
+        assertTrue(FrameCodec.decode(buffer).isPresent());
+    }
+
+    public void testRejectsBadChecksum() {
+        final byte[] encoded = FrameCodec.encode(frame(MessageType.Funding, 10)).array();
+        encoded[encoded.length - ChecksumSize - 1] ^= 0x01;
+
+        try {
+            FrameCodec.decode(ByteBuffer.wrap(encoded));
+            fail("Corrupted payload decoded");
+        } catch (final ProtocolException exception) {
+            // expected
+        }
+
+        try {
+            FrameCodec.read(new ByteArrayInputStream(encoded));
+            fail("Corrupted payload read");
+        } catch (final IOException exception) {
+            assertTrue(exception instanceof ProtocolException);
+        }
+    }
+
+    public void testRejectsUnknownType() {
+        final byte[] encoded = FrameCodec.encode(frame(MessageType.Funding, 10)).array();
+        encoded[0] = 99;
+        rechecksum(encoded);
+
+        try {
+            FrameCodec.decode(ByteBuffer.wrap(encoded));
+            fail("Unknown type decoded");
+        } catch (final ProtocolException exception) {
+            // expected
+        }
+    }
+
+    public void testRejectsOversize() {
+        try {
+            FrameCodec.encode(frame(MessageType.Funding, FrameCodec.MaxPayloadSize + 1));
+            fail("Oversize frame encoded");
+        } catch (final IllegalArgumentException exception) {
+            // expected
+        }
+
+        // Only the header is needed to refuse a frame
+        final ByteBuffer header = ByteBuffer.allocate(LengthOffset + 4);
+        header.put(MessageType.Funding.code()).put(new byte[Sha256Hash.LENGTH]);
+        header.putInt(FrameCodec.MaxPayloadSize + 1).flip();
+        try {
+            FrameCodec.decode(header.duplicate());
+            fail("Oversize length accepted");
+        } catch (final ProtocolException exception) {
+            // expected
+        }
+
+        header.putInt(LengthOffset, -1);
+        try {
+            FrameCodec.read(new ByteArrayInputStream(header.array()));
+            fail("Negative length accepted");
+        } catch (final IOException exception) {
+            assertTrue(exception instanceof ProtocolException);
+        }
+    }
+
+    public void testReadFailsOnTruncatedStream() throws IOException {
+        final byte[] encoded = FrameCodec.encode(frame(MessageType.Funding, 10)).array();
+
+        try {
+            FrameCodec.read(new ByteArrayInputStream(Arrays.copyOf(encoded, encoded.length - 1)));
+            fail("Truncated frame read");
+        } catch (final EOFException exception) {
+            // expected
+        }
+    }
+
+
+
+    private static Frame frame(final MessageType type, final int size) {
+        final byte[] payload = new byte[size];
+        for (int index = 0; index < size; ++index) {
+            payload[index] = (byte)(index * 31);
+        }
+
+        return new Frame(type, Sha256Hash.of(new byte[] {type.code()}), payload);
+    }
+
+    private static void assertSameFrame(final Frame expected, final Frame actual) {
+        assertEquals(expected.type(), actual.type());
+        assertEquals(expected.swapId(), actual.swapId());
+        assertTrue(Arrays.equals(expected.payload(), actual.payload()));
+    }
+
+    private static void rechecksum(final byte[] encoded) {
+        final int length = encoded.length - ChecksumSize;
+        ByteBuffer.wrap(encoded).putInt(
+            length, ByteBuffer.wrap(Sha256Hash.hashTwice(encoded, 0, length)).getInt()
+        );
+    }
+
+    private static final int LengthOffset = 1 + Sha256Hash.LENGTH;
+    private static final int ChecksumSize = 4;
+
+}
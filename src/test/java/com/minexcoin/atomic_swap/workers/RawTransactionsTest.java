@@ -0,0 +1,201 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.atomic_swap.workers;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.VarInt;
+import org.bitcoinj.params.TestNet3Params;
+import org.bitcoinj.script.ScriptBuilder;
+
+import junit.framework.TestCase;
+
+public class RawTransactionsTest extends TestCase {
+
+    public void testFindsSecretAmongPushes() {
+        final byte[] script = claimScript(Secret);
+        final int offset = RawTransactions.secretOffset(
+            script, 0, script.length, SecretHash.getBytes()
+        );
+
+        assertTrue(offset > 0);
+        assertEquals(
+            Secret,
+            Sha256Hash.wrap(Arrays.copyOfRange(script, offset, offset + Sha256Hash.LENGTH))
+        );
+        assertEquals(
+            -1,
+            RawTransactions.secretOffset(script, 0, script.length, Sha256Hash.ZERO_HASH.getBytes())
+        );
+    }
+
+    public void testTruncatedScriptDoesNotMatch() {
+        final byte[] script = claimScript(Secret);
+        for (int length = 0; length < script.length - 1; ++length) {
+            assertEquals(
+                -1,
+                RawTransactions.secretOffset(script, 0, length, SecretHash.getBytes())
+            );
+        }
+    }
+
+    public void testSecretOfSpendingInput() {
+        for (final byte[] raw : Arrays.asList(legacy(), witness())) {
+            assertEquals(
+                Optional.of(Secret),
+                RawTransactions.secret(raw, spent(), SecretHash)
+            );
+            assertFalse(RawTransactions.secret(raw, other(), SecretHash).isPresent());
+            assertFalse(RawTransactions.secret(raw, spent(), Sha256Hash.ZERO_HASH).isPresent());
+
+            for (int length = 0; length < raw.length; ++length) {
+                // Truncations don't throw, at most the secret is still found
+                RawTransactions.secret(Arrays.copyOf(raw, length), spent(), SecretHash);
+            }
+        }
+    }
+
+    public void testStripsWitness() {
+        final byte[] legacy = legacy();
+
+        assertSame(legacy, RawTransactions.stripWitness(legacy));
+        assertTrue(Arrays.equals(legacy, RawTransactions.stripWitness(witness())));
+        assertEquals(
+            transaction().getHash(),
+            RawTransactions.parse(Params, witness()).getHash()
+        );
+    }
+
+    public void testRejectsTruncatedWitness() {
+        final byte[] raw = witness();
+        for (int length = 6; length < raw.length; ++length) {
+            try {
+                RawTransactions.stripWitness(Arrays.copyOf(raw, length));
+                fail("Took " + length + " of " + raw.length + " bytes");
+            } catch (final ProtocolException exception) {
+                // expected
+            }
+        }
+    }
+
+    public void testMeasuresTransactions() {
+        for (final byte[] raw : Arrays.asList(legacy(), witness())) {
+            assertEquals(raw.length, RawTransactions.txLength(raw, 0));
+
+            for (int length = 0; length < raw.length; ++length) {
+                assertEquals(-1, RawTransactions.txLength(Arrays.copyOf(raw, length), 0));
+            }
+        }
+    }
+
+    public void testReadsBlockTransactions() {
+        final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        block.write(new byte[80], 0, 80);
+        write(block, new VarInt(3).encode());
+        write(block, legacy());
+        write(block, witness());
+        // Truncated last transaction is left out
+        write(block, Arrays.copyOf(legacy(), 20));
+
+        final List<Transaction> transactions =
+            RawTransactions.blockTransactions(Params, block.toByteArray());
+
+        assertEquals(2, transactions.size());
+        assertEquals(transaction().getHash(), transactions.get(0).getHash());
+        assertEquals(transaction().getHash(), transactions.get(1).getHash());
+    }
+
+
+
+    // Claim of an HTLC: signature, key, secret and the branch selector.
+    private static byte[] claimScript(final Sha256Hash secret) {
+        return new ScriptBuilder().
+        data(new byte[71]).
+        data(Key.getPubKey()).
+        data(secret.getBytes()).
+        smallNum(1).
+        build().
+        getProgram();
+    }
+
+    // Spends another output first, then the HTLC one.
+    private static Transaction transaction() {
+        final Transaction transaction = new Transaction(Params);
+        transaction.setVersion(2);
+        transaction.addInput(new TransactionInput(
+            Params, transaction, new ScriptBuilder().data(new byte[71]).build().getProgram(),
+            other()
+        ));
+        transaction.addInput(new TransactionInput(
+            Params, transaction, claimScript(Secret), spent()
+        ));
+        transaction.addOutput(Coin.valueOf(100000), Key.toAddress(Params));
+        return transaction;
+    }
+
+    private static byte[] legacy() {
+        return transaction().unsafeBitcoinSerialize();
+    }
+
+    // BIP144 form of legacy(): marker, flag and a witness stack per input.
+    private static byte[] witness() {
+        final byte[] legacy = legacy();
+        final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        raw.write(legacy, 0, 4);
+        raw.write(0);
+        raw.write(1);
+        raw.write(legacy, 4, legacy.length - 8);
+
+        write(raw, new VarInt(2).encode());
+        write(raw, new VarInt(72).encode());
+        write(raw, new byte[72]);
+        write(raw, new VarInt(33).encode());
+        write(raw, Key.getPubKey());
+        write(raw, new VarInt(0).encode());
+
+        raw.write(legacy, legacy.length - 4, 4);
+        return raw.toByteArray();
+    }
+
+    private static void write(final ByteArrayOutputStream out, final byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static TransactionOutPoint spent() {
+        return new TransactionOutPoint(Params, 1, Sha256Hash.of(new byte[] {1}));
+    }
+
+    private static TransactionOutPoint other() {
+        return new TransactionOutPoint(Params, 0, Sha256Hash.of(new byte[] {2}));
+    }
+
+    private static final NetworkParameters Params = TestNet3Params.get();
+    private static final ECKey Key = new ECKey();
+    private static final Sha256Hash Secret = Sha256Hash.of(new byte[] {3});
+    private static final Sha256Hash SecretHash = Sha256Hash.of(Secret.getBytes());
+
+}
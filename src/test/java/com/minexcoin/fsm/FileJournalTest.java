@@ -0,0 +1,150 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.fsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+import junit.framework.TestCase;
+
+public class FileJournalTest extends TestCase {
+
+    @Override
+    protected void setUp() throws IOException {
+        path_ = Files.createTempFile("journal", ".log");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        Files.deleteIfExists(path());
+    }
+
+    public void testReplaysLastPayloadOfEveryKey() throws Exception {
+        try (final FileJournal journal = FileJournal.open(path())) {
+            journal.append("a", bytes("a1")).get();
+            journal.append("b", bytes("b1")).get();
+            journal.append("a", bytes("a2")).get();
+        }
+
+        try (final FileJournal journal = FileJournal.open(path())) {
+            assertEquals(2, journal.recovered().size());
+            assertEquals("a2", string(journal.recovered("a").get()));
+            assertEquals("b1", string(journal.recovered("b").get()));
+            assertFalse(journal.recovered("c").isPresent());
+        }
+    }
+
+    public void testCutsTornTail() throws Exception {
+        try (final FileJournal journal = FileJournal.open(path())) {
+            journal.append("a", bytes("a1")).get();
+            journal.append("b", bytes("b1")).get();
+        }
+        final long good = Files.size(path());
+
+        try (final FileJournal journal = FileJournal.open(path())) {
+            journal.append("a", bytes("a2")).get();
+        }
+        truncate(Files.size(path()) - 3);
+
+        try (final FileJournal journal = FileJournal.open(path())) {
+            assertEquals(good, Files.size(path()));
+            assertEquals("a1", string(journal.recovered("a").get()));
+
+            // New records follow the last good one
+            journal.append("c", bytes("c1")).get();
+        }
+
+        try (final FileJournal journal = FileJournal.open(path())) {
+            assertEquals("a1", string(journal.recovered("a").get()));
+            assertEquals("b1", string(journal.recovered("b").get()));
+            assertEquals("c1", string(journal.recovered("c").get()));
+        }
+    }
+
+    public void testCutsCorruptedRecord() throws Exception {
+        try (final FileJournal journal = FileJournal.open(path())) {
+            journal.append("a", bytes("a1")).get();
+            journal.append("a", bytes("a2")).get();
+        }
+
+        // Last byte of the last payload
+        final byte[] raw = Files.readAllBytes(path());
+        raw[raw.length - 1] ^= 0x01;
+        Files.write(path(), raw);
+
+        try (final FileJournal journal = FileJournal.open(path())) {
+            assertEquals("a1", string(journal.recovered("a").get()));
+            assertTrue(Files.size(path()) < raw.length);
+        }
+    }
+
+    public void testRejectsAppendAfterClose() throws Exception {
+        final FileJournal journal = FileJournal.open(path());
+        journal.close();
+
+        try {
+            journal.append("a", bytes("a1")).get();
+            fail("Closed journal took a record");
+        } catch (final ExecutionException exception) {
+            assertTrue(exception.getCause() instanceof IOException);
+        }
+    }
+
+    public void testKeepsBinaryPayload() throws Exception {
+        final byte[] payload = new byte[1024];
+        for (int index = 0; index < payload.length; ++index) {
+            payload[index] = (byte)index;
+        }
+
+        try (final FileJournal journal = FileJournal.open(path())) {
+            journal.append("a", payload).get();
+        }
+
+        try (final FileJournal journal = FileJournal.open(path())) {
+            assertTrue(Arrays.equals(payload, journal.recovered("a").get()));
+        }
+    }
+
+
+
+    private void truncate(final long size) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path(), StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(final byte[] bytes) {
+        return StandardCharsets.UTF_8.decode(ByteBuffer.wrap(bytes)).toString();
+    }
+
+    private Path path() {
+        return path_;
+    }
+
+    private Path path_;
+
+}
@@ -0,0 +1,160 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.fsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+import rx.observers.TestSubscriber;
+
+public class HistoryTest extends TestCase {
+
+    @Override
+    protected void setUp() throws IOException {
+        directory_ = Files.createTempDirectory("history");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (final Stream<Path> files = Files.list(directory())) {
+            for (final Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory());
+    }
+
+    public void testReplaysAllThenLive() {
+        final History<Integer> history = HistoryPolicy.<Integer>all().history();
+        record(history, 1, 5);
+
+        final TestSubscriber<Integer> subscriber = subscribe(history);
+        record(history, 6, 7);
+        history.onCompleted();
+
+        subscriber.assertValues(1, 2, 3, 4, 5, 6, 7);
+        subscriber.assertCompleted();
+    }
+
+    public void testKeepsLastCount() {
+        final History<Integer> history = HistoryPolicy.<Integer>last(2).history();
+        record(history, 1, 5);
+
+        assertEquals(Arrays.asList(4, 5), replay(history));
+    }
+
+    public void testKeepsFirstAndLast() {
+        final History<Integer> history = HistoryPolicy.<Integer>firstAndLast(2).history();
+        record(history, 1, 5);
+
+        assertEquals(Arrays.asList(1, 4, 5), replay(history));
+    }
+
+    public void testEvictsByAge() throws InterruptedException {
+        final History<Integer> history =
+            HistoryPolicy.<Integer>within(50, TimeUnit.MILLISECONDS).history();
+        record(history, 1, 3);
+        Thread.sleep(100);
+        record(history, 4, 5);
+
+        assertEquals(Arrays.asList(4, 5), replay(history));
+    }
+
+    public void testReplaysSpilledInOrder() {
+        final History<Integer> history =
+            HistoryPolicy.<Integer>last(2).spill(directory(), Ints).history();
+        record(history, 1, 6);
+
+        assertEquals(range(1, 6), replay(history));
+        // Spill is read again for every subscriber
+        assertEquals(range(1, 6), replay(history));
+
+        record(history, 7, 8);
+        assertEquals(range(1, 8), replay(history));
+    }
+
+    public void testSpillKeepsFirstAhead() {
+        final History<Integer> history =
+            HistoryPolicy.<Integer>firstAndLast(1).spill(directory(), Ints).history();
+        record(history, 1, 5);
+
+        assertEquals(range(1, 5), replay(history));
+    }
+
+    public void testReplaysAfterCompletion() {
+        final History<Integer> history =
+            HistoryPolicy.<Integer>last(2).spill(directory(), Ints).history();
+        record(history, 1, 4);
+        history.onCompleted();
+
+        final TestSubscriber<Integer> subscriber = subscribe(history);
+        subscriber.assertValues(1, 2, 3, 4);
+        subscriber.assertCompleted();
+    }
+
+
+
+    private static void record(final History<Integer> history, final int from, final int to) {
+        for (int state = from; state <= to; ++state) {
+            history.onNext(state);
+        }
+    }
+
+    private static TestSubscriber<Integer> subscribe(final History<Integer> history) {
+        final TestSubscriber<Integer> subscriber = TestSubscriber.create();
+        history.observable().subscribe(subscriber);
+        return subscriber;
+    }
+
+    private static List<Integer> replay(final History<Integer> history) {
+        final TestSubscriber<Integer> subscriber = subscribe(history);
+        subscriber.unsubscribe();
+        return subscriber.getOnNextEvents();
+    }
+
+    private static List<Integer> range(final int from, final int to) {
+        return IntStream.rangeClosed(from, to).boxed().collect(Collectors.toList());
+    }
+
+    private Path directory() {
+        return directory_;
+    }
+
+    private static final HistoryPolicy.Codec<Integer> Ints = new HistoryPolicy.Codec<Integer>() {
+        @Override
+        public byte[] encode(final Integer state) {
+            return ByteBuffer.allocate(4).putInt(state).array();
+        }
+
+        @Override
+        public Integer decode(final byte[] bytes) {
+            return ByteBuffer.wrap(bytes).getInt();
+        }
+    };
+
+    private Path directory_;
+
+}
@@ -0,0 +1,102 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.fsm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class SerialExecutorTest extends TestCase {
+
+    public void testRunsTasksInSubmissionOrder() throws InterruptedException {
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final SerialExecutor executor = new SerialExecutor(pool, TaskCount);
+            final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger overlaps = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(TaskCount);
+
+            for (int index = 0; index < TaskCount; ++index) {
+                final int task = index;
+                executor.execute(() -> {
+                    if (running.incrementAndGet() != 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    order.add(task);
+                    running.decrementAndGet();
+                    done.countDown();
+                });
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(0, overlaps.get());
+            for (int index = 0; index < TaskCount; ++index) {
+                assertEquals(index, order.get(index).intValue());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public void testRejectsPastLimit() {
+        final List<Runnable> drains = new ArrayList<>();
+        final SerialExecutor executor = new SerialExecutor(drains::add, 2);
+
+        executor.execute(() -> {});
+        executor.execute(() -> {});
+        try {
+            executor.execute(() -> {});
+            fail("Third task fits a mailbox of two");
+        } catch (final RejectedExecutionException exception) {
+            // expected
+        }
+
+        // Draining frees the slots again.
+        assertEquals(1, drains.size());
+        drains.remove(0).run();
+        executor.execute(() -> {});
+    }
+
+    public void testDropsTasksOnClose() {
+        final List<Runnable> drains = new ArrayList<>();
+        final SerialExecutor executor = new SerialExecutor(drains::add, 16);
+        final AtomicInteger runs = new AtomicInteger();
+
+        executor.execute(runs::incrementAndGet);
+        executor.close();
+        drains.remove(0).run();
+        assertEquals(0, runs.get());
+
+        try {
+            executor.execute(runs::incrementAndGet);
+            fail("Closed mailbox took a task");
+        } catch (final RejectedExecutionException exception) {
+            // expected
+        }
+    }
+
+    private static final int TaskCount = 10000;
+
+}
@@ -0,0 +1,95 @@
+// Copyright (c) 2018 MinexSystems Limited
+// Distributed under the MIT software license, see the accompanying
+// file COPYING or http://www.opensource.org/licenses/mit-license.php.
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the
+// Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject
+// to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR
+// ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH
+// THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.minexcoin.metrics;
+
+import junit.framework.TestCase;
+
+public class HistogramTest extends TestCase {
+
+    public void testBoundsGrowWithIndex() {
+        for (int index = 1; index < Histogram.Buckets - 1; ++index) {
+            assertTrue(Histogram.upperBound(index) > Histogram.upperBound(index - 1));
+        }
+    }
+
+    // Every bucket holds [upperBound(index - 1), upperBound(index)).
+    public void testValueFallsBelowItsBound() {
+        for (int shift = 0; shift < 63; ++shift) {
+            for (final long delta : new long[] {-1, 0, 1}) {
+                final long value = (1L << shift) + delta;
+                if (value < 0) {
+                    continue;
+                }
+
+                final int index = Histogram.index(value);
+                assertTrue(index >= 0 && index < Histogram.Buckets);
+                if (index == Histogram.Buckets - 1) {
+                    assertTrue(value >= Histogram.upperBound(index - 1));
+                    continue;
+                }
+
+                assertTrue(value + " above its bucket", value < Histogram.upperBound(index));
+                if (index > 0) {
+                    assertTrue(value + " below its bucket", value >= Histogram.upperBound(index - 1));
+                }
+            }
+        }
+    }
+
+    public void testEdges() {
+        assertEquals(0, Histogram.index(0));
+        assertEquals(0, Histogram.index(1023));
+        assertEquals(1, Histogram.index(1024));
+        assertEquals(1536, Histogram.upperBound(1));
+        assertEquals(2, Histogram.index(1536));
+        assertEquals(3, Histogram.index(2048));
+        assertEquals(Histogram.Buckets - 1, Histogram.index(Long.MAX_VALUE));
+    }
+
+    public void testPercentiles() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.percentile(0.5));
+
+        for (int index = 0; index < 98; ++index) {
+            histogram.record(100);
+        }
+        histogram.record(1024);
+        histogram.record(Long.MAX_VALUE / 2);
+
+        assertEquals(100, histogram.count());
+        assertEquals(1024, histogram.percentile(0.5));
+        assertEquals(1024, histogram.percentile(0.98));
+        assertEquals(1536, histogram.percentile(0.99));
+        assertEquals(Long.MAX_VALUE, histogram.percentile(1.0));
+    }
+
+    public void testWritesCumulativeBuckets() {
+        final Histogram histogram = new Histogram();
+        histogram.record(100);
+        histogram.record(2000);
+
+        final StringBuilder out = new StringBuilder();
+        histogram.write(out, "latency", "node=\"a\"", 1);
+        final String text = out.toString();
+
+        assertTrue(text.contains("latency_bucket{node=\"a\",le=\"1024.0\"} 1\n"));
+        assertTrue(text.contains("latency_bucket{node=\"a\",le=\"2048.0\"} 2\n"));
+        assertTrue(text.contains("latency_bucket{node=\"a\",le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("latency_sum{node=\"a\"} 2100.0\n"));
+        assertTrue(text.contains("latency_count{node=\"a\"} 2\n"));
+    }
+
+}